@@ -4,9 +4,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import preprocessing.grading_strategy.BusLinkStrategy;
+import preprocessing.grading_strategy.GradingTable;
+import preprocessing.grading_strategy.LiftLinkGrading;
+import preprocessing.grading_strategy.SlopeLiftGrading;
+import preprocessing.grading_strategy.SlopeLinkGrading;
+import preprocessing.output.OutputPlan;
+import preprocessing.output.OutputPlan.Artifact;
 import preprocessing.util.PreprocessingLogger;
 import preprocessing.util.FileOperations;
 
@@ -27,7 +35,11 @@ public class StartConfiguration {
     private String file_in_busStops = "";
     private String logFile = "";
     private String resultFile = "";
+    private String results_format = "csv";
+    private boolean results_async = true;
     private boolean outputCandidates;
+    private boolean candidateCache;
+    private boolean rawReader;
     private int srid = 0;
     private int[] lift_distances = null;
     private int[] slope_distances = null;
@@ -38,6 +50,20 @@ public class StartConfiguration {
     private int[] bus_distances = null;
     private int[] bus_heights = null;
     private String grades = "";
+    private double snap_tolerance = 0.01;
+    private String output_artifacts = "all";
+    private String spatial_index = "all";
+    private boolean deferred_index = false;
+    private String output_format = "shapefile";
+    private int geojson_precision = 2;
+    private String vector_tiles = "tiles.mbtiles";
+    private int[] vector_tile_zoom = new int[]{10, 17};
+    private OutputPlan outputPlan = null;
+    //grading tables, compiled from the thresholds when the configuration is loaded
+    private GradingTable lift_grading = null;
+    private GradingTable slope_lift_grading = null;
+    private GradingTable slope_grading = null;
+    private GradingTable bus_grading = null;
 	
     
     private static String SELECTOR;
@@ -84,6 +110,8 @@ public class StartConfiguration {
 	    	this.logFile = "/Users/Thomas/Projects/My_Project/output/preprocessing.log";
 	    	this.resultFile = "/Users/Thomas/Projects/My_Project/output/results.txt";
 	    	this.outputCandidates = true;
+	    	this.candidateCache = false;
+	    	this.rawReader = false;
 	    	this.lift_distances = new int[]{200, 160, 95, 50};
 	    	this.slope_distances = new int[]{160, 100, 80, 60, 40};
 	    	this.bus_distances = new int[]{350, 200, 100};
@@ -133,8 +161,34 @@ public class StartConfiguration {
                 	this.logFile = folder_out + lineContent;
                 } else if (lineStart.contains("results_file")) {
                 	this.resultFile = folder_out + lineContent;
+                } else if (lineStart.contains("results_format")) {
+                	this.results_format = lineContent.trim();
+                } else if (lineStart.contains("results_async")) {
+                	this.results_async = Boolean.parseBoolean(lineContent.trim());
                 } else if (lineStart.contains("output_candidates")) {
                 	this.outputCandidates = Boolean.parseBoolean(lineContent.trim());
+                } else if (lineStart.contains("output_artifacts")) {
+                	this.output_artifacts = lineContent.trim();
+                } else if (lineStart.contains("spatial_index")) {
+                	this.spatial_index = lineContent.trim();
+                } else if (lineStart.contains("deferred_index")) {
+                	this.deferred_index = Boolean.parseBoolean(lineContent.trim());
+                } else if (lineStart.contains("output_format")) {
+                	this.output_format = lineContent.trim();
+                } else if (lineStart.contains("geojson_precision")) {
+                	this.geojson_precision = Integer.parseInt(lineContent.trim());
+                } else if (lineStart.contains("vector_tile_zoom")) {
+                	String [] zooms = lineContent.split(",");
+                	this.vector_tile_zoom = new int[zooms.length];
+                	for (int i = 0; i < vector_tile_zoom.length; i++) {
+                		this.vector_tile_zoom[i] = Integer.parseInt(zooms[i].trim());
+                	}
+                } else if (lineStart.contains("vector_tiles")) {
+                	this.vector_tiles = lineContent.trim();
+                } else if (lineStart.contains("candidate_cache")) {
+                	this.candidateCache = Boolean.parseBoolean(lineContent.trim());
+                } else if (lineStart.contains("raw_reader")) {
+                	this.rawReader = Boolean.parseBoolean(lineContent.trim());
                 } else if (lineStart.contains("lifts_dist")) {
             		String [] distances = lineContent.split(",");
             		this.lift_distances = new int[distances.length];
@@ -179,6 +233,8 @@ public class StartConfiguration {
                 	for (int i=0; i<slope_midpoint_dist.length; i++) {
                 		this.slope_midpoint_dist[i] = Double.parseDouble(slopeMidPointDists[i].trim());
                 	}
+                } else if (lineStart.contains("snap_tolerance")) {
+                	this.snap_tolerance = Double.parseDouble(lineContent.trim());
                 } else if (lineStart.contains("srid")) {
                     this.srid = Integer.parseInt(lineContent);
                 } else if (lineStart.contains("link_grades")) {
@@ -245,6 +301,24 @@ public class StartConfiguration {
 		if (this.lift_heights == null || this.lift_heights.length != 4) {this.lift_heights = new int[]{35, 10, 5, 1};}
 		if (this.slope_heights == null || this.slope_heights.length != 6) {this.slope_heights = new int[]{30, 25, 20, 15, 10, 5};}
 		if (this.bus_heights != null && this.bus_heights.length != 3) {this.bus_heights = new int[]{20, 15, 10};}
+		//output plan: candidate shapefiles are only written if OUTPUT_CANDIDATES is true
+		Set<Artifact> artifacts = OutputPlan.parseArtifacts(this.output_artifacts);
+		if (!this.outputCandidates) {
+			artifacts.remove(Artifact.CANDIDATES);
+		}
+		if (this.vector_tile_zoom.length != 2 || this.vector_tile_zoom[0] < 0 || this.vector_tile_zoom[0] > this.vector_tile_zoom[1] || this.vector_tile_zoom[1] > 24) {
+			Logger.getLogger(StartConfiguration.class.getName()).log(Level.WARNING, "Wrong vector tile zoom levels provided. Zoom levels reset to 10, 17");
+			this.vector_tile_zoom = new int[]{10, 17};
+		}
+		this.outputPlan = new OutputPlan(artifacts, OutputPlan.parseArtifacts(this.spatial_index), this.deferred_index, OutputPlan.parseFormats(this.output_format), this.folder_out);
+		if (!this.results_format.equals("csv") && !this.results_format.equals("jsonl")) {
+			Logger.getLogger(StartConfiguration.class.getName()).log(Level.WARNING, "Unknown results format provided. Results format reset to csv");
+			this.results_format = "csv";
+		}
+		if (this.snap_tolerance < 0) {
+			Logger.getLogger(StartConfiguration.class.getName()).log(Level.WARNING, "Negative snap tolerance provided. Snap tolerance reset to 0.01");
+			this.snap_tolerance = 0.01;
+		}
 		//if slope_endpoint and slope_midpoint not present start default
 		if (this.slope_endpoint_dist == 0.00) { this.slope_endpoint_dist = 20.00; }
 		if (this.slope_midpoint_dist == null || this.slope_midpoint_dist.length !=2) {this.slope_midpoint_dist  = new double[] {60.00, 10.00}; }
@@ -252,6 +326,13 @@ public class StartConfiguration {
 			Logger.getLogger(StartConfiguration.class.getName()).log(Level.WARNING, "Wrong grade settings provided. Grades reset to A,B,C,D");
 			this.grades = "ABCD";
 		}
+		//compile the grading tables once, out of the final thresholds
+		this.lift_grading = LiftLinkGrading.compile(this.lift_distances, this.lift_heights);
+		this.slope_lift_grading = SlopeLiftGrading.compile(this.slope_distances, this.slope_heights);
+		this.slope_grading = SlopeLinkGrading.compile(this.slope_endpoint_dist, this.slope_midpoint_dist[1]);
+		if (this.bus_distances != null && this.bus_heights != null) {
+			this.bus_grading = BusLinkStrategy.compile(this.bus_distances, this.bus_heights);
+		}
     	
         String str_slopes_url = this.getSlopes_in_url();
         File f_slope = new File(str_slopes_url);
@@ -295,8 +376,10 @@ public class StartConfiguration {
         System.out.println("folder in: " + this.folder_in);
         System.out.println("folder out: " + this.folder_out);
         System.out.println("log file: " + this.logFile);
-        System.out.println("results file: " + this.resultFile);
+        System.out.println("results file: " + this.resultFile + " (" + this.results_format + (this.results_async ? ", async)" : ")"));
         System.out.println("create candidate shapefiles: " + this.outputCandidates);
+        System.out.println("use candidate cache: " + this.candidateCache);
+        System.out.println("use raw shapefile reader: " + this.rawReader);
         System.out.println("file (slopes): " + this.file_in_slopes);
         System.out.println("file (lifts): " + this.file_in_lifts);
         if (!this.file_in_bus.equals("") && !this.file_in_busStops.equals("")) {
@@ -326,6 +409,10 @@ public class StartConfiguration {
         }
         System.out.println("\nQualifying link grades for the final merged_pivots features are: " + this.grades);
         System.out.println("SRID: " + this.srid);
+        System.out.println("vertex snap tolerance: " + this.snap_tolerance);
+        System.out.println("output plan: " + this.outputPlan);
+        System.out.println("GeoJSON coordinate decimals: " + this.geojson_precision);
+        System.out.println("vector tiles: " + this.vector_tiles + ", zoom " + this.vector_tile_zoom[0] + "-" + this.vector_tile_zoom[1]);
         System.out.println("#########################");
     }
 	
@@ -365,6 +452,37 @@ public class StartConfiguration {
 		return outputCandidates;
 	}
     
+    public boolean isCandidateCache() {
+		return candidateCache;
+	}
+
+    public boolean isRawReader() {
+		return rawReader;
+	}
+    
+    public double getSnap_tolerance() {
+		return snap_tolerance;
+	}
+    
+    public OutputPlan getOutputPlan() {
+		return outputPlan;
+	}
+    
+    public int getGeojson_precision() {
+		return geojson_precision;
+	}
+    
+    /**
+     * @return the MBTiles file or directory of the vector tiles, in the output folder
+     */
+    public String getVector_tiles() {
+		return folder_out + vector_tiles;
+	}
+    
+    public int[] getVector_tile_zoom() {
+		return vector_tile_zoom;
+	}
+    
 	public String getFolder_in() {
 		return folder_in;
 	}
@@ -405,6 +523,17 @@ public class StartConfiguration {
 		return resultFile;
 	}
 	
+	/**
+	 * @return the format of the results file, csv or jsonl
+	 */
+	public String getResults_format() {
+		return results_format;
+	}
+	
+	public boolean isResults_async() {
+		return results_async;
+	}
+	
 	public static void setSELECTOR(String configPresent) {
 		SELECTOR = configPresent;
 	}
@@ -445,4 +574,20 @@ public class StartConfiguration {
 		return grades;
 	}
     
+
+	public GradingTable getLift_grading() {
+		return lift_grading;
+	}
+
+	public GradingTable getSlope_lift_grading() {
+		return slope_lift_grading;
+	}
+
+	public GradingTable getSlope_grading() {
+		return slope_grading;
+	}
+
+	public GradingTable getBus_grading() {
+		return bus_grading;
+	}
 }
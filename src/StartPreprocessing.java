@@ -1,7 +1,11 @@
 package preprocessing;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,11 +17,19 @@ import org.opengis.feature.simple.SimpleFeature;
 
 import preprocessing.featureMatchingAPI.BusLinkMatching;
 import preprocessing.featureMatchingAPI.FeatureMatching;
+import preprocessing.featureMatchingAPI.InputLoader;
 import preprocessing.featureMatchingAPI.LiftLinkMatching;
 import preprocessing.featureMatchingAPI.SlopeLinkMatching;
 import preprocessing.graph.GraphUtilities;
-import preprocessing.util.FeatureOperations;
-import preprocessing.util.FileOperations;
+import preprocessing.graph.SnapGrid;
+import preprocessing.graph.VertexTable;
+import preprocessing.output.OutputPlan;
+import preprocessing.output.OutputPlan.Artifact;
+import preprocessing.output.ResultsWriter;
+import preprocessing.util.CompositeFeatureCollection;
+import preprocessing.util.Diagnostics;
+import preprocessing.util.PreprocessingLogger;
+import preprocessing.util.OutputWriterService;
 
 
 public class StartPreprocessing {
@@ -34,6 +46,8 @@ public class StartPreprocessing {
 		String slopes_in_url = StartConfiguration.getInstance().getSlopes_in_url();
 		String buses_in_url = StartConfiguration.getInstance().getBuses_in_url();
 		String stops_in_url = StartConfiguration.getInstance().getStops_in_url();
+		//output artifacts to write
+		OutputPlan outputPlan = StartConfiguration.getInstance().getOutputPlan();
 		
 		//create link folder if not existent
 		File linkDir = new File(StartConfiguration.getInstance().getFolder_out()+"\\links\\");
@@ -49,53 +63,42 @@ public class StartPreprocessing {
 		String simplified_slopes_shp_out = StartConfiguration.getInstance().getFolder_out() + "\\links\\simplified_slopes.shp";
 		String simplified_buses_shp_out = StartConfiguration.getInstance().getFolder_out() + "\\links\\simplified_buses.shp";
 		String merged_pivots_shp_out = StartConfiguration.getInstance().getFolder_out() + "merged_pivots.shp";
+		String vertices_shp_out = StartConfiguration.getInstance().getFolder_out() + "merged_pivots_vertices.shp";
 
 /*PART 2: LOAD AND READ FEATURES TO BE LINKED********************************************************************/
-		//fetch the features to be linked, load and read the lifts shapeFile
-		System.out.println("---- LOADING LIFTS ----");
-		SimpleFeatureCollection lifts_in = FileOperations.readShapeFile(lifts_in_url);
-		SimpleFeature[] lifts = (SimpleFeature[])lifts_in.toArray();
-		System.out.println("Feature collection lifts contains " + lifts_in.size() + " features");
-	
-		//fetch the features to be linked, load and read the slope shapeFile
-		System.out.println("---- LOADING SLOPES ----");
-		SimpleFeatureCollection slopes_in = FileOperations.readShapeFile(slopes_in_url);
-		SimpleFeature[] slopes = (SimpleFeature[])slopes_in.toArray();
-		System.out.println("Feature collection slopes contains " + slopes_in.size() + " features");
-		//split current slopes in single lineString ones
-		List<SimpleFeature> splitSlopes = FeatureMatching.splitMultiLineSlopes(slopes);
-		//replacing slopes with split slopes in instant parameter Array
-		slopes = splitSlopes.toArray(new SimpleFeature[0]);
-		System.out.println("New single LineString slopes collection contains: " + slopes.length + " features");
-	
-		//create 'splitSlopes'folder if not existent
-		File splitSlopesDir = new File(StartConfiguration.getInstance().getFolder_out()+"\\splitSlopes\\");
-		if (!splitSlopesDir.exists()) {
-			splitSlopesDir.mkdirs();
-		}
-		//create new shapeFile for single LineString slopes if needed
-		SimpleFeatureCollection splitSlopesCollection = new ListFeatureCollection(splitSlopes.get(0).getFeatureType(), splitSlopes);
-		//create splitSlopes shapeFile
-		FileOperations.createShapeFile(splitSlopesCollection, StartConfiguration.getInstance().getFolder_out()+"\\splitSlopes\\splitted_slopes.shp");
-
-		//fetch the features to be linked, load and read the bus shapeFile, only if it exists
-		SimpleFeature[] buses = null, stops = null;
+		//the inputs are read and normalized concurrently, each on its own task
+		InputLoader loader = new InputLoader();
+		Future<SimpleFeature[]> lifts_in = loader.loadLifts(lifts_in_url);
+		Future<SimpleFeature[]> slopes_in = loader.loadSlopes(slopes_in_url);
+		//fetch the bus shapeFiles only if they exist
+		Future<SimpleFeature[]> buses_in = null, stops_in = null;
 		if (!StartConfiguration.getInstance().getFile_in_bus().equals("") && !StartConfiguration.getInstance().getFile_in_busStops().equals("")) {
-			System.out.println("---- LOADING BUS LINES & STOPS ----");
-			SimpleFeatureCollection buses_in = FileOperations.readShapeFile(buses_in_url);
-			SimpleFeatureCollection stops_in = FileOperations.readShapeFile(stops_in_url);
-			System.out.println("Feature collection buses contains: " + buses_in.size() + " features and stops contains: " + stops_in.size());
-			buses = (SimpleFeature [])buses_in.toArray();
-			stops = (SimpleFeature [])stops_in.toArray();
+			buses_in = loader.loadBuses(buses_in_url);
+			stops_in = loader.loadStops(stops_in_url);
 		}
+		loader.shutdown();
 		
 		
 /*PART 3: CREATING LINKS ***************************************************************************************/
-
+		//each matching starts as soon as its inputs are loaded
+		SimpleFeature[] lifts = InputLoader.get(lifts_in);
 		LiftLinkMatching lift_to_lift = new LiftLinkMatching(lifts);
-			 
+		
+		SimpleFeature[] slopes = InputLoader.get(slopes_in);
+		//create splitSlopes shapeFile if in the output plan
+		if (outputPlan.isWritten(Artifact.SPLIT_SLOPES)) {
+			//create 'splitSlopes'folder if not existent
+			File splitSlopesDir = new File(StartConfiguration.getInstance().getFolder_out()+"\\splitSlopes\\");
+			if (!splitSlopesDir.exists()) {
+				splitSlopesDir.mkdirs();
+			}
+			SimpleFeatureCollection splitSlopesCollection = new ListFeatureCollection(slopes[0].getFeatureType(), Arrays.asList(slopes));
+			outputPlan.write(Artifact.SPLIT_SLOPES, splitSlopesCollection, StartConfiguration.getInstance().getFolder_out()+"\\splitSlopes\\splitted_slopes.shp");
+		}
 		SlopeLinkMatching slope_links = new SlopeLinkMatching(slopes, lifts);
 				
+		SimpleFeature[] buses = (buses_in != null) ? InputLoader.get(buses_in) : null;
+		SimpleFeature[] stops = (stops_in != null) ? InputLoader.get(stops_in) : null;
 		BusLinkMatching bus_links = null;
 		if (buses != null && stops != null) {
 			bus_links = new BusLinkMatching(buses, stops, slopes, lifts);
@@ -107,29 +110,26 @@ public class StartPreprocessing {
 /*PART 4: CREATE OUTPUT SHAPEFILES *************************************************************************/
 			
 		SimpleFeatureCollection lifts_out = lift_to_lift.getLinks();
-		FileOperations.createShapeFile(lifts_out, lift_links_shp_out);
+		outputPlan.write(Artifact.LINKS, lifts_out, lift_links_shp_out);
 		
 		SimpleFeatureCollection lift_slopes_out = slope_links.getLinks();
-		FileOperations.createShapeFile(lift_slopes_out, lift_slopes_shp_out);
+		outputPlan.write(Artifact.LINKS, lift_slopes_out, lift_slopes_shp_out);
 	
 		SimpleFeatureCollection slopes_out = slope_links.getSlopeLinks();
-		FileOperations.createShapeFile(slopes_out, slope_links_shp_out);
+		outputPlan.write(Artifact.LINKS, slopes_out, slope_links_shp_out);
 		
 		SimpleFeatureCollection bus_out = null;
 		if (bus_links != null) {
 			bus_out = bus_links.getLinks();
-			FileOperations.createShapeFile(bus_out, bus_links_shp_out);
+			outputPlan.write(Artifact.LINKS, bus_out, bus_links_shp_out);
 		}
 	
 /*PART 5: SIMPLIFY BUS LINE AND SLOPE FEATURES ************************************************************************/
-		SimpleFeatureCollection simplifiedSlopes = slope_links.simplify(bus_out); 
-	
-		FileOperations.createShapeFile(simplifiedSlopes, simplified_slopes_shp_out); 
+		SimpleFeatureCollection simplifiedSlopes = slope_links.simplify(bus_links != null ? bus_links.getLinkList() : null); 
 	
 		SimpleFeatureCollection simplifiedBuses = null;
 		if (bus_links!=null) {
 			simplifiedBuses = bus_links.simplify();
-			FileOperations.createShapeFile(simplifiedBuses, simplified_buses_shp_out);	
 		}
 
 /*PART 5: CREATE MERGED PIVOTS (FEATURES) ************************************************************************/		
@@ -143,19 +143,29 @@ public class StartPreprocessing {
 		SimpleFeatureCollection slopes_links_merge = FeatureMatching.prepareLinksToMerge(slopes_out, StartConfiguration.getInstance().getGrades());
 		
 		//merge links and simplified features and create graph
-		SimpleFeatureCollection merge_pivots = FeatureOperations.mergeSimpleFeatureCollections(simplifiedSlopes, lifts_merge);
+		//collections are chained, not copied
+		CompositeFeatureCollection merge_pivots = new CompositeFeatureCollection(simplifiedSlopes.getSchema());
+		merge_pivots.add(simplifiedSlopes).add(lifts_merge);
 		if (bus_links!=null) {
-			merge_pivots = FeatureOperations.mergeSimpleFeatureCollections(merge_pivots, simplifiedBuses);
-			merge_pivots = FeatureOperations.mergeSimpleFeatureCollections(merge_pivots, bus_links_merge);
+			merge_pivots.add(simplifiedBuses).add(bus_links_merge);
+		}
+		merge_pivots.add(slopes_links_merge).add(lift_slope_links_merge).add(lift_links_merge);
+		//assign source and target vertex ids to the edges and create vertices table
+		SnapGrid snapGrid = new SnapGrid(StartConfiguration.getInstance().getSnap_tolerance());
+		VertexTable vertices = new VertexTable(snapGrid);
+		vertices.assign(merge_pivots);
+		//simplified features are written once their source and target are assigned
+		outputPlan.write(Artifact.SIMPLIFIED, simplifiedSlopes, simplified_slopes_shp_out); 
+		outputPlan.write(Artifact.SIMPLIFIED, simplifiedBuses, simplified_buses_shp_out);	
+		outputPlan.write(Artifact.MERGED_PIVOTS, merge_pivots, merged_pivots_shp_out);
+		if (outputPlan.isWritten(Artifact.VERTICES)) {
+			outputPlan.write(Artifact.VERTICES, vertices.getVertexFeatures(merge_pivots.getSchema().getCoordinateReferenceSystem()), vertices_shp_out);
 		}
-		merge_pivots = FeatureOperations.mergeSimpleFeatureCollections(merge_pivots, slopes_links_merge);
-		merge_pivots = FeatureOperations.mergeSimpleFeatureCollections(merge_pivots, lift_slope_links_merge);
-		merge_pivots = FeatureOperations.mergeSimpleFeatureCollections(merge_pivots, lift_links_merge);
-		FileOperations.createShapeFile(merge_pivots, merged_pivots_shp_out);
+		outputPlan.writeNetwork(merge_pivots, vertices, StartConfiguration.getInstance().getFolder_out() + "network.netcol");
 
 /*PART 6: CREATE AND CHECK GRAPH **********************************************************************************/
 		//build directed graph from merged_features
-		DirectedGraph directedGraph = GraphUtilities.getDirectedGraph(merge_pivots);
+		DirectedGraph directedGraph = GraphUtilities.getDirectedGraph(merge_pivots, snapGrid);
 		System.out.println("Created directed graph with " + directedGraph.getNodes().size() + " Nodes and " + directedGraph.getEdges().size() + " Edges");
 		//check if connected
 		int startNode = 300001003;
@@ -191,6 +201,11 @@ public class StartPreprocessing {
 		//return path in Schladming-Dachstein from lift start to bus stop with difficulty factor 0
 		List<Integer> secondPath = GraphUtilities.getPath(directedGraph, 207795001, 207777001, 0);
 		System.out.println(secondPath);
+		//paths are written as GeoJSON for map preview, if GeoJSON is an output format
+		Map<String, List<Integer>> paths = new LinkedHashMap<String, List<Integer>>();
+		paths.put("207743001-108228001/0", firstPath);
+		paths.put("207795001-207777001/0", secondPath);
+		outputPlan.writePaths(paths, merge_pivots, StartConfiguration.getInstance().getFolder_out() + "paths");
 		
 		/* SPORTGASTEIN PATHS 
 		//return path from bus stop to slope start with difficulty factor 0
@@ -217,5 +232,15 @@ public class StartPreprocessing {
 			System.out.println("Final Graph is not connected");
 		}*/
 		
+/*PART 7: WAIT FOR OUTPUT SHAPEFILES ******************************************************************************/
+		//write the pending result records and close the results file
+		ResultsWriter.closeInstance();
+		//shapefiles are written in the background, wait for the writes to finish and report failed ones
+		OutputWriterService.getInstance().shutdown();
+		//build the spatial indexes deferred by the output plan and write the single file formats (GeoPackage)
+		outputPlan.finish();
+		//print the diagnostics counts and write the pending log records
+		Diagnostics.printSummary();
+		PreprocessingLogger.shutdown();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package preprocessing;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opengis.feature.simple.SimpleFeature;
+
+import preprocessing.featureMatchingAPI.InputLoader;
+import preprocessing.output.ResultsWriter;
+import preprocessing.sweep.ParameterSweep;
+import preprocessing.sweep.SweepResult;
+import preprocessing.sweep.SweepVariant;
+import preprocessing.util.Diagnostics;
+import preprocessing.util.PreprocessingLogger;
+import preprocessing.util.OutputWriterService;
+
+/**
+ * Entry point of the threshold parameter sweep.
+ * Usage: StartSweep <configuration file> <variant file> [<variant file> ...]
+ * The configuration file provides the input and output files, the variant files the thresholds to evaluate.
+ * The base configuration is always evaluated as first variant. Results are printed and written to sweep_report.csv in the output folder
+ */
+public class StartSweep {
+
+	public static void main(String[] args) {
+
+/*PART 1: LOAD CONFIGURATION AND VARIANTS *****************************************************************************/
+		String configFile = args.length == 0 ? null : args[0];
+		StartConfiguration.setSELECTOR(configFile);
+
+		SweepVariant base = SweepVariant.fromConfiguration(StartConfiguration.getInstance());
+		List<SweepVariant> variants = new ArrayList<SweepVariant>();
+		variants.add(base);
+		for (int i = 1; i < args.length; i++) {
+			variants.add(SweepVariant.fromFile(args[i], base));
+		}
+		System.out.println("---- SWEEPING " + variants.size() + " THRESHOLD VARIANTS ----");
+
+		//candidate shapefiles are written to the candidates folder
+		File candidatesDir = new File(StartConfiguration.getInstance().getFolder_out()+"\\candidates\\");
+		if (!candidatesDir.exists()) {
+			candidatesDir.mkdirs();
+		}
+
+/*PART 2: LOAD AND READ FEATURES TO BE LINKED********************************************************************/
+		//the inputs are read and normalized concurrently, each on its own task
+		InputLoader loader = new InputLoader();
+		Future<SimpleFeature[]> lifts_in = loader.loadLifts(StartConfiguration.getInstance().getLifts_in_url());
+		Future<SimpleFeature[]> slopes_in = loader.loadSlopes(StartConfiguration.getInstance().getSlopes_in_url());
+		Future<SimpleFeature[]> buses_in = null, stops_in = null;
+		if (!StartConfiguration.getInstance().getFile_in_bus().equals("") && !StartConfiguration.getInstance().getFile_in_busStops().equals("")) {
+			buses_in = loader.loadBuses(StartConfiguration.getInstance().getBuses_in_url());
+			stops_in = loader.loadStops(StartConfiguration.getInstance().getStops_in_url());
+		}
+		loader.shutdown();
+		SimpleFeature[] lifts = InputLoader.get(lifts_in);
+		SimpleFeature[] slopes = InputLoader.get(slopes_in);
+		SimpleFeature[] buses = (buses_in != null) ? InputLoader.get(buses_in) : null;
+		SimpleFeature[] stops = (stops_in != null) ? InputLoader.get(stops_in) : null;
+
+/*PART 3: RUN SWEEP AND REPORT **********************************************************************************/
+		List<SweepResult> results = new ParameterSweep(lifts, slopes, buses, stops).run(variants);
+
+		System.out.println("---- SWEEP RESULTS ----");
+		for (SweepResult result : results) {
+			System.out.println(result);
+		}
+
+		String reportFile = StartConfiguration.getInstance().getFolder_out() + "sweep_report.csv";
+		try {
+			BufferedWriter bw = new BufferedWriter(new FileWriter(reportFile));
+			try {
+				bw.write(SweepResult.getCsvHeader());
+				bw.newLine();
+				for (SweepResult result : results) {
+					bw.write(result.toCsvLine());
+					bw.newLine();
+				}
+			} finally {
+				bw.close();
+			}
+			System.out.println("Sweep report written to " + reportFile);
+		} catch (IOException e) {
+			Logger.getLogger(StartSweep.class.getName()).log(Level.SEVERE, "Could not write sweep report: " + e);
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, "Could not write sweep report: " + e);
+		}
+		ResultsWriter.closeInstance();
+		//wait for the candidate shapefiles written in the background
+		OutputWriterService.getInstance().shutdown();
+		StartConfiguration.getInstance().getOutputPlan().finish();
+		//print the diagnostics counts and write the pending log records
+		Diagnostics.printSummary();
+		PreprocessingLogger.shutdown();
+	}
+}
@@ -13,7 +13,6 @@ public class BusLink extends Link {
 	public BusLink(Coordinate start, Coordinate end) {
 		super(start, end, new BusLinkStrategy());
 		applyGrading();
-		buildAttributeList();
 	}
 
 	@Override
@@ -85,12 +85,22 @@ public class Candidate extends AbstractPointPair {
 	 * Validation with use of semantic and geometric rules
 	 */
 	private boolean validate() {
+		return isValid(this.maxAllowedHeightDif);
+	}
+	
+	/**
+	 * Validates the candidate against the given maximum allowed height difference, instead of the configured one
+	 * (used when evaluating other threshold configurations on the same candidates)
+	 * @param maxHeightDif - maximum allowed end-point height difference
+	 * @return true if candidate qualifies to become a Link
+	 */
+	public boolean isValid(double maxHeightDif) {
 		boolean isValid = false;
 		
 		if (this.TYPE.equals("Slope2Slope")) {
-			isValid = getHeightDiff() < this.maxAllowedHeightDif ? true : false;
+			isValid = getHeightDiff() < maxHeightDif ? true : false;
 		} else {
-			isValid = Math.abs(getHeightDiff()) < this.maxAllowedHeightDif ?  true : false;
+			isValid = Math.abs(getHeightDiff()) < maxHeightDif ?  true : false;
 		}
 		
 		return isValid;
@@ -13,7 +13,6 @@ public class LiftLink extends Link {
 	public LiftLink(Coordinate start, Coordinate end) {
 		super(start, end, new LiftLinkGrading());
 		applyGrading();
-		buildAttributeList();
 	}
 
 	@Override
@@ -8,56 +8,71 @@ import preprocessing.grading_strategy.GradingStrategy;
 /**
  * @author Thomas Kouseras
  * An abstract class that defines common functionality for all type of links
- * as in Lift Link, SlopeLift, Slope and Bus link
+ * as in Lift Link, SlopeLift, Slope and Bus link.
+ * Link attributes are kept in fixed fields. The attribute map is only built when the link is written out (see getAttributes)
  */
 public abstract class Link extends AbstractPointPair{
-	protected Map<String, Object> attributes;
+	protected int r_id;
+	protected String de_name = "";
+	protected String gid_start = "";
+	protected String gid_end = "";
+	protected final double length;
+	protected final double heightDif;
 	protected char grade;
 	protected GradingStrategy strategy;
 	
 	public Link(Coordinate start, Coordinate end, GradingStrategy linkStrategy){
 		super(start, end);
-		attributes = new LinkedHashMap<String, Object>();
-		this.attributes.put("r_id", new Integer(0));
-		this.attributes.put("de_name", "");
-		this.attributes.put("gid_start", "");
-		this.attributes.put("gid_end", "");
+		this.length = start.distance(end);
+		this.heightDif = end.z/10 - start.z/10;
 		this.strategy = linkStrategy;
 	}
 	
 	protected abstract void applyGrading();
 	
 	public double getHeightDiff() {
-		double diff = this.getEndElevation() - this.getStartElevation();
-		return diff;
+		return this.heightDif;
 	};
 	
 	public double getDistance(){
-		double dist = this.getStartPoint().distance(getEndPoint());
-		return dist;
-	}
-	
-	protected void buildAttributeList() {
-		this.attributes.put("length", this.getDistance());
-		this.attributes.put("height", this.getHeightDiff());
-		this.attributes.put("rate", String.valueOf(this.grade));
+		return this.length;
 	}
 	
+	/**
+	 * Builds the attribute map of the link, in the order the attributes are written to the output feature type
+	 * @return Map<String, Object>
+	 */
 	public Map<String, Object> getAttributes(){
-		return this.attributes;
-	}
-	
-	public void setAttributes(Map<String, Object> attrs){
-		this.attributes = attrs;
+		Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+		attributes.put("r_id", this.r_id);
+		attributes.put("de_name", this.de_name);
+		attributes.put("gid_start", this.gid_start);
+		attributes.put("gid_end", this.gid_end);
+		attributes.put("length", this.length);
+		attributes.put("height", this.heightDif);
+		attributes.put("rate", String.valueOf(this.grade));
+		return attributes;
 	}
 	
 	public String getAttributeValue(String attrName){
-		String value = this.attributes.get(attrName).toString();
-		return value;
-	}
-	
-	public void setAttributeValue(String name, Object value){
-		this.attributes.put(name, value);
+		switch (attrName) {
+			case "r_id":
+				return String.valueOf(this.r_id);
+			case "de_name":
+				return this.de_name;
+			case "gid_start":
+				return this.gid_start;
+			case "gid_end":
+				return this.gid_end;
+			case "length":
+				return String.valueOf(this.length);
+			case "height":
+				return String.valueOf(this.heightDif);
+			case "rate":
+				return String.valueOf(this.grade);
+			default:
+				return null;
+		}
 	}
 	
 	public double getStartElevation(){
@@ -82,5 +97,37 @@ public abstract class Link extends AbstractPointPair{
 	public void setGrade(char grade) {
 		this.grade = grade;
 	}
+
+	public int getR_id() {
+		return r_id;
+	}
+
+	public void setR_id(int r_id) {
+		this.r_id = r_id;
+	}
+
+	public String getDe_name() {
+		return de_name;
+	}
+
+	public void setDe_name(String de_name) {
+		this.de_name = de_name;
+	}
+
+	public String getGid_start() {
+		return gid_start;
+	}
+
+	public void setGid_start(String gid_start) {
+		this.gid_start = gid_start;
+	}
+
+	public String getGid_end() {
+		return gid_end;
+	}
+
+	public void setGid_end(String gid_end) {
+		this.gid_end = gid_end;
+	}
 		
 }
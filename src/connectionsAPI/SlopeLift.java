@@ -13,7 +13,6 @@ public class SlopeLift extends Link {
 	public SlopeLift (Coordinate start, Coordinate end) {
 		super(start, end, new SlopeLiftGrading());
 		applyGrading();
-		buildAttributeList();
 	}
 
 	@Override
@@ -13,7 +13,6 @@ public class SlopeLink extends Link {
 	public SlopeLink(Coordinate start, Coordinate end) {
 		super(start, end, new SlopeLinkGrading());
 		applyGrading();
-		buildAttributeList();
 	}
 
 	@Override
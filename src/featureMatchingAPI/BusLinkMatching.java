@@ -2,32 +2,33 @@ package preprocessing.featureMatchingAPI;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.index.kdtree.KdNode;
-import com.vividsolutions.jts.index.kdtree.KdTree;
 import com.vividsolutions.jts.linearref.LengthIndexedLine;
-import com.vividsolutions.jts.operation.distance.DistanceOp;
 
 import preprocessing.StartConfiguration;
 import preprocessing.connectionsAPI.Candidate;
-import preprocessing.util.FeatureOperations;
 import preprocessing.util.GeometryOperations;
-import preprocessing.util.FileOperations;
+import preprocessing.output.OutputPlan.Artifact;
+import preprocessing.util.ParallelOperations;
+import preprocessing.util.SchemaRegistry;
 
 /**
  * @author Thomas Kouseras
@@ -37,26 +38,43 @@ public class BusLinkMatching extends FeatureMatching {
 	
 	private List<SimpleFeature> busStops = null;
 	private List<SimpleFeature> lifts = null;
+	//bus stops and bus stop to bus line associations, built once and used for candidates and simplification
+	private BusStopIndex stopIndex = null;
 	
 	public BusLinkMatching(SimpleFeature[] buses, SimpleFeature[] stops, SimpleFeature[] slopes, SimpleFeature[] lifts) {
+		this(buses, stops, slopes, lifts, StartConfiguration.getInstance().getBus_distances(), false);
+	}
+	
+	/**
+	 * Class constructor with the bus distance thresholds given, instead of the configured ones (used by the parameter sweep)
+	 * @param buses
+	 * @param stops
+	 * @param slopes
+	 * @param lifts
+	 * @param bus_distances - bus distance thresholds, the first value is the max distance to fetch candidates
+	 * @param keepCandidates - true to keep the raw candidates (getCandidates)
+	 */
+	public BusLinkMatching(SimpleFeature[] buses, SimpleFeature[] stops, SimpleFeature[] slopes, SimpleFeature[] lifts, int[] bus_distances, boolean keepCandidates) {
 		super(buses, slopes);
+		//set max distance threshold according to which candidates are found.
+		this.max_threshold = (double) bus_distances[0] + 0.5;
+		if (keepCandidates) {
+			this.keepCandidates();
+		}
 		
 		//Features as ArrayList, to be able to add and delete checked items
 		this.busStops = new ArrayList<SimpleFeature>(Arrays.asList(stops));
 		this.lifts = new ArrayList<SimpleFeature>(Arrays.asList(lifts));
 		
 		System.out.println("------------------------\n");
-		//clean bust stops
-		System.out.println("Cleaning Bus Stop Duplicates:");
-		FeatureOperations.cleanDuplicateFeatures(busStops, "BUS STOP");
+		//bus stops are cleaned from duplicates when loaded (see InputLoader)
+		this.stopIndex = new BusStopIndex(busStops, buses);
 		
 		this.init();
 	}
 
 	@Override
 	public void init() {
-		//set max distance threshold according to which candidates are found.
-		this.max_threshold = (double) StartConfiguration.getInstance().getBus_distances()[0] + 0.5;
 		//set id_prefix, used to build an r_id
 		this.id_prefix = "3";
 
@@ -65,7 +83,11 @@ public class BusLinkMatching extends FeatureMatching {
 		this.matchingPath = "busLinks";
 		//helper variables to measure method execution time
 		long startTime = System.currentTimeMillis(), endTime, elapsed;
-		List<Candidate> candidates = ((BusLinkMatching) this).getBusCandidateLinks();
+		List<Candidate> candidates = this.loadCachedCandidates();
+		if (candidates == null) {
+			candidates = ((BusLinkMatching) this).getBusCandidateLinks();
+			this.cacheCandidates(candidates);
+		}
 		endTime = System.currentTimeMillis();
 		elapsed = endTime - startTime;
 				
@@ -92,18 +114,18 @@ public class BusLinkMatching extends FeatureMatching {
 		Candidate cand;
 		
 		//create bus-stop connections with lifts and slopes
-		for (SimpleFeature busStop : this.busStops) {
-//if (!busStop.getAttribute("DE_GR_L_1").toString().contains("Sportgastein")) continue;	
-			Coordinate busStopCoord = ((Geometry) busStop.getDefaultGeometry()).getCoordinate();
+		for (BusStopIndex.BusStop busStop : this.stopIndex.getStops()) {
+			Coordinate busStopCoord = busStop.getCoordinate();
 			
 			//disregard bus stop if no elevation info present (z value)
-			if(busStopCoord.z == 0.0) {continue;}
+			if(!busStop.hasElevation()) {continue;}
 			
-			de_name = busStop.getAttribute("DE_GR_L_0") + " - " + busStop.getAttribute("DE_NAME");
-			id_busStop = busStop.getAttribute("PT_ID").toString();
+			de_name = busStop.getDeName();
+			id_busStop = busStop.getId();
 
 			//iterate over lifts and fetch bus-lifts candidates. Bus stops connect both to lower and upper lift points		
 			for (SimpleFeature lift : this.lifts) {		
+				this.pairsTested++;
 				//fetch geometry, coordinate sequence and create start and end point
 				Coordinate [] lift_endpoints = GeometryOperations.getOrderedEndPoints(lift);
 				id_feature = lift.getAttribute("XML_GID").toString();
@@ -120,6 +142,7 @@ public class BusLinkMatching extends FeatureMatching {
 			}
 			//iterate over slopes and fetch bus-slopes candidates. Bus stops connect to both to lower and upper slope points
 			for (SimpleFeature slope : this.getFeat_match()) {
+				this.pairsTested++;
 				//fetch geometry, coordinate sequence and create start and end point
 				Coordinate [] slope_endpoints = GeometryOperations.getOrderedEndPoints(slope);
 				id_feature = slope.getAttribute("XML_GID").toString();
@@ -141,12 +164,21 @@ public class BusLinkMatching extends FeatureMatching {
 		//********** METHOD END ***************
 		return candidates;
 	}
-	
+
+	/**
+	 * @return the bus stops and bus stop to bus line associations of the matcher
+	 */
+	public BusStopIndex getStopIndex() {
+		return stopIndex;
+	}
+
 	/**
 	 * This method simplifies the bus line features. It projects bus stops on bus lines and creates a simplified and bus segment 
 	 * for each bus line segment from one bus stop to the next. The simplified feature expresses the topology layer and is used
 	 * for the graph construction. The bus segment feature represents a segment of the original bus line, but split into segments
 	 * at bus stops.  
+	 * Bus lines are independent of each other and are processed in parallel, bus stop projections are taken from the BusStopIndex.
+	 * r_ids are assigned afterwards in a sequential pass in the original bus line order
 	 * Attributes simplified: ?
 	 * Attributes segments: new length as segment length, new r_id as segment id identical with simplified id, plus all semantic attributes from original feature
 	 * @return A SimpleFeatureCollection containing the simplified bus line features
@@ -156,140 +188,157 @@ public class BusLinkMatching extends FeatureMatching {
 		List<SimpleFeature> simpleBuses = new ArrayList<SimpleFeature>();
 		List<SimpleFeature> segmentsBuses = new ArrayList<SimpleFeature>();
 	   	
-		//list to hold the assigned rids
-	   	List<Integer> assigned = new ArrayList<Integer>();
+		//set to hold the assigned rids
+	   	Set<Integer> assigned = new HashSet<Integer>();
 	   	
-		//create spatial index containing all bus stop points (coordinates)
-		final KdTree index = new KdTree();
-		for (SimpleFeature stop: this.busStops) {
-			index.insert(((Geometry)stop.getDefaultGeometry()).getCoordinate(), stop);
-		}
-		if (index.isEmpty()) {
-			System.err.println("kdTree is Emtpy!!!");
-		}
+		//feature type of the simplified bus lines, same for all bus lines
+		final SimpleFeatureType simplifiedType = SchemaRegistry.getMergedPivotsType(this.getFeatures_in()[0].getFeatureType().getCoordinateReferenceSystem());
 		
-		//iterate through bus lines
-		for (SimpleFeature busLine : this.getFeatures_in()) {
-//if (!busLine.getAttribute("DE_GR_L_1").toString().contains("Gasteinertal")) continue;
-			//get its envelope and expand by 5 meters
-			Envelope search = new Envelope(((Geometry)busLine.getDefaultGeometry()).getEnvelopeInternal());
-			search.expandBy(5.00);
-			//query spatial index for bus stops in the envelope
-			List<?> neighbourStops = index.query(search);
-						
-			//fetch bus line vertices as LengthIndexedLine
-			Geometry lineGeom = (Geometry)busLine.getDefaultGeometry();
-			LengthIndexedLine line = new LengthIndexedLine(lineGeom);
-			
-			//map of vertex index on lengthLine and corresponding bus stop coordinate
-			Map<Double, Coordinate> newBusLineVertices = new TreeMap<Double,Coordinate>();
-			boolean hasStart = false, hasEnd = false;
-			for (Object stop: neighbourStops) {
-				Coordinate stopCoord = ((KdNode) stop).getCoordinate();
-				//filter out bus stops that are farther than 50 meter distance from bus line
-				if (DistanceOp.isWithinDistance(lineGeom,  FeatureMatching.geomOps.coordinateToPointGeometry(stopCoord), 50.00)) {
-					
-//System.out.println("\tFound! " + ((SimpleFeature)((KdNode )stop).getData()).getAttribute("PT_ID"));
-					
-					//fetch index of closest point of bus lineString to bus stop and add both to vertex map
-					double indexOfClosestOnLine = line.project(stopCoord);
-					newBusLineVertices.put(indexOfClosestOnLine, stopCoord);				
-					
-					//check if fetched index is close to start or end point
-					if ( (int)indexOfClosestOnLine == (int)line.getStartIndex() ) {
-						hasStart = true;
-					} else if ((int)indexOfClosestOnLine == (int)line.getEndIndex()) {
-						hasEnd = true;
-					}
+		//simplify bus lines in parallel
+		final SimpleFeature[] busLines = this.getFeatures_in();
+		List<Callable<SimplifiedBusLine>> tasks = new ArrayList<Callable<SimplifiedBusLine>>(busLines.length);
+		for (int i = 0; i < busLines.length; i++) {
+			final int lineIndex = i;
+			tasks.add(new Callable<SimplifiedBusLine>() {
+				@Override
+				public SimplifiedBusLine call() {
+					return simplifyBusLine(busLines[lineIndex], stopIndex.getStopsOnLine(lineIndex), SchemaRegistry.newBuilder(simplifiedType));
 				}
-			}
-			//add start and/or end vertex if neighbor not present
-			if (!hasStart) {
-				newBusLineVertices.put(line.getStartIndex(), line.extractPoint(line.getStartIndex()));
-			}  
-			if (!hasEnd) {
-				newBusLineVertices.put(line.getEndIndex(), line.extractPoint(line.getEndIndex()));
-			}
-			//new coordinate list for the simplified feature to be created
-			List<Coordinate> simplifiedCoords = new ArrayList<Coordinate>();  
-			for (Entry<Double, Coordinate> entry: newBusLineVertices.entrySet()){
-				simplifiedCoords.add(entry.getValue());
-			}
-			
-			//use the simplified coordinates to split original bus geometry to its bus segments at topologic nodes
-			//geometry must be preserved
-			//semantic attributes must be preserved
-			// r_id attribute must be added
-			ArrayList<SimpleFeature> splitSegments = FeatureMatching.featOps.splitFeatureAtCoordinates(busLine, simplifiedCoords);
-
-			//use the simplified coordinates to create new simplified feature and add to feature collection
-			SimpleFeatureType simplifiedType = FeatureOperations.makeLineStringFeatureType(this.getFeatures_in()[0].getFeatureType().getCoordinateReferenceSystem(), "merged_pivots");
-			SimpleFeature simplifiedBus = FeatureMatching.featOps.getFeatureFromCoordinates(simplifiedType, simplifiedCoords.toArray(new Coordinate[0]));
-		   	String deName = busLine.getAttribute("DE_GR_L_0").toString() + " " + busLine.getAttribute("DE_GR_L_1").toString();
-		   	//split feature at new vertices to fetch simplified segments
-		   	ArrayList<SimpleFeature> simpleSegments = FeatureMatching.featOps.splitFeatureAtVertices(simplifiedBus);
-
-//  System.out.println(splitSegments.size() +  " / " + simpleSegments.size());		
-		   	
+			});
+		}
+		List<SimplifiedBusLine> simplifiedLines = ParallelOperations.invokeAll(tasks);
+		
+		//assign r_ids in bus line order
+		for (SimplifiedBusLine simplified : simplifiedLines) {
 		   	//used to build segment r_ids
 		   	int segmentNumber = 1;
-		   			   			
-		   	for (SimpleFeature simpleSegment : simpleSegments) {
-		   		Geometry segment_geom = (Geometry) simpleSegment.getDefaultGeometry();
-		   		Coordinate[] segment_coords = segment_geom.getCoordinates(); 
-		   		//indexedLineGeom to getLength
-		   		double length = line.extractLine(line.indexOf(segment_coords[0]), line.indexOf(segment_coords[segment_coords.length-1])).getLength();		    
-		   		
+		   	for (int i = 0; i < simplified.simpleSegments.size(); i++) {
 		   		//build unique r_id
-		   		int rid = Integer.parseInt("3"+ digitRectifier(Integer.parseInt(busLine.getAttribute("DB_ID").toString()),5) + digitRectifier(segmentNumber, 3));
+		   		int rid = Integer.parseInt("3"+ digitRectifier(simplified.busLineNumber, 5) + digitRectifier(segmentNumber, 3));
 		   		while (assigned.contains(rid)) {
 		   			rid++;
 		   			segmentNumber++;
 		   		}
 		   		assigned.add(rid);
 		   		segmentNumber++;
-		   		//pass computed r_id to the corresponded split segment
-		   		splitSegments.get(simpleSegments.indexOf(simpleSegment)).setAttribute("r_id", rid);
-		   		
-		   	
-			   	Map <String, Object> attrs = new LinkedHashMap<String, Object>();
-			   	attrs.put("XML_TYPE", busLine.getAttribute("XML_TYPE"));
-			   	attrs.put("de_name", deName);
-			   	attrs.put("difficulty", (int) 0);
-			   	attrs.put("source", String.valueOf(0));
-			   	attrs.put("target", String.valueOf(0));
-			   	attrs.put("duration", Double.parseDouble("0")); //duration 0 for slopes
-			   	attrs.put("length", length); 
-			   	attrs.put("r_length", length); 
-			   	attrs.put("r_rev_c", length * 50);
-			   	attrs.put("rev_c", length * 50);
-			   	attrs.put("cost_1", 20 * length);
-			   	attrs.put("cost_2", 20 * length);
-			   	attrs.put("cost_3", 20 * length);
-			   	attrs.put("r_cost_1", 20 * length);
-			   	attrs.put("r_cost_2", 20 * length);
-			   	attrs.put("r_cost_3", 20 * length);			   	
-			   	attrs.put("open", (int) 0);
-			   	attrs.put("start_z", segment_coords[0].z/10);
-			   	attrs.put("end_z", segment_coords[segment_coords.length-1].z/10);
-			   	attrs.put("r_id", rid);
-				//add attribute
-				for (Map.Entry<String, Object> attribute : attrs.entrySet()){
-					simpleSegment = FeatureOperations.addAttribute(simpleSegment, attribute.getKey(), attribute.getValue());
-					simpleSegment.setAttribute(attribute.getKey(), attribute.getValue());
-				}
-			   	
-				simpleBuses.add(simpleSegment);
+		   		//pass computed r_id to the simplified and the corresponded split segment
+		   		simplified.simpleSegments.get(i).setAttribute("r_id", rid);
+		   		if (simplified.splitSegments != null) {
+		   			simplified.splitSegments.get(i).setAttribute("r_id", rid);
+		   		}
+		   	}
+		   	simpleBuses.addAll(simplified.simpleSegments);
+		   	if (simplified.splitSegments != null) {
+		   		segmentsBuses.addAll(simplified.splitSegments);
 		   	}
-		   	
-		   	segmentsBuses.addAll(splitSegments);
 		}
 		
 		//create segments_buses shapefile
-		SimpleFeatureCollection newBusesSegments = new ListFeatureCollection(segmentsBuses.get(0).getFeatureType(), segmentsBuses);
-		FileOperations.createShapeFile(newBusesSegments, StartConfiguration.getInstance().getFolder_out() + "segments_buses.shp");	
+		if (!segmentsBuses.isEmpty()) {
+			SimpleFeatureCollection newBusesSegments = new ListFeatureCollection(segmentsBuses.get(0).getFeatureType(), segmentsBuses);
+			StartConfiguration.getInstance().getOutputPlan().write(Artifact.SEGMENTS, newBusesSegments, StartConfiguration.getInstance().getFolder_out() + "segments_buses.shp");
+		}
 
 		SimpleFeatureCollection simplifiedBuses = new ListFeatureCollection(simpleBuses.get(0).getFeatureType(), simpleBuses);
 		return simplifiedBuses;
 	}
+	
+	/**
+	 * This method simplifies and splits a single bus line at its bus stops (see simplify). Segments are returned without r_id
+	 * @param busLine - the bus line feature
+	 * @param stopsOnLine - the bus stops associated with the bus line
+	 * @param segmentBuilder - feature builder of the merged_pivots schema, used by the calling thread only
+	 * @return SimplifiedBusLine
+	 */
+	private SimplifiedBusLine simplifyBusLine(SimpleFeature busLine, List<BusStopIndex.StopOnLine> stopsOnLine, SimpleFeatureBuilder segmentBuilder) {
+		//fetch bus line vertices as LengthIndexedLine
+		Geometry lineGeom = (Geometry)busLine.getDefaultGeometry();
+		LengthIndexedLine line = new LengthIndexedLine(lineGeom);
+		
+		//map of vertex index on lengthLine and corresponding bus stop coordinate
+		Map<Double, Coordinate> newBusLineVertices = new TreeMap<Double,Coordinate>();
+		boolean hasStart = false, hasEnd = false;
+		for (BusStopIndex.StopOnLine stop: stopsOnLine) {
+			//add index of closest point of bus lineString to bus stop and bus stop coordinate to vertex map
+			double indexOfClosestOnLine = stop.getProjectedIndex();
+			newBusLineVertices.put(indexOfClosestOnLine, stop.getCoordinate());				
+			
+			//check if fetched index is close to start or end point
+			if ( (int)indexOfClosestOnLine == (int)line.getStartIndex() ) {
+				hasStart = true;
+			} else if ((int)indexOfClosestOnLine == (int)line.getEndIndex()) {
+				hasEnd = true;
+			}
+		}
+		//add start and/or end vertex if neighbor not present
+		if (!hasStart) {
+			newBusLineVertices.put(line.getStartIndex(), line.extractPoint(line.getStartIndex()));
+		}  
+		if (!hasEnd) {
+			newBusLineVertices.put(line.getEndIndex(), line.extractPoint(line.getEndIndex()));
+		}
+		//new coordinate list for the simplified feature to be created
+		List<Coordinate> simplifiedCoords = new ArrayList<Coordinate>();  
+		for (Entry<Double, Coordinate> entry: newBusLineVertices.entrySet()){
+			simplifiedCoords.add(entry.getValue());
+		}
+		
+		//use the simplified coordinates to split original bus geometry to its bus segments at topologic nodes
+		//geometry must be preserved
+		//semantic attributes must be preserved
+		// r_id attribute must be added
+		//split segments are only needed for the segments output
+		ArrayList<SimpleFeature> splitSegments = StartConfiguration.getInstance().getOutputPlan().isWritten(Artifact.SEGMENTS) ? 
+				FeatureMatching.featOps.splitFeatureAtCoordinates(busLine, simplifiedCoords) : null;
+
+	   	String deName = busLine.getAttribute("DE_GR_L_0").toString() + " " + busLine.getAttribute("DE_GR_L_1").toString();
+	   	
+	   	//simplified bus line segments, one for each pair of new vertices
+	   	SimplifiedBusLine simplified = new SimplifiedBusLine(Integer.parseInt(busLine.getAttribute("DB_ID").toString()), splitSegments);
+	   	for (int i = 0; i < simplifiedCoords.size() - 1; i++) {
+	   		Coordinate[] segment_coords = {simplifiedCoords.get(i), simplifiedCoords.get(i + 1)};
+	   		//indexedLineGeom to getLength
+	   		double length = line.extractLine(line.indexOf(segment_coords[0]), line.indexOf(segment_coords[segment_coords.length-1])).getLength();		    
+	   	
+		   	Map <String, Object> attrs = new LinkedHashMap<String, Object>();
+		   	attrs.put("XML_TYPE", busLine.getAttribute("XML_TYPE"));
+		   	attrs.put("de_name", deName);
+		   	attrs.put("difficulty", (int) 0);
+		   	attrs.put("source", (int) 0); //assigned by VertexTable
+		   	attrs.put("target", (int) 0);
+		   	attrs.put("duration", Double.parseDouble("0")); //duration 0 for slopes
+		   	attrs.put("length", length); 
+		   	attrs.put("r_length", length); 
+		   	attrs.put("r_rev_c", length * 50);
+		   	attrs.put("rev_c", length * 50);
+		   	attrs.put("cost_1", 20 * length);
+		   	attrs.put("cost_2", 20 * length);
+		   	attrs.put("cost_3", 20 * length);
+		   	attrs.put("r_cost_1", 20 * length);
+		   	attrs.put("r_cost_2", 20 * length);
+		   	attrs.put("r_cost_3", 20 * length);			   	
+		   	attrs.put("open", (int) 0);
+		   	attrs.put("start_z", segment_coords[0].z/10);
+		   	attrs.put("end_z", segment_coords[segment_coords.length-1].z/10);
+		   	attrs.put("r_id", (int) 0); //assigned by simplify, in bus line order
+			//build feature with all attributes
+			simplified.simpleSegments.add(SchemaRegistry.buildFeature(segmentBuilder, FeatureMatching.featOps.createLineString(segment_coords), attrs));
+	   	}
+	   	return simplified;
+	}
+	
+	/**
+	 * Result of the simplification of a single bus line: its split segments and the simplified segments, in the same order.
+	 * Split segments are null if segments are not written
+	 */
+	private static class SimplifiedBusLine {
+		private final int busLineNumber;
+		private final List<SimpleFeature> splitSegments;
+		private final List<SimpleFeature> simpleSegments = new ArrayList<SimpleFeature>();
+		
+		SimplifiedBusLine(int busLineNumber, List<SimpleFeature> splitSegments) {
+			this.busLineNumber = busLineNumber;
+			this.splitSegments = splitSegments;
+		}
+	}
 }
@@ -0,0 +1,179 @@
+package preprocessing.featureMatchingAPI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.kdtree.KdNode;
+import com.vividsolutions.jts.index.kdtree.KdTree;
+import com.vividsolutions.jts.linearref.LengthIndexedLine;
+import com.vividsolutions.jts.operation.distance.DistanceOp;
+
+import preprocessing.util.ParallelOperations;
+
+/**
+ * A class which holds the bus stops with their semantic info and the association table between bus stops and bus lines.
+ * A bus stop is associated with a bus line if it lies within 50 meters of it. For each association the index of the stop
+ * projected on the line (LengthIndexedLine index) is kept.
+ * The table is built once, in parallel for the bus lines, and is used both for bus candidate links and bus line simplification
+ */
+public class BusStopIndex {
+	//max distance of a bus stop from a bus line, for the stop to be part of the line
+	public static final double MAX_STOP_DISTANCE = 50.00;
+	//expansion of the bus line envelope when querying bus stops
+	private static final double ENVELOPE_EXPANSION = 5.00;
+
+	private final List<BusStop> stops;
+	private final List<List<StopOnLine>> lineStops;
+
+	/**
+	 * Class constructor. Builds the bus stop entries and the association table
+	 * @param busStops - bus stop features (already cleaned from duplicates)
+	 * @param busLines - bus line features
+	 */
+	public BusStopIndex(List<SimpleFeature> busStops, final SimpleFeature[] busLines) {
+		List<BusStop> stopList = new ArrayList<BusStop>(busStops.size());
+		//create spatial index containing all bus stop points (coordinates)
+		final KdTree index = new KdTree();
+		for (SimpleFeature stop : busStops) {
+			BusStop busStop = new BusStop(stop);
+			stopList.add(busStop);
+			index.insert(busStop.getCoordinate(), busStop);
+		}
+		if (index.isEmpty()) {
+			System.err.println("kdTree is Emtpy!!!");
+		}
+		this.stops = Collections.unmodifiableList(stopList);
+
+		//associate stops with bus lines, bus lines are independent and processed in parallel
+		List<Callable<List<StopOnLine>>> tasks = new ArrayList<Callable<List<StopOnLine>>>(busLines.length);
+		for (final SimpleFeature busLine : busLines) {
+			tasks.add(new Callable<List<StopOnLine>>() {
+				@Override
+				public List<StopOnLine> call() {
+					return associate(busLine, index);
+				}
+			});
+		}
+		this.lineStops = ParallelOperations.invokeAll(tasks);
+	}
+
+	/**
+	 * Returns the bus stops lying within MAX_STOP_DISTANCE from the bus line, in the order returned by the spatial index
+	 */
+	private static List<StopOnLine> associate(SimpleFeature busLine, KdTree index) {
+		Geometry lineGeom = (Geometry) busLine.getDefaultGeometry();
+		LengthIndexedLine line = new LengthIndexedLine(lineGeom);
+		//get its envelope and expand by 5 meters
+		Envelope search = new Envelope(lineGeom.getEnvelopeInternal());
+		search.expandBy(ENVELOPE_EXPANSION);
+		//query spatial index for bus stops in the envelope
+		List<?> neighbourStops = index.query(search);
+
+		List<StopOnLine> associations = new ArrayList<StopOnLine>(neighbourStops.size());
+		for (Object node : neighbourStops) {
+			BusStop stop = (BusStop) ((KdNode) node).getData();
+			Coordinate stopCoord = ((KdNode) node).getCoordinate();
+			//filter out bus stops that are farther than 50 meter distance from bus line
+			if (DistanceOp.isWithinDistance(lineGeom, lineGeom.getFactory().createPoint(stopCoord), MAX_STOP_DISTANCE)) {
+				//fetch index of closest point of bus lineString to bus stop
+				associations.add(new StopOnLine(stop, stopCoord, line.project(stopCoord)));
+			}
+		}
+		return Collections.unmodifiableList(associations);
+	}
+
+	/**
+	 * @return all bus stops, in input order
+	 */
+	public List<BusStop> getStops() {
+		return stops;
+	}
+
+	/**
+	 * @param lineIndex - index of the bus line in the bus line array the table was built with
+	 * @return the stops associated with the bus line
+	 */
+	public List<StopOnLine> getStopsOnLine(int lineIndex) {
+		return lineStops.get(lineIndex);
+	}
+
+	/**
+	 * A bus stop with the semantic info used for bus links
+	 */
+	public static class BusStop {
+		private final SimpleFeature feature;
+		private final Coordinate coordinate;
+		private final String id;
+		private final String deName;
+
+		BusStop(SimpleFeature feature) {
+			this.feature = feature;
+			this.coordinate = ((Geometry) feature.getDefaultGeometry()).getCoordinate();
+			this.id = feature.getAttribute("PT_ID").toString();
+			this.deName = feature.getAttribute("DE_GR_L_0") + " - " + feature.getAttribute("DE_NAME");
+		}
+
+		public SimpleFeature getFeature() {
+			return feature;
+		}
+
+		public Coordinate getCoordinate() {
+			return coordinate;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getDeName() {
+			return deName;
+		}
+
+		/**
+		 * @return true if the bus stop has elevation info (z value)
+		 */
+		public boolean hasElevation() {
+			return coordinate.z != 0.0;
+		}
+	}
+
+	/**
+	 * An association of a bus stop with a bus line
+	 */
+	public static class StopOnLine {
+		private final BusStop stop;
+		private final Coordinate coordinate;
+		private final double projectedIndex;
+
+		StopOnLine(BusStop stop, Coordinate coordinate, double projectedIndex) {
+			this.stop = stop;
+			this.coordinate = coordinate;
+			this.projectedIndex = projectedIndex;
+		}
+
+		public BusStop getStop() {
+			return stop;
+		}
+
+		/**
+		 * @return the coordinate of the stop, as stored in the spatial index
+		 */
+		public Coordinate getCoordinate() {
+			return coordinate;
+		}
+
+		/**
+		 * @return the index of the closest point of the bus line to the stop
+		 */
+		public double getProjectedIndex() {
+			return projectedIndex;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package preprocessing.featureMatchingAPI;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import preprocessing.StartConfiguration;
+import preprocessing.connectionsAPI.Candidate;
+
+/**
+ * A class which stores the raw candidates of a matching path in a binary file and loads them back on the next run.
+ * The cache file is keyed by the content hashes of the input shapefiles and the geometric thresholds used to fetch candidates
+ * (the max distance of the matcher, which the parameter sweep may set, and the configured slope end-point and mid-point distances),
+ * so a cache file is only used if inputs and thresholds are unchanged. Height thresholds and grades are not part of the key,
+ * since they are applied after the candidates are fetched (validation and grading).
+ * The cache is used only if CANDIDATE_CACHE is set to true in the configuration file
+ *
+ * File layout: magic, version, key (UTF), candidate count, then per candidate
+ * type, gid_start, gid_end, de_name (UTF) and start/end point x, y, z (double)
+ */
+public class CandidateCache {
+	private static final int MAGIC = 0x43414e44; //"CAND"
+	private static final int VERSION = 1;
+	private static final String[] SHAPEFILE_PARTS = {".shp", ".dbf"};
+	//content hashes of the input files, computed once per run
+	private static final Map<String, String> fileHashes = new HashMap<String, String>();
+
+	/**
+	 * Loads the candidates of the given matching path if a cache file with matching key exists
+	 * @param matchingPath
+	 * @param maxThreshold - max distance the matcher fetches candidates with
+	 * @return List of candidates or null if no valid cache file exists
+	 */
+	public static List<Candidate> load(String matchingPath, double maxThreshold) {
+		File cacheFile = getCacheFile(matchingPath);
+		if (!cacheFile.exists()) {
+			return null;
+		}
+		long startTime = System.currentTimeMillis();
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 1 << 16));
+			List<Candidate> candidates;
+			int size;
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Candidate cache " + cacheFile + " has unknown format. Recomputing candidates");
+					return null;
+				}
+				if (!in.readUTF().equals(getKey(matchingPath, maxThreshold))) {
+					System.out.println(matchingPath + " candidate cache is outdated (input or thresholds changed). Recomputing candidates");
+					return null;
+				}
+				size = in.readInt();
+				candidates = new ArrayList<Candidate>(size);
+				for (int i = 0; i < size; i++) {
+					String type = in.readUTF();
+					String gidStart = in.readUTF();
+					String gidEnd = in.readUTF();
+					String deName = in.readUTF();
+					Coordinate start = new Coordinate(in.readDouble(), in.readDouble(), in.readDouble());
+					Coordinate end = new Coordinate(in.readDouble(), in.readDouble(), in.readDouble());
+					candidates.add(new Candidate(start, end, type, gidStart, gidEnd, deName));
+				}
+			} finally {
+				in.close();
+			}
+			long elapsed = System.currentTimeMillis() - startTime;
+			System.out.println(matchingPath + ": loaded " + size + " candidates from cache in " + elapsed + " msecs");
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, matchingPath + ": loaded " + size + " candidates from cache " + cacheFile);
+			return candidates;
+		} catch (IOException e) {
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Could not read candidate cache " + cacheFile + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the candidates of the given matching path. The file is written next to the final one and renamed when complete,
+	 * so that an interrupted run never leaves a truncated cache file behind
+	 * @param matchingPath
+	 * @param maxThreshold - max distance the matcher fetched the candidates with
+	 * @param candidates
+	 */
+	public static void store(String matchingPath, double maxThreshold, List<Candidate> candidates) {
+		File cacheFile = getCacheFile(matchingPath);
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		if (!cacheFile.getParentFile().exists()) {
+			cacheFile.getParentFile().mkdirs();
+		}
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(getKey(matchingPath, maxThreshold));
+				out.writeInt(candidates.size());
+				for (Candidate cand : candidates) {
+					out.writeUTF(cand.getType());
+					out.writeUTF(cand.getXml_gid_start());
+					out.writeUTF(cand.getXml_gid_end());
+					out.writeUTF(cand.getDe_name());
+					writeCoordinate(out, cand.getStartPoint());
+					writeCoordinate(out, cand.getEndPoint());
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Could not write candidate cache " + cacheFile + ": " + e);
+			tempFile.delete();
+			return;
+		}
+		if (cacheFile.exists()) {
+			cacheFile.delete();
+		}
+		if (!tempFile.renameTo(cacheFile)) {
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Could not move candidate cache to " + cacheFile);
+		}
+	}
+
+	private static void writeCoordinate(DataOutputStream out, Coordinate coord) throws IOException {
+		out.writeDouble(coord.x);
+		out.writeDouble(coord.y);
+		out.writeDouble(coord.z);
+	}
+
+	private static File getCacheFile(String matchingPath) {
+		return new File(StartConfiguration.getInstance().getFolder_out() + "\\cache\\" + matchingPath + ".cand");
+	}
+
+	/**
+	 * Builds the cache key of a matching path out of the input file hashes and the geometric thresholds
+	 * @param matchingPath
+	 * @param maxThreshold - max distance of the matcher
+	 * @return hex encoded SHA-256 key
+	 * @throws IOException if an input file cannot be read
+	 */
+	static String getKey(String matchingPath, double maxThreshold) throws IOException {
+		StartConfiguration config = StartConfiguration.getInstance();
+		StringBuilder key = new StringBuilder(matchingPath);
+		String[] inputs = {config.getFile_in_lifts(), config.getFile_in_slopes(), config.getFile_in_bus(), config.getFile_in_busStops()};
+		for (String input : inputs) {
+			key.append(';').append(input).append('=').append(input.equals("") ? "" : getShapefileHash(config.getFolder_in() + input));
+		}
+		key.append(";max_dist=").append(maxThreshold);
+		key.append(";slopes_endpoint=").append(config.getSlope_endpoint_dist());
+		key.append(";slopes_midpoint=").append(config.getSlope_midpoint_dist()[0]).append(',').append(config.getSlope_midpoint_dist()[1]);
+		return toHex(newDigest().digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Computes the content hash of an input shapefile ahead of the matching, e.g. on the task which loads it.
+	 * Errors are logged, the hash is computed again when the key is built
+	 * @param shapefile - path and file name of the shapefile
+	 */
+	public static void prepare(String shapefile) {
+		try {
+			getShapefileHash(shapefile);
+		} catch (IOException e) {
+			Logger.getLogger(CandidateCache.class.getName()).log(Level.WARNING, "Could not hash " + shapefile, e);
+		}
+	}
+
+	/**
+	 * Returns the content hash of a shapefile (geometry and attribute files). Different files are hashed concurrently
+	 */
+	private static String getShapefileHash(String shapefile) throws IOException {
+		String hash;
+		synchronized (fileHashes) {
+			hash = fileHashes.get(shapefile);
+		}
+		if (hash == null) {
+			MessageDigest digest = newDigest();
+			String base = shapefile.toLowerCase().endsWith(".shp") ? shapefile.substring(0, shapefile.length() - 4) : shapefile;
+			byte[] buffer = new byte[1 << 16];
+			for (String part : SHAPEFILE_PARTS) {
+				File file = new File(base + part);
+				if (!file.exists()) continue;
+				InputStream in = new FileInputStream(file);
+				try {
+					int read;
+					while ((read = in.read(buffer)) > 0) {
+						digest.update(buffer, 0, read);
+					}
+				} finally {
+					in.close();
+				}
+			}
+			hash = toHex(digest.digest());
+			synchronized (fileHashes) {
+				fileHashes.put(shapefile, hash);
+			}
+		}
+		return hash;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
@@ -1,10 +1,5 @@
 package preprocessing.featureMatchingAPI;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -17,6 +12,7 @@ import java.util.logging.Logger;
 import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
@@ -31,9 +27,11 @@ import preprocessing.StartConfiguration;
 import preprocessing.connectionsAPI.AbstractPointPair;
 import preprocessing.connectionsAPI.Candidate;
 import preprocessing.connectionsAPI.Link;
+import preprocessing.output.OutputPlan.Artifact;
+import preprocessing.output.ResultsWriter;
 import preprocessing.util.FeatureOperations;
 import preprocessing.util.GeometryOperations;
-import preprocessing.util.FileOperations;
+import preprocessing.util.SchemaRegistry;
 
 /**
  * 
@@ -41,6 +39,12 @@ import preprocessing.util.FileOperations;
  * A class which represents the FeatureMatching abstract type. Provides a basic API, plus helper methods
  */
 public abstract class FeatureMatching {
+	//attribute columns read from the input shapefiles (see FileOperations.loadShapeFile), the geometry is always read
+	public static final String[] LIFT_PROPERTIES = {"XML_GID", "XML_TYPE", "DE_GR_L_0", "DE_GR_L_1"};
+	public static final String[] SLOPE_PROPERTIES = {"XML_GID", "XML_TYPE", "DE_GR_L_0", "DE_GR_L_1", "DE_GR_L_3"};
+	public static final String[] BUS_PROPERTIES = {"DB_ID", "XML_TYPE", "DE_GR_L_0", "DE_GR_L_1"};
+	public static final String[] STOP_PROPERTIES = {"PT_ID", "DE_GR_L_0", "DE_NAME"};
+	
 	static FeatureOperations featOps = new FeatureOperations();
 	static GeometryOperations geomOps = new GeometryOperations();
 	//list to hold the assigned rids
@@ -49,10 +53,14 @@ public abstract class FeatureMatching {
 	//instance parameters
 	private SimpleFeature[] features_in;
 	private List<SimpleFeature> feat_match;
+	private List<Link> linkList;
 	private SimpleFeatureCollection links;
+	private List<Candidate> candidates = null;
 	protected String id_prefix;
 	protected double max_threshold;
 	protected String matchingPath;
+	//feature pairs tested by the candidate search of the current matching path, for the results summary
+	protected long pairsTested = 0;
 	
 	
 	public FeatureMatching (SimpleFeature[] shp_in, SimpleFeature[] shp_match) {
@@ -83,11 +91,9 @@ public abstract class FeatureMatching {
 		
 		//***** PRINT CANDIDATE RESULTS*********
 		String header = matchingPath + " processing yielded: " + cands.size() + " candidate links";
-		try {
-			printCandidates(header, cands);
-		} catch (IOException e) {
-			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, "Print Candidates Exception: " + e);
-			e.printStackTrace();
+		ResultsWriter results = ResultsWriter.getInstance();
+		if (results != null) {
+			results.writeCandidates(matchingPath, cands);
 		}
 		
 		System.out.println(header);
@@ -100,24 +106,35 @@ public abstract class FeatureMatching {
 			}
 		}*/
 		
+		//keep raw candidates if asked to, so that they can be re-evaluated with other thresholds
+		if (this.candidates != null) {
+			this.candidates.addAll(cands);
+		}
+		
 		//***** CREATE LINKS ******************
-		createLinks(cands);
+		List<Link> finalLinks = createLinks(cands);
+		if (results != null) {
+			results.writeLinks(matchingPath, finalLinks);
+			results.writeSummary(matchingPath, this.pairsTested, cands.size(), finalLinks, timeOfExecution);
+		}
+		this.pairsTested = 0;
 		
 		
 		//**** CREATE CANIDATE SHAPEFILE *****
-		if (StartConfiguration.getInstance().isOutputCandidates() && cands != null) {
+		if (StartConfiguration.getInstance().getOutputPlan().isWritten(Artifact.CANDIDATES) && cands != null) {
 			SimpleFeatureCollection candidateCollection = featOps.getFeatureCollectionFromLinks(this.features_in[0].getFeatureType(), new ArrayList<AbstractPointPair>(cands));
-			FileOperations.createShapeFile(candidateCollection, StartConfiguration.getInstance().getFolder_out()+"\\candidates\\"+matchingPath+"_candidates.shp");
+			StartConfiguration.getInstance().getOutputPlan().write(Artifact.CANDIDATES, candidateCollection, StartConfiguration.getInstance().getFolder_out()+"\\candidates\\"+matchingPath+"_candidates.shp");
 		}
 	}
 	
 
 	/**
-	 * This method creates the Link objects out of candidates and SimpleFeatureCollection out of them 
-	 * which passes to the relevant instance variable
+	 * This method creates the Link objects out of candidates and passes them to the relevant instance variable.
+	 * The SimpleFeatureCollection of the links is only built when it is requested for output (see getLinks)
 	 * @param candidates
+	 * @return the links
 	 */
-	private void createLinks (List<Candidate> candidates) {
+	private List<Link> createLinks (List<Candidate> candidates) {
 		//List of links
 		List<Link> finalLinks = new ArrayList<Link>();
 		//create links from the candidates
@@ -126,13 +143,13 @@ public abstract class FeatureMatching {
 			Link newLink = cand.createLink();
 			if (newLink == null || newLink.getGrade() == 'E')  continue; //move to next iteration if createLink returned null or grade evaluated to E
 			//finalize attributes and add to List
-			newLink.setAttributeValue("gid_start", cand.getXml_gid_start());
-			newLink.setAttributeValue("gid_end", cand.getXml_gid_end());
-			newLink.setAttributeValue("de_name", cand.getDe_name());
+			newLink.setGid_start(cand.getXml_gid_start());
+			newLink.setGid_end(cand.getXml_gid_end());
+			newLink.setDe_name(cand.getDe_name());
 			
 			//build r_id and added to Link's attributes
 			String r_id = this.id_prefix  + cand.getXml_gid_start();
-			newLink.setAttributeValue("r_id", Integer.parseInt(r_id));
+			newLink.setR_id(Integer.parseInt(r_id));
 			
 			finalLinks.add(newLink);
 		}
@@ -140,26 +157,51 @@ public abstract class FeatureMatching {
 		//clear links from null values
 		finalLinks.removeAll(Collections.singleton(null));
 		
-		//***** PRINT LINK RESULTS *********
-		String header = matchingPath + " processing yielded: " + finalLinks.size() + " links";
-		try {
-			printLinks(header, finalLinks);
-		} catch (IOException e) {
-			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, "Print Links Exception :" + e);
-			e.printStackTrace();
-		}
-/*		System.out.println(header);
+		//***** PRINT LINK RESULTS (written to the results file by printAndFinalizeLinks) *********
+/*		System.out.println(matchingPath + " processing yielded: " + finalLinks.size() + " links");
 		System.out.println(" R_ID,   XML_GID_START, XML_GID_END, LENGTH, HEIGHT DIFF, RATE");
 		for (Link item: finalLinks) {
 			System.out.printf("%4s  %9s     %8s      %6.2f  %9.2f    %3s \n", item.getAttributeValue("r_id"),
 					item.getAttributeValue("gid_start"), item.getAttributeValue("gid_end"), item.getDistance(), item.getHeightDiff(), item.getGrade());
 		}*/
 		
-		//***** CREATE LINKS FEATURE COLLECTION *********
+		//***** KEEP LINKS *********
 		if (this.matchingPath.equals("slopeLinks")) {
-			((SlopeLinkMatching) this).setSlopeLinks(featOps.getFeatureCollectionFromLinks(this.features_in[0].getFeatureType(), new ArrayList<AbstractPointPair>(finalLinks)));
+			((SlopeLinkMatching) this).setSlopeLinkList(finalLinks);
 		} else
-		this.links = featOps.getFeatureCollectionFromLinks(this.features_in[0].getFeatureType(), new ArrayList<AbstractPointPair>(finalLinks));
+		this.linkList = finalLinks;
+		return finalLinks;
+	}
+	
+	/**
+	 * Builds a SimpleFeatureCollection out of the given links, with the feature type of the input features
+	 * @param linkList
+	 * @return SimpleFeatureCollection
+	 */
+	protected SimpleFeatureCollection buildLinkCollection(List<Link> linkList) {
+		return featOps.getFeatureCollectionFromLinks(this.features_in[0].getFeatureType(), new ArrayList<AbstractPointPair>(linkList));
+	}
+	
+	
+	/**
+	 * Returns the candidates of the current matching path from the candidate cache.
+	 * @return List of candidates or null if the cache is disabled or has no valid entry, in which case candidates have to be computed
+	 */
+	protected List<Candidate> loadCachedCandidates() {
+		if (!StartConfiguration.getInstance().isCandidateCache()) {
+			return null;
+		}
+		return CandidateCache.load(this.matchingPath, this.max_threshold);
+	}
+	
+	/**
+	 * Stores the computed candidates of the current matching path in the candidate cache, if the cache is enabled
+	 * @param cands
+	 */
+	protected void cacheCandidates(List<Candidate> cands) {
+		if (StartConfiguration.getInstance().isCandidateCache()) {
+			CandidateCache.store(this.matchingPath, this.max_threshold, cands);
+		}
 	}
 	
 	
@@ -296,36 +338,6 @@ public abstract class FeatureMatching {
 		} else return null;
 	}
 		
-	/**
-	 * outputs the result point pair list to a result text file.
-	 * @param txtFile {String} - pathname of the result file
-	 * @param header {String}
-	 * @param links {List<Link>} 
-	 * @throws IOException
-	 * @throws FileNotFoundException
-	 */
-	public static void printCandidates (String header, List<Candidate> candidates) throws IOException, FileNotFoundException {
-		String resultFile = StartConfiguration.getInstance().getResultFile();
-		File fout = new File(resultFile);
-		FileWriter fw = new FileWriter(fout, true);
-		BufferedWriter bw = new BufferedWriter(fw);
-		//write header
-		bw.write(header);
-		bw.newLine();
-		bw.write("##, GID_START, GID_END, HEIGHT_DIF, DIST");
-		bw.newLine();
-		int counter = 1;
-		for (Candidate cand : candidates) {
-			String line = String.format("%-3d, %8s, %8s, %8.2f, %6.2f", counter, cand.getXml_gid_start(), cand.getXml_gid_end(), cand.getHeightDiff(), cand.getEndPoint().distance(cand.getStartPoint()));
-			bw.write(line);
-			bw.newLine();
-			counter++;
-		}
-		bw.newLine();
-		bw.close();
-	}
-	
-	
 	/**
 	 * This method splits slopes with multiple lineString geometries to the simple lineStrings they consist of 
 	 * and returns them as new List of SimpleFeature objects. Identical slopes are removed
@@ -392,7 +404,8 @@ public abstract class FeatureMatching {
      */
     public static SimpleFeatureCollection prepareLinksToMerge(SimpleFeatureCollection links, String qualifyingGrades) {
 		List<SimpleFeature> mergeFeatures = new ArrayList<SimpleFeature>();
-		SimpleFeatureType mergeType = FeatureOperations.makeLineStringFeatureType(links.getSchema().getCoordinateReferenceSystem(), "merged_pivots");
+		SimpleFeatureType mergeType = SchemaRegistry.getMergedPivotsType(links.getSchema().getCoordinateReferenceSystem());
+		SimpleFeatureBuilder builder = SchemaRegistry.newBuilder(mergeType);
 		SimpleFeatureIterator iterator = links.features();
 		
 		try {
@@ -402,7 +415,6 @@ public abstract class FeatureMatching {
 				if (!qualifyingGrades.contains((CharSequence) link.getAttribute("rate"))) continue;
 				
 				Coordinate[] linkCoords = ((Geometry)link.getDefaultGeometry()).getCoordinates();
-				SimpleFeature mergeLink = featOps.getFeatureFromCoordinates(mergeType, linkCoords);
 				//initialize attributes
 				String xml_type = null;
 				double length = ((Geometry)link.getDefaultGeometry()).getLength();
@@ -450,8 +462,8 @@ public abstract class FeatureMatching {
 			   	attrs.put("XML_TYPE", xml_type);
 			   	attrs.put("de_name", link.getAttribute("de_name"));
 			   	attrs.put("difficulty", difficulty);
-			   	attrs.put("source", String.valueOf(0));				//attrs.put("gid_start", link.getAttribute("gid_start"));
-			   	attrs.put("target", String.valueOf(0));				//attrs.put("gid_end", link.getAttribute("gid_end"));
+			   	attrs.put("source", (int) 0);				//attrs.put("gid_start", link.getAttribute("gid_start"));
+			   	attrs.put("target", (int) 0);				//attrs.put("gid_end", link.getAttribute("gid_end"));
 			   	attrs.put("duration", Double.parseDouble("0"));
 			   	attrs.put("length", length);
 			   	attrs.put("r_length", length);
@@ -468,40 +480,16 @@ public abstract class FeatureMatching {
 			   	attrs.put("end_z", linkCoords[linkCoords.length-1].z);
 			   	attrs.put("r_id", rid);
 			   	
-				//add attribute
-				for (Map.Entry<String, Object> attribute : attrs.entrySet()){
-					mergeLink = FeatureOperations.addAttribute(mergeLink, attribute.getKey(), attribute.getValue());
-					mergeLink.setAttribute(attribute.getKey(), attribute.getValue());
-				}
-				mergeFeatures.add(mergeLink);
+				//build feature with all attributes
+				mergeFeatures.add(SchemaRegistry.buildFeature(builder, featOps.createLineString(linkCoords), attrs));
 			}
 		} finally {
 			iterator.close();
 		}
-		SimpleFeatureCollection collectionReturn = new ListFeatureCollection(mergeFeatures.get(0).getFeatureType(), mergeFeatures);
+		SimpleFeatureCollection collectionReturn = new ListFeatureCollection(mergeType, mergeFeatures);
     	return collectionReturn;	
     }
 	
-	public static void printLinks (String header, List<Link> links) throws IOException, FileNotFoundException {
-		String resultFile = StartConfiguration.getInstance().getResultFile();
-		File fout = new File(resultFile);
-		FileWriter fw = new FileWriter(fout, true);
-		BufferedWriter bw = new BufferedWriter(fw);
-		//write header
-		bw.write(header);
-		bw.newLine();
-		bw.write(String.format("%5s  , %s, %8s, %6s, %s, %6s", "R_ID", "GID_START", "GID_END", "DIST", "HEIGHT_DIF", "RATE"));
-		bw.newLine();
-		for (Link link : links) {
-			String line = String.format("%6s, %9s, %8s, %6.2f, %9.2f, %6s", link.getAttributeValue("r_id"), link.getAttributeValue("gid_start"), link.getAttributeValue("gid_end"), 
-					link.getDistance(), link.getHeightDiff(), link.getGrade());
-			bw.write(line);
-			bw.newLine();
-		}
-		bw.newLine();
-		bw.close();
-	}
-	
 	protected static String digitRectifier(int counter, int digits) {
 		String counterToStr = String.valueOf(counter);
 		if(counterToStr.length() == digits) {
@@ -526,9 +514,38 @@ public abstract class FeatureMatching {
 		return feat_match;
 	}
 	
+	/**
+	 * Returns the links as SimpleFeatureCollection, ready to be written. The collection is built on first request
+	 * @return SimpleFeatureCollection
+	 */
 	public SimpleFeatureCollection getLinks() {
+		if (this.links == null && this.linkList != null) {
+			this.links = buildLinkCollection(this.linkList);
+		}
 		return links;
 	}
+	
+	/**
+	 * @return the links found by the matcher
+	 */
+	public List<Link> getLinkList() {
+		return linkList;
+	}
+
+	/**
+	 * Makes the matcher keep the raw candidates it finds, has to be called before the matching runs (init)
+	 */
+	protected void keepCandidates() {
+		this.candidates = new ArrayList<Candidate>();
+	}
+
+	/**
+	 * Returns all candidates found by the matcher (for every matching path it processed), before validation and grading
+	 * @return List<Candidate>, or null if the matcher was not asked to keep them
+	 */
+	public List<Candidate> getCandidates() {
+		return candidates;
+	}
 
 	public double getMax_threshold() {
 		return max_threshold;
@@ -0,0 +1,150 @@
+package preprocessing.featureMatchingAPI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opengis.feature.simple.SimpleFeature;
+
+import preprocessing.StartConfiguration;
+import preprocessing.util.FeatureOperations;
+import preprocessing.util.FileOperations;
+
+/**
+ * A class which loads the lift, slope, bus line and bus stop inputs concurrently. Each input is read and normalized on its own task:
+ * slopes are split in single LineString slopes, bus stops are cleaned from duplicates and, if the candidate cache is used,
+ * the content hash of the input file is computed. The load methods return at once, get waits for an input, so the matching of
+ * an input can start as soon as the inputs it needs are ready
+ */
+public class InputLoader {
+	private final ExecutorService executor;
+
+	/**
+	 * Class constructor, one task thread per input
+	 */
+	public InputLoader() {
+		final AtomicInteger threadNumber = new AtomicInteger(1);
+		this.executor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "input-loader-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts loading the lifts
+	 * @param str_shp - path and file name of the lifts shapefile
+	 * @return Future of the lifts
+	 */
+	public Future<SimpleFeature[]> loadLifts(String str_shp) {
+		return submit("LIFTS", str_shp, FeatureMatching.LIFT_PROPERTIES, null);
+	}
+
+	/**
+	 * Starts loading the slopes, which are split in single LineString slopes (see FeatureMatching.splitMultiLineSlopes)
+	 * @param str_shp - path and file name of the slopes shapefile
+	 * @return Future of the split slopes
+	 */
+	public Future<SimpleFeature[]> loadSlopes(String str_shp) {
+		return submit("SLOPES", str_shp, FeatureMatching.SLOPE_PROPERTIES, new Normalizer() {
+			@Override
+			public SimpleFeature[] normalize(SimpleFeature[] slopes) {
+				SimpleFeature[] splitSlopes = FeatureMatching.splitMultiLineSlopes(slopes).toArray(new SimpleFeature[0]);
+				System.out.println("New single LineString slopes collection contains: " + splitSlopes.length + " features");
+				return splitSlopes;
+			}
+		});
+	}
+
+	/**
+	 * Starts loading the bus lines
+	 * @param str_shp - path and file name of the bus lines shapefile
+	 * @return Future of the bus lines
+	 */
+	public Future<SimpleFeature[]> loadBuses(String str_shp) {
+		return submit("BUS LINES", str_shp, FeatureMatching.BUS_PROPERTIES, null);
+	}
+
+	/**
+	 * Starts loading the bus stops, which are cleaned from duplicates
+	 * @param str_shp - path and file name of the bus stops shapefile
+	 * @return Future of the bus stops
+	 */
+	public Future<SimpleFeature[]> loadStops(String str_shp) {
+		return submit("BUS STOPS", str_shp, FeatureMatching.STOP_PROPERTIES, new Normalizer() {
+			@Override
+			public SimpleFeature[] normalize(SimpleFeature[] stops) {
+				List<SimpleFeature> busStops = new ArrayList<SimpleFeature>(Arrays.asList(stops));
+				System.out.println("Cleaning Bus Stop Duplicates:");
+				FeatureOperations.cleanDuplicateFeatures(busStops, "BUS STOP");
+				return busStops.toArray(new SimpleFeature[busStops.size()]);
+			}
+		});
+	}
+
+	/**
+	 * Waits for an input to be loaded
+	 * @param input - Future returned by a load method
+	 * @return the loaded features or null if the input could not be read
+	 * @throws IllegalStateException if loading failed or the calling thread is interrupted
+	 */
+	public static SimpleFeature[] get(Future<SimpleFeature[]> input) {
+		try {
+			return input.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Loading input failed: " + e.getCause(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Loading input interrupted", e);
+		}
+	}
+
+	/**
+	 * Stops the task threads once the submitted inputs are loaded
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private Future<SimpleFeature[]> submit(final String name, final String str_shp, final String[] properties, final Normalizer normalizer) {
+		return executor.submit(new Callable<SimpleFeature[]>() {
+			@Override
+			public SimpleFeature[] call() {
+				long startTime = System.currentTimeMillis();
+				System.out.println("---- LOADING " + name + " ----");
+				SimpleFeature[] features = FileOperations.loadShapeFile(str_shp, properties);
+				if (features == null) {
+					Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, "Could not load " + name + " from " + str_shp);
+					return null;
+				}
+				if (normalizer != null && features.length > 0) {
+					features = normalizer.normalize(features);
+				}
+				if (StartConfiguration.getInstance().isCandidateCache()) {
+					CandidateCache.prepare(str_shp);
+				}
+				Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, name + " ready in " + (System.currentTimeMillis() - startTime) + " msecs");
+				return features;
+			}
+		});
+	}
+
+	/**
+	 * Normalization of an input, run on its load task
+	 */
+	private interface Normalizer {
+		SimpleFeature[] normalize(SimpleFeature[] features);
+	}
+}
@@ -10,6 +10,7 @@ import java.util.logging.Logger;
 
 import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
@@ -18,8 +19,8 @@ import com.vividsolutions.jts.geom.Geometry;
 
 import preprocessing.StartConfiguration;
 import preprocessing.connectionsAPI.Candidate;
-import preprocessing.util.FeatureOperations;
 import preprocessing.util.GeometryOperations;
+import preprocessing.util.SchemaRegistry;
 
 /**
  * @author Thomas Kouseras
@@ -28,14 +29,27 @@ import preprocessing.util.GeometryOperations;
 public class LiftLinkMatching extends FeatureMatching {
 
 	public LiftLinkMatching(SimpleFeature[] lifts) {
+		this(lifts, StartConfiguration.getInstance().getLift_distances(), false);
+	}
+	
+	/**
+	 * Class constructor with the distance thresholds given, instead of the configured ones (used by the parameter sweep)
+	 * @param lifts
+	 * @param lift_distances - lift distance thresholds, the first value is the max distance to fetch candidates
+	 * @param keepCandidates - true to keep the raw candidates (getCandidates)
+	 */
+	public LiftLinkMatching(SimpleFeature[] lifts, int[] lift_distances, boolean keepCandidates) {
 		super(lifts);
+		//set max distance threshold according to which candidates are found
+		this.max_threshold = (double) lift_distances[0] + 0.5; //max distance tolerance to fetch lift candidate links (LIFTS_DIST first value in the config file)
+		if (keepCandidates) {
+			this.keepCandidates();
+		}
 		
 		this.init();
 	}
 	
 	public void init() {
-		//set max distance threshold according to which candidates are found
-		this.max_threshold = (double) StartConfiguration.getInstance().getLift_distances()[0] + 0.5; //max distance tolerance to fetch lift candidate links (LIFTS_DIST first value in the config file)
 		//set id_prefix, used to build an r_id
 		this.id_prefix = "2";
 		System.out.println("------------------------\n");
@@ -45,7 +59,11 @@ public class LiftLinkMatching extends FeatureMatching {
 		
 		//helper variables to measure method execution time
 		long startTime = System.currentTimeMillis(), endTime, elapsed;
-		List<Candidate> candidates = ((LiftLinkMatching) this).getLiftCandidates();
+		List<Candidate> candidates = this.loadCachedCandidates();
+		if (candidates == null) {
+			candidates = ((LiftLinkMatching) this).getLiftCandidates();
+			this.cacheCandidates(candidates);
+		}
 		endTime = System.currentTimeMillis();
 		elapsed = endTime - startTime;
 		
@@ -82,6 +100,7 @@ public class LiftLinkMatching extends FeatureMatching {
 
 			//iterate over the out set of features
 			for (SimpleFeature lift_out: lifts_out){
+				this.pairsTested++;
 				
 				//topological check at top level. lower_in can connect to upper_out and upper_in to lower_out
 				//prepare to create candidates
@@ -123,14 +142,14 @@ public class LiftLinkMatching extends FeatureMatching {
 	 */
 	public static SimpleFeatureCollection getLiftsToMerge( SimpleFeature[] lifts) {
 		List<SimpleFeature> mergeLifts = new ArrayList<SimpleFeature>();
-		SimpleFeatureType mergeType = FeatureOperations.makeLineStringFeatureType(lifts[0].getFeatureType().getCoordinateReferenceSystem(), "merged_pivots"); 
+		SimpleFeatureType mergeType = SchemaRegistry.getMergedPivotsType(lifts[0].getFeatureType().getCoordinateReferenceSystem());
+		SimpleFeatureBuilder builder = SchemaRegistry.newBuilder(mergeType);
 	   	//list to hold the assigned rids
 	   	List<Integer> assigned = new ArrayList<Integer>();
 		
 		for (SimpleFeature lift: lifts) {
 //if (!lift.getAttribute("DE_GR_L_1").equals("Sportgastein")) continue;			
 			Coordinate[] coords =  GeometryOperations.getOrderedEndPoints(lift);
-			SimpleFeature mergelift = FeatureMatching.featOps.getFeatureFromCoordinates(mergeType, coords);
 		   	String deName = lift.getAttribute("DE_GR_L_0").toString() + lift.getAttribute("DE_GR_L_1").toString();
 		   	double length = ((Geometry)lift.getDefaultGeometry()).getLength();
 	   		//build unique r_id
@@ -150,8 +169,8 @@ public class LiftLinkMatching extends FeatureMatching {
 		   	attrs.put("XML_TYPE", "lifts");
 		   	attrs.put("de_name", deName);
 		   	attrs.put("difficulty", (int) 0);
-		   	attrs.put("source", String.valueOf(0));
-		   	attrs.put("target", String.valueOf(0));
+		   	attrs.put("source", (int) 0); //assigned by VertexTable
+		   	attrs.put("target", (int) 0);
 		   	attrs.put("duration", Double.parseDouble("0"));
 		   	attrs.put("length", length);
 		   	attrs.put("r_length", length);
@@ -167,16 +186,12 @@ public class LiftLinkMatching extends FeatureMatching {
 		   	attrs.put("start_z", coords[0].z);
 		   	attrs.put("end_z", coords[coords.length-1].z);
 		   	attrs.put("r_id", rid);
-			//add attribute
-			for (Map.Entry<String, Object> attribute : attrs.entrySet()){
-				mergelift = FeatureOperations.addAttribute(mergelift, attribute.getKey(), attribute.getValue());
-				mergelift.setAttribute(attribute.getKey(), attribute.getValue());
-			}
-			mergeLifts.add(mergelift);
+			//build feature with all attributes
+			mergeLifts.add(SchemaRegistry.buildFeature(builder, FeatureMatching.featOps.createLineString(coords), attrs));
 		}
 		
 		//return feature collection
-		SimpleFeatureCollection collectionReturn = new ListFeatureCollection(mergeLifts.get(0).getFeatureType(), mergeLifts);
+		SimpleFeatureCollection collectionReturn = new ListFeatureCollection(mergeType, mergeLifts);
 		return collectionReturn;
 	}
 
@@ -2,16 +2,20 @@ package preprocessing.featureMatchingAPI;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
@@ -27,9 +31,13 @@ import com.vividsolutions.jts.operation.distance.DistanceOp;
 
 import preprocessing.StartConfiguration;
 import preprocessing.connectionsAPI.Candidate;
-import preprocessing.util.FeatureOperations;
+import preprocessing.connectionsAPI.Link;
+import preprocessing.util.Diagnostics;
+import preprocessing.util.Diagnostics.Category;
+import preprocessing.util.SchemaRegistry;
 import preprocessing.util.GeometryOperations;
-import preprocessing.util.FileOperations;
+import preprocessing.output.OutputPlan.Artifact;
+import preprocessing.util.ParallelOperations;
 
 /**
  * @author Thomas Kouseras
@@ -37,16 +45,33 @@ import preprocessing.util.FileOperations;
  */
 public class SlopeLinkMatching extends FeatureMatching {
 	
-	private SimpleFeatureCollection intersections = null;
+	private List<Topology.Intersection> intersections = null;
+	private List<Link> slopeLinkList;
 	private SimpleFeatureCollection slopeLinks;
 	private double slopeThreshold;				//max distance tolerance to fetch slope end-point candidate links (SLOPES_ENDPOINT value in the config file)
 	private double midPointThreshold;          //max distance tolerance to fetch slope mid-point candidate links (SLOPES_MIDPOINT 2nd value in the config file)
 
 	public SlopeLinkMatching(SimpleFeature[] slopes, SimpleFeature[] lifts) {
+		this(slopes, lifts, StartConfiguration.getInstance().getSlope_distances(), false);
+	}
+	
+	/**
+	 * Class constructor with the slope distance thresholds given, instead of the configured ones (used by the parameter sweep)
+	 * @param slopes
+	 * @param lifts
+	 * @param slope_distances - slope distance thresholds, the first value is the max distance to fetch slope-lift candidates
+	 * @param keepCandidates - true to keep the raw candidates (getCandidates)
+	 */
+	public SlopeLinkMatching(SimpleFeature[] slopes, SimpleFeature[] lifts, int[] slope_distances, boolean keepCandidates) {
 		super(slopes, lifts);
 		
+		//set max distance threshold to fetch lift to slope candidates
+		this.max_threshold = (double) slope_distances[0] + 0.5; //max distance tolerance to fetch slope-lift candidate links (SLOPES_DIST first value in the config file)
 		this.slopeThreshold = StartConfiguration.getInstance().getSlope_endpoint_dist() + 0.5; 
 		this.midPointThreshold = StartConfiguration.getInstance().getSlope_midpoint_dist()[1] + 0.5;
+		if (keepCandidates) {
+			this.keepCandidates();
+		}
 		this.init();
 	}
 	
@@ -63,13 +88,13 @@ public class SlopeLinkMatching extends FeatureMatching {
 		matchingPath = "slopeToLiftLinks";
 		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, "Processing Slopes and Lifts");
 		
-		//set max distance threshold to fetch lift to slope candidates
-		this.max_threshold = (double) StartConfiguration.getInstance().getSlope_distances()[0] + 0.5; //max distance tolerance to fetch slope-lift candidate links (SLOPES_DIST first value in the config file)
-		
 		//get slopeLiftCandidates and clean duplicates
-		List<Candidate> slopeLiftCands = this.getSlopeLiftCandidates();
-
-		cleanRedundant(slopeLiftCands);
+		List<Candidate> slopeLiftCands = this.loadCachedCandidates();
+		if (slopeLiftCands == null) {
+			slopeLiftCands = this.getSlopeLiftCandidates();
+			cleanRedundant(slopeLiftCands);
+			this.cacheCandidates(slopeLiftCands);
+		}
 		endTime = System.currentTimeMillis();
 		elapsed = endTime - startTime;
 		
@@ -82,13 +107,21 @@ public class SlopeLinkMatching extends FeatureMatching {
 		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, "Proccessing Slopes");
 				
 		//get slopeCandidates and check for duplicates (cleanDuplicates)
-		List<Candidate> slopeCandidates = this.getSlopeCandidates();
+		List<Candidate> slopeCandidates = this.loadCachedCandidates();
+		if (slopeCandidates == null) {
+			slopeCandidates = this.getSlopeCandidates();
+			this.cacheCandidates(slopeCandidates);
+		}
 		endTime = System.currentTimeMillis();
 		elapsed = endTime - startTime;
 		
 		//deviation to create intersections list and shapeFile
-		this.intersections = featOps.getIntersectionsFeatureCollection(slopeCandidates, this.getFeatures_in()[0].getFeatureType().getCoordinateReferenceSystem(), "intersections");
-		FileOperations.createShapeFile(intersections, StartConfiguration.getInstance().getFolder_out() + "\\candidates\\" + "slope_intersections.shp");
+		this.intersections = Topology.intersectionsOf(slopeCandidates);
+		if (StartConfiguration.getInstance().getOutputPlan().isWritten(Artifact.INTERSECTIONS)) {
+			StartConfiguration.getInstance().getOutputPlan().write(Artifact.INTERSECTIONS, 
+					featOps.getIntersectionsFeatureCollection(slopeCandidates, this.getFeatures_in()[0].getFeatureType().getCoordinateReferenceSystem(), "intersections"), 
+					StartConfiguration.getInstance().getFolder_out() + "\\candidates\\" + "slope_intersections.shp");
+		}
 		
 		this.printAndFinalizeLinks(slopeCandidates, elapsed);
 		//------------------------------------
@@ -134,6 +167,7 @@ public class SlopeLinkMatching extends FeatureMatching {
 			
 			//iterate over the slopes to be matched
 			for (SimpleFeature slope: this.getFeatures_in()) {
+				this.pairsTested++;
 				//fetch semantic info
 				de_name = slope.getAttribute("DE_GR_L_0") + " - " + slope.getAttribute("DE_GR_L_1");
 				xml_gid_slope = slope.getAttribute("XML_GID").toString();
@@ -178,8 +212,8 @@ public class SlopeLinkMatching extends FeatureMatching {
 				cand = null;
 			}
 			//Output unconnected links
-			if (!hasUpperConnection) System.err.println("Lift " + lift.getAttribute("XML_GID").toString() + " found with no upper links");
-			if (!hasLowerConnection) System.err.println("Lift " + lift.getAttribute("XML_GID").toString() + " found with no lower links");
+			if (!hasUpperConnection) Diagnostics.report(Level.WARNING, Category.UNCONNECTED_LIFT, "Lift ", lift.getAttribute("XML_GID"), " found with no upper links");
+			if (!hasLowerConnection) Diagnostics.report(Level.WARNING, Category.UNCONNECTED_LIFT, "Lift ", lift.getAttribute("XML_GID"), " found with no lower links");
 		}
 		//Clean duplicate candidates.
 		cleanDuplicates(candidates);
@@ -239,6 +273,7 @@ public class SlopeLinkMatching extends FeatureMatching {
 			
 			//iterate over the out set of features
 			for (SimpleFeature slope_out: slopes_out) {		
+				this.pairsTested++;
 				//fetch semantic info
 				de_name = slope_in.getAttribute("DE_GR_L_0") + " - " + slope_in.getAttribute("DE_GR_L_1");
 				xml_gid_in = slope_in.getAttribute("XML_GID").toString();
@@ -505,253 +540,281 @@ public class SlopeLinkMatching extends FeatureMatching {
 	 * For each slope two types of segments are created: 
 	 *  a) split segments, which is the same feature geometry and semantic attributes, but split at the topology vertices
 	 *  b) simplified segments. Here original geometry is discarded and only end-points of each segment is kept
-	 * @param bus_links - features linking bus lines with slopes
+	 * Slopes are independent of each other, so they are simplified in parallel, partitioned in contiguous blocks across the workers.
+	 * Only the r_id assignment depends on the previous slopes, it is done afterwards in a sequential pass in the original slope order,
+	 * so that the r_ids are the same as with sequential processing
+	 * Intersections and links are taken from the in-memory Topology, not from their feature collections
+	 * @param busLinks - links of bus stops with slopes and lifts
 	 * @return A SimpleFeatureCollection containing the simplified slope segments, ready for the feature merge, needed for the graph creation
 	 */
-	public SimpleFeatureCollection simplify(SimpleFeatureCollection bus_links) {
+	public SimpleFeatureCollection simplify(List<Link> busLinks) {
 		
 		//lists hold simplified and split slope segments
 		List<SimpleFeature> simpleSlopes = new ArrayList<SimpleFeature>();
 	    List<SimpleFeature> segmentsSlopes = new ArrayList<SimpleFeature>();
 		
-		//list to hold the assigned rids of the segments
-	   	List<Integer> assigned = new ArrayList<Integer>();
+		//set to hold the assigned rids of the segments
+	   	Set<Integer> assigned = new HashSet<Integer>();
 	   	
-		//collections to lists
-		List<SimpleFeature> intersections = FeatureOperations.featureCollectionToList(this.intersections);
-		List<SimpleFeature> slopeLinks = FeatureOperations.featureCollectionToList(this.getSlopeLinks());
-		List<SimpleFeature> slopeLiftLinks = FeatureOperations.featureCollectionToList(this.getLinks());
-		List<SimpleFeature> busLinks = (bus_links != null) ? FeatureOperations.featureCollectionToList(bus_links) : null;
+		//topology: slope intersections plus slope links, slopeLift links and bus links
+		Topology topology = new Topology(this.intersections);
+		topology.addLinks(this.getSlopeLinkList());
+		topology.addLinks(this.getLinkList());
+		topology.addLinks(busLinks);
 		
 		//INTERSECTIONS USING KDTREE
 		//create spatial index to contain all intersections
-		final KdTree pointIndex = new KdTree();
-		for (SimpleFeature intersection: intersections) {
-			pointIndex.insert(((Geometry)intersection.getDefaultGeometry()).getCoordinate(), intersection);
-		}
+		final KdTree pointIndex = topology.buildIntersectionIndex();
 		if (pointIndex.isEmpty()) {
 			Logger.getLogger(SlopeLinkMatching.class.getName()).log(Level.WARNING, "kdTree is Emtpy. No Intersections loaded while simplifying slopes");
 			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "kdTree is Emtpy. No Intersections loaded while simplifying slopes");
 		}
 		
-		//SLOPE LINKS, SLOPE LIFT LINKS  AND BUS LINKS USING STRTREE
-		final SpatialIndex lineIndex = new STRtree();
-		//insert all slope links
-		for (SimpleFeature link: slopeLinks) {
-			Envelope linkEnvelope = new Envelope(((Geometry) link.getDefaultGeometry()).getEnvelopeInternal());
-			lineIndex.insert(linkEnvelope, link);
-		}
-		//insert all slopeLift links
-		for (SimpleFeature link: slopeLiftLinks) {
-			Envelope linkEnvelope2 = new Envelope(((Geometry) link.getDefaultGeometry()).getEnvelopeInternal());
-			lineIndex.insert(linkEnvelope2, link);
+		//SLOPE LINKS, SLOPE LIFT LINKS  AND BUS LINKS USING STRTREE (tree is built before it is queried by the workers)
+		final STRtree lineIndex = topology.buildLinkIndex();
+		
+		//feature type of the simplified slopes, same for all slopes
+		final SimpleFeatureType simplifiedType = SchemaRegistry.getMergedPivotsType(this.getFeatures_in()[0].getFeatureType().getCoordinateReferenceSystem());
+		
+		//SIMPLIFY SLOPES IN PARALLEL, EACH WORKER TAKES A CONTIGUOUS BLOCK OF SLOPES
+		final SimpleFeature[] slopes = this.getFeatures_in();
+		int blockSize = Math.max(1, (int) Math.ceil((double) slopes.length / (ParallelOperations.getParallelism() * 4)));
+		List<Callable<List<SimplifiedSlope>>> tasks = new ArrayList<Callable<List<SimplifiedSlope>>>();
+		for (int blockStart = 0; blockStart < slopes.length; blockStart += blockSize) {
+			final int from = blockStart, to = Math.min(blockStart + blockSize, slopes.length);
+			tasks.add(new Callable<List<SimplifiedSlope>>() {
+				@Override
+				public List<SimplifiedSlope> call() {
+					List<SimplifiedSlope> block = new ArrayList<SimplifiedSlope>(to - from);
+					//one feature builder per worker, reused for all segments of the block
+					SimpleFeatureBuilder segmentBuilder = SchemaRegistry.newBuilder(simplifiedType);
+					for (int i = from; i < to; i++) {
+						block.add(simplifySlope(slopes[i], pointIndex, lineIndex, segmentBuilder));
+					}
+					return block;
+				}
+			});
 		}
-		//insert all bus links
-		if (busLinks!=null) {
-			for (SimpleFeature link: busLinks) {
-				Envelope linkEnvelope3 = new Envelope(((Geometry) link.getDefaultGeometry()).getEnvelopeInternal());
-				lineIndex.insert(linkEnvelope3, link);
+		List<List<SimplifiedSlope>> blocks = ParallelOperations.invokeAll(tasks);
+		
+		//ASSIGN R_IDS IN ORIGINAL SLOPE ORDER
+		for (List<SimplifiedSlope> block : blocks) {
+			for (SimplifiedSlope simplified : block) {
+			   	//rids building
+			   	int segmentNumber = 1;
+			   	for (int i = 0; i < simplified.simpleSegments.size(); i++) {
+			   		//build unique r_id
+			   		int rid = Integer.parseInt("1"+ digitRectifier(simplified.slopeNumber, 5) + digitRectifier(segmentNumber, 3));
+			   		while (assigned.contains(rid)) {
+			   			rid++;
+			   			segmentNumber++;
+			   		}
+			   		assigned.add(rid);
+			   		segmentNumber++;
+			   		//pass computed r_id to the simplified and the corresponded split segment
+			   		simplified.simpleSegments.get(i).setAttribute("r_id", rid);
+			   		if (simplified.splitSegments != null) {
+			   			simplified.splitSegments.get(simplified.splitIndices.get(i)).setAttribute("r_id", rid);
+			   		}
+			   	}
+			   	simpleSlopes.addAll(simplified.simpleSegments);
+			   	if (simplified.splitSegments != null) {
+			   		segmentsSlopes.addAll(simplified.splitSegments);
+			   	}
 			}
 		}
 		
-		//KEEP INTERSECTING LINKS FOR EACH SLOPE
-		for (SimpleFeature slope_original: this.getFeatures_in()) {
-			
-//if (!slope_original.getAttribute("DE_GR_L_1").equals("Sportgastein")) continue;
-
-			//fetch slope geometry as LengthIndexedLine
-			Geometry slopeGeom = (Geometry) slope_original.getDefaultGeometry();
-			LengthIndexedLine lengthLine = new LengthIndexedLine(slopeGeom);
-			
-			//get envelope and expand by 5.00 meters
-			Envelope search = new Envelope(slopeGeom.getEnvelopeInternal()); 
-			search.expandBy(5.00);
+		//create segments_slopes shapeFile
+		if (!segmentsSlopes.isEmpty()) {
+			SimpleFeatureCollection newSlopeSegments = new ListFeatureCollection(segmentsSlopes.get(0).getFeatureType(), segmentsSlopes);
+			StartConfiguration.getInstance().getOutputPlan().write(Artifact.SEGMENTS, newSlopeSegments, StartConfiguration.getInstance().getFolder_out() + "segments_slopes.shp");
+		}
+		//return feature collection
+		SimpleFeatureCollection simplifiedSlopes = new ListFeatureCollection(simpleSlopes.get(0).getFeatureType(), simpleSlopes);
+		
+		
+		return simplifiedSlopes;
+	}
+	
+	/**
+	 * This method simplifies and splits a single slope at its topology vertices (see simplify). It only reads the shared indices, 
+	 * so that it can run in parallel for different slopes. Segments are returned without r_id, which is assigned by simplify
+	 * @param slope_original - the slope to simplify
+	 * @param pointIndex - spatial index of the slope intersections
+	 * @param lineIndex - spatial index of slope, slope-lift and bus links
+	 * @param segmentBuilder - feature builder of the merged_pivots schema, used by the calling thread only
+	 * @return SimplifiedSlope
+	 */
+	private SimplifiedSlope simplifySlope(SimpleFeature slope_original, KdTree pointIndex, SpatialIndex lineIndex, SimpleFeatureBuilder segmentBuilder) {
+		//fetch slope geometry as LengthIndexedLine
+		Geometry slopeGeom = (Geometry) slope_original.getDefaultGeometry();
+		LengthIndexedLine lengthLine = new LengthIndexedLine(slopeGeom);
+		
+		//get envelope and expand by 5.00 meters
+		Envelope search = new Envelope(slopeGeom.getEnvelopeInternal()); 
+		search.expandBy(5.00);
 
-			//Vertex ordered Map as index on lengthLine and corresponding coordinate
-			Map<Double, Coordinate> newVertices = new TreeMap<Double, Coordinate>();
-			//insert start and end-point
-			newVertices.put(lengthLine.getStartIndex(), lengthLine.extractPoint(lengthLine.getStartIndex()));
-			newVertices.put(lengthLine.getEndIndex(), lengthLine.extractPoint(lengthLine.getEndIndex()));
+		//Vertex ordered Map as index on lengthLine and corresponding coordinate
+		Map<Double, Coordinate> newVertices = new TreeMap<Double, Coordinate>();
+		//insert start and end-point
+		newVertices.put(lengthLine.getStartIndex(), lengthLine.extractPoint(lengthLine.getStartIndex()));
+		newVertices.put(lengthLine.getEndIndex(), lengthLine.extractPoint(lengthLine.getEndIndex()));
 
-			/*------------------------ INTERSECTIONS ------------------------*/
-			//fetch intersections in the slope envelope
-			List<?> neighbourIntersections = pointIndex.query(search);
-			
-/*			System.out.println("For slope " + slope.getAttribute("XML_GID") 
-				+ " found following intersections: ");
-			for (Object inters: neighbourIntersections) {
-				System.out.println("\tintersection: " + ((SimpleFeature)((KdNode )inters).getData()).getAttribute("gid_start") + ", " + ((SimpleFeature)((KdNode )inters).getData()).getAttribute("gid_end"));
-			}
-			System.out.println("----------------------------------");
-*/
-			
-			//iterate through intersections and keep only those on line (using distance threshold)
-			for (Object inters: neighbourIntersections) {
-				//get geometry and coordinate
-				Geometry geom = (Geometry) ((SimpleFeature)((KdNode )inters).getData()).getDefaultGeometry();
-				Coordinate coord = geom.getCoordinate();
-				//check if intersection is on line (using distance with threshold 1cm)
-				if (slopeGeom.distance(geom) < 0.001) {
-					double index = lengthLine.indexOf(coord);
-					//add it if not already contained
-					if(!newVertices.containsKey(index) && !newVertices.containsValue(coord)) {
-						newVertices.put(index, coord);
-					}
-//					System.out.println("\tintersection: " + ((SimpleFeature)((KdNode )inters).getData()).getAttribute("gid_start") + ", " 
-//					+ ((SimpleFeature)((KdNode )inters).getData()).getAttribute("gid_end"));
-				} 
-			}
-			/*-------------------------------------------------------*/
-			
-			/*------------------------ LINKS ------------------------*/
-			//fetch links in the envelope
-			@SuppressWarnings("unchecked")
-			List<SimpleFeature> neighbourLinks = lineIndex.query(search);
-
-/*			System.out.println("For slope " + slope.getAttribute("XML_GID") 
-				+ " found following links: ");
-			for (SimpleFeature link: neighbourLinks) {
-				System.out.println("\tlink: " + link.getAttribute("gid_start") + ", " + link.getAttribute("gid_end"));
-			}
-			System.out.println("----------------------------------");
-*/
-			
-			//iterate through links and keep only those on line (using distance threshold)
-			for (SimpleFeature link : neighbourLinks) {				
-				Geometry linkGeom = (Geometry) link.getDefaultGeometry();
-				//filter out links not intersecting with slope
-				if(slopeGeom.distance(linkGeom) < 0.05) {
-					Coordinate[] linkCoords = linkGeom.getCoordinates();
-					//check which link end-point is on line (using distance with threshold 5cm) and add if not already contained
-					for (Coordinate linkCoord: linkCoords) {
-						if (slopeGeom.distance(FeatureMatching.geomOps.coordinateToPointGeometry(linkCoord)) < 0.05 && !newVertices.containsValue(linkCoord)) {
-							newVertices.put(lengthLine.indexOf(linkCoord), linkCoord);
-							break;
-							//System.out.println("\tlink: " + link.getAttribute("gid_start") + ", " + link.getAttribute("gid_end"));
-						}
+		/*------------------------ INTERSECTIONS ------------------------*/
+		//fetch intersections in the slope envelope
+		List<?> neighbourIntersections = pointIndex.query(search);
+		
+		//iterate through intersections and keep only those on line (using distance threshold)
+		for (Object inters: neighbourIntersections) {
+			//get coordinate
+			Coordinate coord = ((Topology.Intersection) ((KdNode) inters).getData()).getCoordinate();
+			//check if intersection is on line (using distance with threshold 1cm)
+			if (slopeGeom.distance(slopeGeom.getFactory().createPoint(coord)) < 0.001) {
+				double index = lengthLine.indexOf(coord);
+				//add it if not already contained
+				if(!newVertices.containsKey(index) && !newVertices.containsValue(coord)) {
+					newVertices.put(index, coord);
+				}
+			} 
+		}
+		/*-------------------------------------------------------*/
+		
+		/*------------------------ LINKS ------------------------*/
+		//fetch links in the envelope
+		@SuppressWarnings("unchecked")
+		List<Link> neighbourLinks = lineIndex.query(search);
+		
+		//iterate through links and keep only those on line (using distance threshold)
+		for (Link link : neighbourLinks) {				
+			Geometry linkGeom = slopeGeom.getFactory().createLineString(new Coordinate[] {link.getStartPoint(), link.getEndPoint()});
+			//filter out links not intersecting with slope
+			if(slopeGeom.distance(linkGeom) < 0.05) {
+				Coordinate[] linkCoords = linkGeom.getCoordinates();
+				//check which link end-point is on line (using distance with threshold 5cm) and add if not already contained
+				for (Coordinate linkCoord: linkCoords) {
+					if (slopeGeom.distance(FeatureMatching.geomOps.coordinateToPointGeometry(linkCoord)) < 0.05 && !newVertices.containsValue(linkCoord)) {
+						newVertices.put(lengthLine.indexOf(linkCoord), linkCoord);
+						break;
 					}
 				}
 			}
-			/*-------------------------------------------------------*/
-			
-			//new coordinate list from kept indices, for the creation of the simplified feature
-			List<Coordinate> simplifiedCoords = new ArrayList<Coordinate>();
-			for (Entry<Double, Coordinate> entry: newVertices.entrySet()){
-				if (!simplifiedCoords.contains(entry.getValue()))
-				simplifiedCoords.add(entry.getValue());
-			}
-			
-			//use the simplified coordinates to split original bus geometry to its bus segments at topologic nodes
-			//geometry must be preserved
-			//semantic attributes must be preserved
-			// r_id attribute must be added
-			ArrayList<SimpleFeature> splitSegments = FeatureMatching.featOps.splitFeatureAtCoordinates(slope_original, simplifiedCoords);
-			
-			//create new feature and add to feature collection
-			SimpleFeatureType simplifiedType = FeatureOperations.makeLineStringFeatureType(this.getFeatures_in()[0].getFeatureType().getCoordinateReferenceSystem(), "merged_pivots");
-			SimpleFeature simplifiedSlope = FeatureMatching.featOps.getFeatureFromCoordinates(simplifiedType, simplifiedCoords.toArray(new Coordinate[0]));
-		   	String deName = slope_original.getAttribute("DE_GR_L_0").toString() + " " + slope_original.getAttribute("DE_GR_L_1").toString();
-		   	//split feature at remaining vertices to line segments (for each vertex pair)
-		   	ArrayList<SimpleFeature> simpleSegments = FeatureMatching.featOps.splitFeatureAtVertices(simplifiedSlope);
-		   	//rids building
-		   	int segmentNumber = 1;
-//if(splitSegments.size() != simpleSegments.size()) {		   	
-//System.out.println(slope_original.getAttribute("XML_GID").toString() + ": " +splitSegments.size() +  " / " + simpleSegments.size());	
-//System.exit(0);
-//}			
-		   	for (SimpleFeature simpleSegment: simpleSegments) {
-		   		Geometry segment_geom = (Geometry) simpleSegment.getDefaultGeometry();
-		   		Coordinate[] segment_coords = segment_geom.getCoordinates(); 
-		   		//indexedLineGeom to getLength
-		   		double length = lengthLine.extractLine(lengthLine.indexOf(segment_coords[0]), lengthLine.indexOf(segment_coords[1])).getLength();
-		   		//in case segment has zero length ignore it and proceed to the next
-		   		if (length == 0.0) continue;	//{System.err.println(length);}
-		   		double cost_1, cost_2, cost_3, r_cost_1, r_cost_2, r_cost_3;
-                if (Integer.parseInt(slope_original.getAttribute("difficulty").toString()) == 1) {
-                    r_cost_1 = length; r_cost_2 = 10 * length; r_cost_3 = 15 * length;
-                    cost_1 = length; cost_2 = 10 * length; cost_3 = 15 * length;
-                } else if (Integer.parseInt(slope_original.getAttribute("difficulty").toString()) == 2) {
-                    r_cost_1 = 5 * length; r_cost_2 = length; r_cost_3 = 5 * length;
-                    cost_1 = 5 * length; cost_2 = length; cost_3 = 5 * length;
-                } else if (Integer.parseInt(slope_original.getAttribute("difficulty").toString()) == 3) {
-                    r_cost_1 = 15 * length; r_cost_2 = 10 * length; r_cost_3 = length;
-                    cost_1 = 15 * length; cost_2 = 10 * length; cost_3 = length;
-                } else {
-                    r_cost_1 = length; r_cost_2 = length; r_cost_3 = length;
-                    cost_1 = length; cost_2 = length; cost_3 = length;
-                }
-                
-		   		//build unique r_id
-                int slopeNumber = Integer.parseInt(slope_original.getAttribute("XML_GID").toString());
-		   		int rid = Integer.parseInt("1"+ digitRectifier(slopeNumber, 5) + digitRectifier(segmentNumber, 3));
-		   		while (assigned.contains(rid)) {
-		   			rid++;
-		   			segmentNumber++;
-		   		}
-		   		assigned.add(rid);
-		   		segmentNumber++;
-		   		//pass computed r_id to the corresponded split segment
-		   		splitSegments.get(simpleSegments.indexOf(simpleSegment)).setAttribute("r_id", rid);
-		   		splitSegments.get(simpleSegments.indexOf(simpleSegment)).setAttribute("difficulty", Integer.parseInt(slope_original.getAttribute("difficulty").toString()));
-                
-			   	Map <String, Object> attrs = new LinkedHashMap<String, Object>();
-			   	attrs.put("XML_TYPE", "slopes");
-			   	attrs.put("de_name", deName);
-			   	attrs.put("difficulty", Integer.parseInt(slope_original.getAttribute("difficulty").toString()));
-			   	attrs.put("source", String.valueOf(0));
-			   	attrs.put("target", String.valueOf(0));
-			   	attrs.put("duration", Double.parseDouble("0")); //duration 0 for slopes
-			   	attrs.put("length", length); 
-			   	attrs.put("r_length", length); 
-                attrs.put("r_rev_c", (double) -1);
-                attrs.put("rev_c", (double) -1);
-			   	attrs.put("cost_1", cost_1);
-			   	attrs.put("cost_2", cost_2);
-			   	attrs.put("cost_3", cost_3);
-			   	attrs.put("r_cost_1", r_cost_1);
-			   	attrs.put("r_cost_2", r_cost_2);
-			   	attrs.put("r_cost_3", r_cost_3);
-			   	attrs.put("open", (int) 0);
-			   	attrs.put("start_z", segment_coords[0].z/10);
-			   	attrs.put("end_z", segment_coords[segment_coords.length-1].z/10);
-				attrs.put("r_id", rid);
-				//add attributes
-				for (Map.Entry<String, Object> attribute : attrs.entrySet()){
-					simpleSegment = FeatureOperations.addAttribute(simpleSegment, attribute.getKey(), attribute.getValue());
-					simpleSegment.setAttribute(attribute.getKey(), attribute.getValue());
-				}
-				simpleSlopes.add(simpleSegment);
-		   	}
-		   	segmentsSlopes.addAll(splitSegments);
-
-			//CONTROL METHOD PRINTS OUT SLOPE WITH NO CONNECTIONS
-/*			if (neighbourLinks.size() == 0 && neighbourIntersections.size() == 0) {
-				System.err.println("Slope with 'r_id' " + slope_original.getAttribute("XML_GID") + " was found with no links and no intersections");
-			} else if (neighbourLinks.size() == 0) {
-				System.err.println("Slope with 'r_id' " + slope_original.getAttribute("XML_GID") + " was found with no links");
-			}*/
-			//TODO:METHOD END PRINT RESULT TO FILE
-			
 		}
+		/*-------------------------------------------------------*/
 		
-		//create segments_buses shapeFile
-		SimpleFeatureCollection newSlopeSegments = new ListFeatureCollection(segmentsSlopes.get(0).getFeatureType(), segmentsSlopes);
-		FileOperations.createShapeFile(newSlopeSegments, StartConfiguration.getInstance().getFolder_out() + "segments_slopes.shp");	
-		//return feature collection
-		SimpleFeatureCollection simplifiedSlopes = new ListFeatureCollection(simpleSlopes.get(0).getFeatureType(), simpleSlopes);
+		//new coordinate list from kept indices, for the creation of the simplified feature
+		List<Coordinate> simplifiedCoords = new ArrayList<Coordinate>();
+		for (Entry<Double, Coordinate> entry: newVertices.entrySet()){
+			if (!simplifiedCoords.contains(entry.getValue()))
+			simplifiedCoords.add(entry.getValue());
+		}
 		
+		//use the simplified coordinates to split original bus geometry to its bus segments at topologic nodes
+		//geometry must be preserved
+		//semantic attributes must be preserved
+		// r_id attribute must be added
+		//split segments are only needed for the segments output
+		ArrayList<SimpleFeature> splitSegments = StartConfiguration.getInstance().getOutputPlan().isWritten(Artifact.SEGMENTS) ? 
+				FeatureMatching.featOps.splitFeatureAtCoordinates(slope_original, simplifiedCoords) : null;
 		
-		return simplifiedSlopes;
+	   	String deName = slope_original.getAttribute("DE_GR_L_0").toString() + " " + slope_original.getAttribute("DE_GR_L_1").toString();
+	   	int difficulty = Integer.parseInt(slope_original.getAttribute("difficulty").toString());
+	   	
+	   	//simplified slope segments, one for each pair of remaining vertices
+	   	SimplifiedSlope simplified = new SimplifiedSlope(Integer.parseInt(slope_original.getAttribute("XML_GID").toString()), splitSegments);
+	   	for (int segmentIndex = 0; segmentIndex < simplifiedCoords.size() - 1; segmentIndex++) {
+	   		Coordinate[] segment_coords = {simplifiedCoords.get(segmentIndex), simplifiedCoords.get(segmentIndex + 1)};
+	   		//indexedLineGeom to getLength
+	   		double length = lengthLine.extractLine(lengthLine.indexOf(segment_coords[0]), lengthLine.indexOf(segment_coords[1])).getLength();
+	   		//in case segment has zero length ignore it and proceed to the next
+	   		if (length == 0.0) continue;
+	   		double cost_1, cost_2, cost_3, r_cost_1, r_cost_2, r_cost_3;
+            if (difficulty == 1) {
+                r_cost_1 = length; r_cost_2 = 10 * length; r_cost_3 = 15 * length;
+                cost_1 = length; cost_2 = 10 * length; cost_3 = 15 * length;
+            } else if (difficulty == 2) {
+                r_cost_1 = 5 * length; r_cost_2 = length; r_cost_3 = 5 * length;
+                cost_1 = 5 * length; cost_2 = length; cost_3 = 5 * length;
+            } else if (difficulty == 3) {
+                r_cost_1 = 15 * length; r_cost_2 = 10 * length; r_cost_3 = length;
+                cost_1 = 15 * length; cost_2 = 10 * length; cost_3 = length;
+            } else {
+                r_cost_1 = length; r_cost_2 = length; r_cost_3 = length;
+                cost_1 = length; cost_2 = length; cost_3 = length;
+            }
+            
+	   		//pass difficulty to the corresponded split segment
+	   		if (splitSegments != null) {
+	   			splitSegments.get(segmentIndex).setAttribute("difficulty", difficulty);
+	   		}
+            
+		   	Map <String, Object> attrs = new LinkedHashMap<String, Object>();
+		   	attrs.put("XML_TYPE", "slopes");
+		   	attrs.put("de_name", deName);
+		   	attrs.put("difficulty", difficulty);
+		   	attrs.put("source", (int) 0); //assigned by VertexTable
+		   	attrs.put("target", (int) 0);
+		   	attrs.put("duration", Double.parseDouble("0")); //duration 0 for slopes
+		   	attrs.put("length", length); 
+		   	attrs.put("r_length", length); 
+            attrs.put("r_rev_c", (double) -1);
+            attrs.put("rev_c", (double) -1);
+		   	attrs.put("cost_1", cost_1);
+		   	attrs.put("cost_2", cost_2);
+		   	attrs.put("cost_3", cost_3);
+		   	attrs.put("r_cost_1", r_cost_1);
+		   	attrs.put("r_cost_2", r_cost_2);
+		   	attrs.put("r_cost_3", r_cost_3);
+		   	attrs.put("open", (int) 0);
+		   	attrs.put("start_z", segment_coords[0].z/10);
+		   	attrs.put("end_z", segment_coords[segment_coords.length-1].z/10);
+			attrs.put("r_id", (int) 0); //assigned by simplify, in slope order
+			//build feature with all attributes
+			simplified.add(SchemaRegistry.buildFeature(segmentBuilder, FeatureMatching.featOps.createLineString(segment_coords), attrs), segmentIndex);
+	   	}
+	   	return simplified;
+	}
+	
+	/**
+	 * Result of the simplification of a single slope: its split segments and the simplified segments (zero length segments excluded)
+	 * together with the index of the split segment each simplified segment corresponds to. Split segments are null if segments are not written
+	 */
+	private static class SimplifiedSlope {
+		private final int slopeNumber;
+		private final List<SimpleFeature> splitSegments;
+		private final List<SimpleFeature> simpleSegments = new ArrayList<SimpleFeature>();
+		private final List<Integer> splitIndices = new ArrayList<Integer>();
+		
+		SimplifiedSlope(int slopeNumber, List<SimpleFeature> splitSegments) {
+			this.slopeNumber = slopeNumber;
+			this.splitSegments = splitSegments;
+		}
+		
+		void add(SimpleFeature simpleSegment, int splitIndex) {
+			simpleSegments.add(simpleSegment);
+			splitIndices.add(splitIndex);
+		}
 	}
 	
 	
+	/**
+	 * Returns the slope links as SimpleFeatureCollection, ready to be written. The collection is built on first request
+	 * @return SimpleFeatureCollection
+	 */
 	public SimpleFeatureCollection getSlopeLinks() {
+		if (this.slopeLinks == null && this.slopeLinkList != null) {
+			this.slopeLinks = buildLinkCollection(this.slopeLinkList);
+		}
 		return slopeLinks;
 	}
+	
+	public List<Link> getSlopeLinkList() {
+		return slopeLinkList;
+	}
 
 	
-	public void setSlopeLinks(SimpleFeatureCollection slopeLinks) {
-		this.slopeLinks = slopeLinks;
+	void setSlopeLinkList(List<Link> slopeLinkList) {
+		this.slopeLinkList = slopeLinkList;
+		this.slopeLinks = null;
 	}
 
 }
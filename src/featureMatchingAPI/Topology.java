@@ -0,0 +1,121 @@
+package preprocessing.featureMatchingAPI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.kdtree.KdTree;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import preprocessing.connectionsAPI.Candidate;
+import preprocessing.connectionsAPI.Link;
+
+/**
+ * A typed in-memory representation of the topology found by feature matching, which is passed from matching to simplification:
+ * the slope intersection points and the links (with their end-points), each with the ids of the features it touches.
+ * No GeoTools features are built for it, features are only created when the results are written
+ */
+public class Topology {
+	private final List<Intersection> intersections;
+	private final List<Link> links = new ArrayList<Link>();
+
+	/**
+	 * Class constructor
+	 * @param intersections - the slope intersection points
+	 */
+	public Topology(List<Intersection> intersections) {
+		this.intersections = intersections;
+	}
+
+	/**
+	 * Returns the intersection points out of the slope candidates. These are the intersection and common end-point candidates
+	 * (every candidate except the Slope2Slope ones, as in the slope_intersections output)
+	 * @param slopeCandidates
+	 * @return List of intersections
+	 */
+	public static List<Intersection> intersectionsOf(List<Candidate> slopeCandidates) {
+		List<Intersection> intersections = new ArrayList<Intersection>();
+		for (Candidate cand : slopeCandidates) {
+			if (!cand.getType().equals("Slope2Slope")) {
+				intersections.add(new Intersection(cand.getStartPoint(), cand.getXml_gid_start(), cand.getXml_gid_end()));
+			}
+		}
+		return Collections.unmodifiableList(intersections);
+	}
+
+	/**
+	 * Adds links to the topology. Links of zero length (common points) are excluded, as in the links output
+	 * @param newLinks
+	 */
+	public void addLinks(List<Link> newLinks) {
+		if (newLinks == null) return;
+		for (Link link : newLinks) {
+			if (link.getStartPoint().distance(link.getEndPoint()) > 0.00) {
+				links.add(link);
+			}
+		}
+	}
+
+	/**
+	 * Builds a spatial index of the intersection points. Node data is the Intersection
+	 * @return KdTree
+	 */
+	public KdTree buildIntersectionIndex() {
+		KdTree index = new KdTree();
+		for (Intersection intersection : intersections) {
+			index.insert(intersection.getCoordinate(), intersection);
+		}
+		return index;
+	}
+
+	/**
+	 * Builds a spatial index of the links, by link envelope. Items are the Link objects.
+	 * The tree is built before it is returned, so it can be queried by several threads
+	 * @return STRtree
+	 */
+	public STRtree buildLinkIndex() {
+		STRtree index = new STRtree();
+		for (Link link : links) {
+			index.insert(new Envelope(link.getStartPoint(), link.getEndPoint()), link);
+		}
+		index.build();
+		return index;
+	}
+
+	public List<Intersection> getIntersections() {
+		return intersections;
+	}
+
+	public List<Link> getLinks() {
+		return links;
+	}
+
+	/**
+	 * An intersection point of two slopes (or a common end-point) and the ids of the two slopes
+	 */
+	public static class Intersection {
+		private final Coordinate coordinate;
+		private final String gid_start;
+		private final String gid_end;
+
+		public Intersection(Coordinate coordinate, String gid_start, String gid_end) {
+			this.coordinate = coordinate;
+			this.gid_start = gid_start;
+			this.gid_end = gid_end;
+		}
+
+		public Coordinate getCoordinate() {
+			return coordinate;
+		}
+
+		public String getGid_start() {
+			return gid_start;
+		}
+
+		public String getGid_end() {
+			return gid_end;
+		}
+	}
+}
@@ -1,16 +1,12 @@
 package preprocessing.grading_strategy;
 
-import java.util.Arrays;
-
 import preprocessing.StartConfiguration;
-import preprocessing.connectionsAPI.Link;
 
 /**
  * @author Thomas Kouseras
  * Implements the Grading Strategy of the Bus Links
  */
-public class BusLinkStrategy implements GradingStrategy {
-
+public class BusLinkStrategy extends TableGradingStrategy {
 	
 	/**
 	 * The Grading of the BUS LINKS needs 3 distance and 3 height values to work
@@ -31,59 +27,41 @@ public class BusLinkStrategy implements GradingStrategy {
 	 *      - bus_height_dif[2] < link height < bus_height_dif[1]  	-> Rate D (default: 10< <15)
 	 * 		- link height < bus_height_dif[2] 						-> Rate B (default: <10)
 	 */
+	public BusLinkStrategy() {
+		super(StartConfiguration.getInstance().getBus_grading());
+	}
+	
+	/**
+	 * Class constructor for grading with thresholds other than the configured ones (e.g. parameter sweep)
+	 */
+	public BusLinkStrategy(int[] distThresholds, int[] heightThresholds) {
+		super(compile(distThresholds, heightThresholds));
+	}
+	
+	/**
+	 * Compiles the bus link grading rules (see class doc) into a GradingTable
+	 * @param distThresholds - BUS_DIST values
+	 * @param heightThresholds - BUS_HEIGHT_DIF values
+	 * @return GradingTable
+	 */
+	public static GradingTable compile(int[] distThresholds, int[] heightThresholds) {
+		double[] lengthLimits = {distThresholds[2], distThresholds[1], distThresholds[0]};
+		boolean[] inclusive = {true, true, true};
+		double[] heights = {heightThresholds[2], heightThresholds[1], heightThresholds[0]};
+		double[][] heightLimits = {heights, heights, heights}; //case length < 100m, < 200m, < 350m
+		char[][] grades = {
+				{'A', 'B', 'B', GradingTable.NO_GRADE},
+				{'A', 'B', 'C', GradingTable.NO_GRADE},
+				{'B', 'D', 'D', GradingTable.NO_GRADE}};
+		return new GradingTable(lengthLimits, inclusive, heightLimits, grades);
+	}
+	
+	/**
+	 * Bus links are graded on floored length and floored absolute height difference
+	 */
 	@Override
-	public void grade(Link link) {
-		double length = (double) Math.floor(link.getDistance());
-		double heightDif = (double) Math.floor(Math.abs(link.getHeightDiff()));
-		int [] distThresholds = Arrays.copyOf(StartConfiguration.getInstance().getBus_distances(), StartConfiguration.getInstance().getBus_distances().length);
-		int [] heightThresholds = Arrays.copyOf(StartConfiguration.getInstance().getBus_heights(), StartConfiguration.getInstance().getBus_heights().length);
-		
-		
-		//case length < 100m / distThresholds[2]
-		if (length <= distThresholds[2]) {
-			//height_dif < bus_height_diff[2] / 10m
-			if (heightDif <= heightThresholds[2]) {
-				link.setGrade('A');
-			}
-			//height_dif < bus_height_diff[1] / 15m
-			else if (heightDif <= heightThresholds[1]) {
-				link.setGrade('B');
-			}
-			//height_dif < bus_height_diff[0] / 20m
-			else if (heightDif <= heightThresholds[0]) {
-				link.setGrade('B');
-			}
-		}
-		//case length < 200m / distThresholds[1]
-		else if (length <= distThresholds[1]) {
-			//height_dif < bus_height_diff[2] / 10m
-			if (heightDif <= heightThresholds[2]) {
-				link.setGrade('A');
-			}
-			//height_dif < bus_height_diff[1] / 15m
-			else if (heightDif <= heightThresholds[1]) {
-				link.setGrade('B');
-			}
-			//height_dif < bus_height_diff[0] / 20m
-			else if (heightDif <= heightThresholds[0]) {
-				link.setGrade('C');
-			}
-		}
-		//case length < 350m / distThresholds[0]
-		else if (length <= distThresholds[0]) {
-			//height_dif < bus_height_diff[2] / 10m
-			if (heightDif <= heightThresholds[2]) {
-				link.setGrade('B');
-			}
-			//height_dif < bus_height_diff[1] / 15m
-			else if (heightDif <= heightThresholds[1]) {
-				link.setGrade('D');
-			}
-			//height_dif < bus_height_diff[0] / 20m
-			else if (heightDif <= heightThresholds[0]) {
-				link.setGrade('D');
-			}
-		}
+	public char grade(double length, double heightDif) {
+		return table.lookup(Math.floor(length), Math.floor(Math.abs(heightDif)));
 	}
 
 }
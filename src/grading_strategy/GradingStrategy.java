@@ -8,4 +8,14 @@ import preprocessing.connectionsAPI.Link;
  */
 public interface GradingStrategy {
 	public void grade(Link link);
+
+	/**
+	 * Returns the grade for the given link length and height difference, without the need of a Link object
+	 */
+	public char grade(double length, double heightDif);
+
+	/**
+	 * Grades a batch of links given as primitive arrays of lengths and height differences
+	 */
+	public char[] gradeAll(double[] lengths, double[] heightDifs);
 }
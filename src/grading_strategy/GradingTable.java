@@ -0,0 +1,64 @@
+package preprocessing.grading_strategy;
+
+import java.util.Arrays;
+
+/**
+ * An immutable lookup table of link grades, compiled once from the configuration thresholds.
+ * The table is made up of length bands, checked in the given order. Each band holds an ascending list of height limits
+ * and one grade per limit, plus a last grade used when the height exceeds all limits of the band.
+ * A length that falls in no band is not graded (NO_GRADE)
+ */
+public final class GradingTable {
+	//grade returned for lengths outside all bands, Link keeps its initial grade
+	public static final char NO_GRADE = '\u0000';
+
+	private final double[] lengthLimits;
+	private final boolean[] inclusive;
+	private final double[][] heightLimits;
+	private final char[][] grades;
+
+	/**
+	 * Class constructor
+	 * @param lengthLimits - upper limit of each length band
+	 * @param inclusive - whether the upper limit of each length band is included in the band (<=) or not (<)
+	 * @param heightLimits - per band, the ascending height limits (always inclusive)
+	 * @param grades - per band, one grade per height limit plus the grade for heights larger than all limits
+	 */
+	GradingTable(double[] lengthLimits, boolean[] inclusive, double[][] heightLimits, char[][] grades) {
+		if (lengthLimits.length != inclusive.length || lengthLimits.length != heightLimits.length || lengthLimits.length != grades.length) {
+			throw new IllegalArgumentException("GradingTable needs the same number of length limits, height groups and grade groups");
+		}
+		this.lengthLimits = Arrays.copyOf(lengthLimits, lengthLimits.length);
+		this.inclusive = Arrays.copyOf(inclusive, inclusive.length);
+		this.heightLimits = new double[heightLimits.length][];
+		this.grades = new char[grades.length][];
+		for (int i = 0; i < heightLimits.length; i++) {
+			if (grades[i].length != heightLimits[i].length + 1) {
+				throw new IllegalArgumentException("GradingTable band " + i + " needs one grade more than its height limits");
+			}
+			this.heightLimits[i] = Arrays.copyOf(heightLimits[i], heightLimits[i].length);
+			this.grades[i] = Arrays.copyOf(grades[i], grades[i].length);
+		}
+	}
+
+	/**
+	 * Returns the grade of a link with the given length and height difference
+	 * @param length - link length
+	 * @param heightDif - link height difference
+	 * @return the grade or NO_GRADE if length is out of all bands
+	 */
+	public char lookup(double length, double heightDif) {
+		for (int b = 0; b < lengthLimits.length; b++) {
+			if (inclusive[b] ? length <= lengthLimits[b] : length < lengthLimits[b]) {
+				double[] limits = heightLimits[b];
+				for (int h = 0; h < limits.length; h++) {
+					if (heightDif <= limits[h]) {
+						return grades[b][h];
+					}
+				}
+				return grades[b][limits.length];
+			}
+		}
+		return NO_GRADE;
+	}
+}
@@ -1,15 +1,12 @@
 package preprocessing.grading_strategy;
 
-import java.util.Arrays;
-
 import preprocessing.StartConfiguration;
-import preprocessing.connectionsAPI.Link;
 
 /**
  * @author Thomas Kouseras
  * Implements the Grading Strategy of the Lift Links
  */
-public class LiftLinkGrading implements GradingStrategy {
+public class LiftLinkGrading extends TableGradingStrategy {
 	
 	/**
 	 * The Grading of the LIFT LINKS needs 4 distance values and 4 height values to work
@@ -31,61 +28,37 @@ public class LiftLinkGrading implements GradingStrategy {
 	 * 		- height_distances[3] < candidate height < height_distances[2]  -> Rate D (default: 1< <5)
 	 * 		- candidate height < height_distances[3] 						-> Rate B (default: <1)
 	 */
-	@Override
-	public void grade(Link link) {
-		double length = link.getDistance();
-		double heightDif = link.getHeightDiff();
-		int [] distThresholds = Arrays.copyOf(StartConfiguration.getInstance().getLift_distances(), StartConfiguration.getInstance().getLift_distances().length);
-		int [] heightThresholds = Arrays.copyOf(StartConfiguration.getInstance().getLift_heights(), StartConfiguration.getInstance().getLift_heights().length);
-		
-		//case: length < 50 m
-		if (length < distThresholds[3]) {	
-			if (heightDif <= heightThresholds[1]) {
-				//height diff < 10 m -> Rate A
-				link.setGrade('A');
-			} else if (heightDif <= heightThresholds[0]) {
-				//height diff < 35 m -> Rate B
-				link.setGrade('B');
-			}
-		} 
-		//case: 50 m < length < 95 m
-		else if (length < distThresholds[2]) {
-			if (heightDif <= heightThresholds[1]) {
-				//height diff < 10 m -> Rate A
-				link.setGrade('A');
-			} else if (heightDif <= heightThresholds[0]) {
-				//height diff < 35 m -> Rate B
-				link.setGrade('B');
-			}
-		}
-		//case:95 m < length < 160 m
-		else if (length < distThresholds[1]) {	
-			if (heightDif <= heightThresholds[3]) {
-				//height diff < 1m -> Rate B
-				link.setGrade('B');
-			} else if (heightDif <= heightThresholds[2]) {
-				//height diff < 5 m -> Rate C
-				link.setGrade('C');
-			} else {
-				//height diff > 5 m -> Delete Link
-				link.setGrade('E');
-			}
-		} 
-		//case 160 m < length < 200 m
-		else if (length <= distThresholds[0]) {
-			if (heightDif <= heightThresholds[3]) {
-				//height diff < 1m -> Rate B
-				link.setGrade('B');
-			} else if (heightDif <= heightThresholds[2]) {
-				//height diff < 5 m -> Rate D
-				link.setGrade('D');
-			} else {
-				//height diff > 5 m -> Delete Link
-				link.setGrade('E');
-			}
-			
-		}
-
+	public LiftLinkGrading() {
+		super(StartConfiguration.getInstance().getLift_grading());
+	}
+	
+	/**
+	 * Class constructor for grading with thresholds other than the configured ones (e.g. parameter sweep)
+	 */
+	public LiftLinkGrading(int[] distThresholds, int[] heightThresholds) {
+		super(compile(distThresholds, heightThresholds));
+	}
+	
+	/**
+	 * Compiles the lift link grading rules (see class doc) into a GradingTable
+	 * @param distThresholds - LIFTS_DIST values
+	 * @param heightThresholds - LIFTS_HEIGHT_DIF values
+	 * @return GradingTable
+	 */
+	public static GradingTable compile(int[] distThresholds, int[] heightThresholds) {
+		double[] lengthLimits = {distThresholds[3], distThresholds[2], distThresholds[1], distThresholds[0]};
+		boolean[] inclusive = {false, false, false, true};
+		double[][] heightLimits = {
+				{heightThresholds[1], heightThresholds[0]}, 	//case: length < 50 m
+				{heightThresholds[1], heightThresholds[0]}, 	//case: 50 m < length < 95 m
+				{heightThresholds[3], heightThresholds[2]}, 	//case: 95 m < length < 160 m
+				{heightThresholds[3], heightThresholds[2]}}; 	//case: 160 m < length < 200 m
+		char[][] grades = {
+				{'A', 'B', GradingTable.NO_GRADE},
+				{'A', 'B', GradingTable.NO_GRADE},
+				{'B', 'C', 'E'},
+				{'B', 'D', 'E'}};
+		return new GradingTable(lengthLimits, inclusive, heightLimits, grades);
 	}
 
 }
@@ -1,15 +1,12 @@
 package preprocessing.grading_strategy;
 
-import java.util.Arrays;
-
 import preprocessing.StartConfiguration;
-import preprocessing.connectionsAPI.Link;
 
 /**
  * @author Thomas Kouseras
  * Implements the Grading Strategy of the Slope-Lift Links
  */
-public class SlopeLiftGrading implements GradingStrategy {
+public class SlopeLiftGrading extends TableGradingStrategy {
 	
 	/**
 	 * The Grading of the SLOPE-LIFT LINKS needs 5 distance values and 6 height values to work
@@ -39,84 +36,39 @@ public class SlopeLiftGrading implements GradingStrategy {
 	 * 	 	- height_distances[5]< candidate height < height_distances[4] -> Rate D (default: 5< <10)
 	 * 		- candidate height < height_distances[5] 					  -> Rate C (default: <5)
 	 */
-	@Override
-	public void grade(Link link) {
-		double length = link.getDistance(), 
-			   heightDif = link.getHeightDiff();
-		int [] distThresholds = Arrays.copyOf(StartConfiguration.getInstance().getSlope_distances(), StartConfiguration.getInstance().getSlope_distances().length), 
-			   heightThresholds = Arrays.copyOf(StartConfiguration.getInstance().getSlope_heights(), StartConfiguration.getInstance().getSlope_heights().length);
-		
-		//case: length < 40 m
-		if (length < distThresholds[4]) {
-			if (heightDif <= heightThresholds[3]) {
-				//link height < 15 m -> Rate A
-				link.setGrade('A');
-			} else if (heightDif <= heightThresholds[2]) {
-				//link height < 20 m -> Rate B
-				link.setGrade('B');
-			} else {
-				//link height < 30 m -> Rate C
-				link.setGrade('C');
-			}
-		} 
-		//case: 40 m < length < 60 m
-		else if (length < distThresholds[3]) {
-			if (heightDif <= heightThresholds[3]) {
-				//link height < 15m -> Rate A
-				link.setGrade('A');
-			} else if (heightDif <= heightThresholds[2]) {
-				//link height < 20m -> Rate B
-				link.setGrade('B');
-			} else {
-				//link height < 30m -> Rate C
-				link.setGrade('C');
-			}
-		}
-		//case 60 m < length < 80 m
-		else if (length < distThresholds[2]) {
-			if (heightDif <= heightThresholds[4]) {
-				//link height < 10m -> Rate A
-				link.setGrade('A');
-			} else if (heightDif <= heightThresholds[3]) {
-				//link height < 15m -> Rate B
-				link.setGrade('B');
-			} else if (heightDif <= heightThresholds[1]) {
-				//link height < 25m -> Rate D
-				link.setGrade('D');
-			} else {
-				//link height > 25m -> Delete Link
-				link.setGrade('E');
-			}
-		}
-		//case 80 m < length < 100 m
-		else if (length < distThresholds[1]) {
-			if (heightDif <= heightThresholds[5]) {
-				//link height < 5m -> Rate B
-				link.setGrade('B');
-			} else if (heightDif <= heightThresholds[4]) {
-				//link height < 10m -> Rate C
-				link.setGrade('C');
-			} else if (heightDif <= heightThresholds[1]) {
-				//link height < 25m -> Rate D
-				link.setGrade('D');
-			} else {
-				//link height > 25m -> Delete Link
-				link.setGrade('E');
-			}
-		}
-		//case 100 m < length < 120 m
-		else if (length <= distThresholds[0]) {
-			if (heightDif <= heightThresholds[5]) {
-				//link height < 5m -> Rate C
-				link.setGrade('C');
-			} else if (heightDif <= heightThresholds[4]) {
-				//link height < 10m -> Rate D
-				link.setGrade('D');
-			} else {
-				//link height > 10m -> Delete Link
-				link.setGrade('E');
-			}
-		}
+	public SlopeLiftGrading() {
+		super(StartConfiguration.getInstance().getSlope_lift_grading());
+	}
+	
+	/**
+	 * Class constructor for grading with thresholds other than the configured ones (e.g. parameter sweep)
+	 */
+	public SlopeLiftGrading(int[] distThresholds, int[] heightThresholds) {
+		super(compile(distThresholds, heightThresholds));
+	}
+	
+	/**
+	 * Compiles the slope-lift link grading rules (see class doc) into a GradingTable
+	 * @param distThresholds - SLOPES_DIST values
+	 * @param heightThresholds - SLOPES_HEIGHT_DIF values
+	 * @return GradingTable
+	 */
+	public static GradingTable compile(int[] distThresholds, int[] heightThresholds) {
+		double[] lengthLimits = {distThresholds[4], distThresholds[3], distThresholds[2], distThresholds[1], distThresholds[0]};
+		boolean[] inclusive = {false, false, false, false, true};
+		double[][] heightLimits = {
+				{heightThresholds[3], heightThresholds[2]}, 						//case: length < 40 m
+				{heightThresholds[3], heightThresholds[2]}, 						//case: 40 m < length < 60 m
+				{heightThresholds[4], heightThresholds[3], heightThresholds[1]}, 	//case: 60 m < length < 80 m
+				{heightThresholds[5], heightThresholds[4], heightThresholds[1]}, 	//case: 80 m < length < 100 m
+				{heightThresholds[5], heightThresholds[4]}}; 						//case: 100 m < length < 120 m
+		char[][] grades = {
+				{'A', 'B', 'C'},
+				{'A', 'B', 'C'},
+				{'A', 'B', 'D', 'E'},
+				{'B', 'C', 'D', 'E'},
+				{'C', 'D', 'E'}};
+		return new GradingTable(lengthLimits, inclusive, heightLimits, grades);
 	}
 
 }
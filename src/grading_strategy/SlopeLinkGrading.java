@@ -1,13 +1,12 @@
 package preprocessing.grading_strategy;
 
 import preprocessing.StartConfiguration;
-import preprocessing.connectionsAPI.Link;
 
 /**
  * @author Thomas Kouseras
  * Implements the Grading Strategy of the Slope Links
  */
-public class SlopeLinkGrading implements GradingStrategy {
+public class SlopeLinkGrading extends TableGradingStrategy {
 	
 	/**
 	 * The Grading of the SLOPE LINKS uses two length groups and 3 height groups. 
@@ -22,38 +21,34 @@ public class SlopeLinkGrading implements GradingStrategy {
 	 * 		- -15m < Link height <= 1m 	-> Rate B
 	 * 		- Link height <= -15m        -> Delete
 	 */
-	@Override
-	public void grade(Link link) {
-		double length = link.getDistance(),
-			   heightDif = link.getHeightDiff();
-		double [] distThresholds = {StartConfiguration.getInstance().getSlope_endpoint_dist(), StartConfiguration.getInstance().getSlope_midpoint_dist()[1]};
-		double [] heightThresholds = {-15.00, 1.00, 5.00}; //default hardcoded values
-		//case: length < 10 m
-		if (length < distThresholds[1]) {
-			if (heightDif <= heightThresholds[0]) {
-				//link height <= -15 m -> Delete
-				link.setGrade('E');
-			} else if (heightDif <= heightThresholds[1]) {
-				//link height <= 1 m -> Rate A
-				link.setGrade('A');
-			} else {
-				//link height < 5 m -> RateB
-				link.setGrade('B');
-			}
-		} 
-		//case: 10 m < length < 20 m
-		else if (length <= distThresholds[0]) {
-			if (heightDif <= heightThresholds[0]) {
-				//link height <= -15 m -> Delete
-				link.setGrade('E');
-			} else if (heightDif <= heightThresholds[1]) {
-				//link height <= 1m -> Rate B
-				link.setGrade('B');
-			} else {
-				//link height < 5m -> Rate C
-				link.setGrade('C');
-			}
-		}
+	public SlopeLinkGrading() {
+		super(StartConfiguration.getInstance().getSlope_grading());
+	}
+	
+	/**
+	 * Class constructor for grading with thresholds other than the configured ones (e.g. parameter sweep)
+	 */
+	public SlopeLinkGrading(double endpointDist, double midpointDist) {
+		super(compile(endpointDist, midpointDist));
+	}
+	
+	/**
+	 * Compiles the slope link grading rules (see class doc) into a GradingTable
+	 * @param endpointDist - SLOPES_ENDPOINT value
+	 * @param midpointDist - SLOPES_MIDPOINT second value
+	 * @return GradingTable
+	 */
+	public static GradingTable compile(double endpointDist, double midpointDist) {
+		double[] heightThresholds = {-15.00, 1.00, 5.00}; //default hardcoded values
+		double[] lengthLimits = {midpointDist, endpointDist};
+		boolean[] inclusive = {false, true};
+		double[][] heightLimits = {
+				{heightThresholds[0], heightThresholds[1]}, 	//case: length < 10 m
+				{heightThresholds[0], heightThresholds[1]}}; 	//case: 10 m < length < 20 m
+		char[][] grades = {
+				{'E', 'A', 'B'},
+				{'E', 'B', 'C'}};
+		return new GradingTable(lengthLimits, inclusive, heightLimits, grades);
 	}
 
 }
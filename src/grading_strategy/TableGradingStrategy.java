@@ -0,0 +1,49 @@
+package preprocessing.grading_strategy;
+
+import preprocessing.connectionsAPI.Link;
+
+/**
+ * An abstract grading strategy, which grades links through a GradingTable compiled from the configuration thresholds
+ */
+public abstract class TableGradingStrategy implements GradingStrategy {
+	protected final GradingTable table;
+
+	protected TableGradingStrategy(GradingTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Grades the link. If its length is out of all bands the link keeps its initial grade
+	 */
+	@Override
+	public void grade(Link link) {
+		char grade = grade(link.getDistance(), link.getHeightDiff());
+		if (grade != GradingTable.NO_GRADE) {
+			link.setGrade(grade);
+		}
+	}
+
+	@Override
+	public char grade(double length, double heightDif) {
+		return table.lookup(length, heightDif);
+	}
+
+	/**
+	 * Grades a batch of links through grade(length, heightDif), so strategies which adapt the lookup values apply to batches as well
+	 */
+	@Override
+	public char[] gradeAll(double[] lengths, double[] heightDifs) {
+		if (lengths.length != heightDifs.length) {
+			throw new IllegalArgumentException("Grading batch needs length and height arrays of the same size");
+		}
+		char[] result = new char[lengths.length];
+		for (int i = 0; i < lengths.length; i++) {
+			result[i] = grade(lengths[i], heightDifs[i]);
+		}
+		return result;
+	}
+
+	public GradingTable getTable() {
+		return table;
+	}
+}
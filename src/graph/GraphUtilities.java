@@ -4,8 +4,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,6 +36,9 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
 
+import preprocessing.StartConfiguration;
+import preprocessing.util.Diagnostics;
+import preprocessing.util.Diagnostics.Category;
 import preprocessing.util.FeatureOperations;
 import preprocessing.util.GeometryOperations;
 
@@ -76,10 +81,22 @@ public class GraphUtilities {
 	 *  - slopes start from upper node end to lower node
 	 *  - lifts start from lower node end to upper node
 	 *  - buses and links are represented as bi-directional edges aka two edges, one for each direction 
+	 * Node identity is taken from a snap grid with the configured snap tolerance (SNAP_TOLERANCE in the config file)
 	 * @param merged_features
 	 * @return a directed graph
 	 */
 	public static DirectedGraph getDirectedGraph(SimpleFeatureCollection merged_features) {
+		return getDirectedGraph(merged_features, new SnapGrid(StartConfiguration.getInstance().getSnap_tolerance()));
+	}
+	
+	/**
+	 * Creates a directed graph from the merged_features dataSet (see getDirectedGraph). Edge end-points are snapped to the nodes of 
+	 * the given snap grid before they are added, so end-points differing less than the snap tolerance become one graph node
+	 * @param merged_features
+	 * @param snapGrid - gives node identity to the edge end-points, the same grid used for the merged_pivots vertex ids
+	 * @return a directed graph
+	 */
+	public static DirectedGraph getDirectedGraph(SimpleFeatureCollection merged_features, SnapGrid snapGrid) {
 		System.out.println("\n---- CREATING DIRECTED GRAPH AS TOPOLOGICAL LEVEL OF FINAL DATA OUTPUT ----");
 		
 		final GeometryOperations geomOps = new GeometryOperations();
@@ -104,15 +121,15 @@ public class GraphUtilities {
 						System.err.println("Feature has null vertex. Aborting .. ..");
 						System.exit(0);
 					}
-					
+					//snap end-points to the grid nodes
+					featureCoords = snapGrid.snap(featureCoords);
+					orderedCoords = snapGrid.snap(orderedCoords);
 					
 					//check that segment has only two vertices
 					Geometry segment = (Geometry)((SimpleFeature) feature).getDefaultGeometry();
 					if (segment.getCoordinates().length != 2) { 
-						String message = ("Problem " + segment.getCoordinates().length + " , TYPE " + edgeType + ", ID " 
-								+ ((SimpleFeature) feature).getAttribute("r_id").toString()); 
-						Logger.getLogger(GraphUtilities.class.getName()).log(Level.SEVERE, message);
-						Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, message);
+						Diagnostics.report(Level.SEVERE, Category.GRAPH_SEGMENT, "Problem ", segment.getCoordinates().length, " , TYPE ", edgeType, ", ID ", 
+								((SimpleFeature) feature).getAttribute("r_id"));
 					}
 
 					//Initialize variables for the switch cases
@@ -136,7 +153,7 @@ public class GraphUtilities {
 							//check if directed geometry is correct
 							if (!((Geometry) e.getInNode().getObject()).equals(geomOps.coordinateToPointGeometry(coords[0])) || 
 									!((Geometry) e.getOutNode().getObject()).equals(geomOps.coordinateToPointGeometry(coords[1]))) {
-								System.err.println("Slope segment " + ((SimpleFeature)e.getObject()).getAttribute("r_id") + " was falsly entered in directed graph");
+								Diagnostics.report(Level.SEVERE, Category.GRAPH_DIRECTION, "Slope segment ", ((SimpleFeature)e.getObject()).getAttribute("r_id"), " was falsly entered in directed graph");
 							}
 						break;
 						case "lifts":
@@ -148,9 +165,7 @@ public class GraphUtilities {
 							//check if directed geometry is correct
 							if (!((Geometry) e.getInNode().getObject()).equals(geomOps.coordinateToPointGeometry(orderedCoords[0])) || 
 									!((Geometry) e.getOutNode().getObject()).equals(geomOps.coordinateToPointGeometry(orderedCoords[1]))) {
-								String message = ("Lift segment " + ((SimpleFeature)e.getObject()).getAttribute("r_id") + " was falsly entered in directed graph");
-								Logger.getLogger(GraphUtilities.class.getName()).log(Level.SEVERE, message);
-								Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, message);
+								Diagnostics.report(Level.SEVERE, Category.GRAPH_DIRECTION, "Lift segment ", ((SimpleFeature)e.getObject()).getAttribute("r_id"), " was falsly entered in directed graph");
 							}
 						break;
 						case "buses":
@@ -222,10 +237,8 @@ public class GraphUtilities {
 					System.err.println("Feature has null vertex. Aborting .. ..");
 					System.exit(0);
 				} else if (featureCoords.length !=2 ) {
-					String message = ("Problem " + featureCoords.length + " , TYPE " + type + ", ID " 
-							+ (feature).getAttribute("r_id").toString()); 
-					Logger.getLogger(GraphUtilities.class.getName()).log(Level.SEVERE, message);
-					Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, message);
+					Diagnostics.report(Level.SEVERE, Category.GRAPH_SEGMENT, "Problem ", featureCoords.length, " , TYPE ", type, ", ID ", 
+							feature.getAttribute("r_id"));
 				}
 				
 				//if type is "LIFTS" new geometry LineString from lower to upper
@@ -313,11 +326,11 @@ System.out.println(preparedFeatures.size() + " features after preparation");
 			Coordinate[] edgeGeom = ((Geometry) ((SimpleFeature) e.getObject()).getDefaultGeometry()).getCoordinates();
 			if (type == "lifts") {
 				if( (start.z > end.z) || (edgeGeom[0].z > edgeGeom[1].z) || !start.equals2D(edgeGeom[0]) || !end.equals2D(edgeGeom[1])) {
-					System.err.println("Lift edge not valid");
+					Diagnostics.report(Level.SEVERE, Category.GRAPH_EDGE, "Lift edge ", sf.getAttribute("r_id"), " not valid");
 				}
 			} else if (type == "slopes") {
 				if ( (end.z > start.z) || (edgeGeom[1].z > edgeGeom[0].z) || !start.equals2D(edgeGeom[0]) || !end.equals2D(edgeGeom[1])  ) {
-					System.err.println(" Slope edge not valid ");
+					Diagnostics.report(Level.SEVERE, Category.GRAPH_EDGE, "Slope edge ", sf.getAttribute("r_id"), " not valid");
 				}
 			} else if (type == "buses") {
 				System.out.println(Arrays.asList(edgeGeom));
@@ -335,20 +348,15 @@ System.out.println(preparedFeatures.size() + " features after preparation");
 	public static void checkDuplicateNodes (Graph graph) {
 		Collection<Integer> duplicates = new ArrayList<Integer>();
 		
-		Collection<?> allNodes = graph.getNodes();
-		Object[] nodes = allNodes.toArray();
-		for (int i=0; i <nodes.length; i++) {
-			Node current = (Node) nodes[i];
-			Geometry currentGeom = (Geometry)current.getObject();
-			for (int k=i+1; i<nodes.length; i++) {
-				Node next = (Node) nodes[k];
-				Geometry nextGeom = (Geometry)next.getObject();
-				if(currentGeom.equals(nextGeom)) {
-					duplicates.add(next.getID());
-				}
+		//nodes are hashed by their x,y coordinate, a node whose coordinate is already present is a duplicate
+		Set<Coordinate> seen = new HashSet<Coordinate>();
+		for (Object node : graph.getNodes()) {
+			Coordinate coord = ((Geometry)((Node) node).getObject()).getCoordinate();
+			if (!seen.add(coord)) {
+				duplicates.add(((Node) node).getID());
 			}
 		}
-		if (duplicates.size()>1) {
+		if (!duplicates.isEmpty()) {
 			System.out.println("Graph has " + duplicates.size() + " duplicate Nodes:");
 			System.out.println(duplicates.toString());	
 		}
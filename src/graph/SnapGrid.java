@@ -0,0 +1,132 @@
+package preprocessing.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A hashed snap grid which gives node identity to coordinates. The x,y plane is quantized in square cells with the size of the
+ * snap tolerance. A coordinate is snapped to the closest known node within the tolerance, looked up in its own and the 8 neighbour cells,
+ * otherwise it becomes a new node. Each lookup is O(1), so end-points differing by floating-point noise (millimetres) are matched
+ * without comparing all nodes.
+ * Nodes get ids starting at 1, in the order they are found. The node coordinate is the first coordinate found for it.
+ * With a zero tolerance only identical x,y coordinates are the same node.
+ * The grid is not thread-safe
+ */
+public class SnapGrid {
+	private final double tolerance;
+	//node ids per hashed cell. Cells with the same hash share the list, candidates are always checked by distance
+	private final Map<Long, List<Integer>> cells = new HashMap<Long, List<Integer>>();
+	//node ids per exact x,y coordinate, used with a zero tolerance
+	private final Map<Coordinate, Integer> exact = new HashMap<Coordinate, Integer>();
+	//node coordinates, node id - 1 is the index
+	private final List<Coordinate> nodes = new ArrayList<Coordinate>();
+
+	/**
+	 * Class constructor
+	 * @param tolerance - max x,y distance of coordinates to be snapped to the same node
+	 */
+	public SnapGrid(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Returns the id of the node the coordinate snaps to. A new node is created if no node lies within the tolerance
+	 * @param coord
+	 * @return node id
+	 */
+	public int getNodeId(Coordinate coord) {
+		if (tolerance <= 0) {
+			Coordinate key = new Coordinate(coord.x, coord.y);
+			Integer id = exact.get(key);
+			if (id == null) {
+				id = addNode(coord);
+				exact.put(key, id);
+			}
+			return id;
+		}
+		long cellX = (long) Math.floor(coord.x / tolerance);
+		long cellY = (long) Math.floor(coord.y / tolerance);
+		//find closest node within tolerance in the cell and its neighbours
+		int closest = -1;
+		double minDistance = tolerance;
+		for (long x = cellX - 1; x <= cellX + 1; x++) {
+			for (long y = cellY - 1; y <= cellY + 1; y++) {
+				List<Integer> cell = cells.get(cellKey(x, y));
+				if (cell == null) continue;
+				for (int id : cell) {
+					double distance = nodes.get(id - 1).distance(coord);
+					if (distance <= minDistance) {
+						minDistance = distance;
+						closest = id;
+					}
+				}
+			}
+		}
+		if (closest > 0) {
+			return closest;
+		}
+		int id = addNode(coord);
+		Long key = cellKey(cellX, cellY);
+		List<Integer> cell = cells.get(key);
+		if (cell == null) {
+			cell = new ArrayList<Integer>(1);
+			cells.put(key, cell);
+		}
+		cell.add(id);
+		return id;
+	}
+
+	/**
+	 * Returns the coordinate snapped to its node: x,y of the node and z of the given coordinate (which is kept for edge direction)
+	 * @param coord
+	 * @return snapped Coordinate
+	 */
+	public Coordinate snap(Coordinate coord) {
+		Coordinate node = getNode(getNodeId(coord));
+		return new Coordinate(node.x, node.y, coord.z);
+	}
+
+	/**
+	 * @param coords
+	 * @return a new array with all coordinates snapped (see snap). Null entries stay null
+	 */
+	public Coordinate[] snap(Coordinate[] coords) {
+		Coordinate[] snapped = new Coordinate[coords.length];
+		for (int i = 0; i < coords.length; i++) {
+			snapped[i] = (coords[i] == null) ? null : snap(coords[i]);
+		}
+		return snapped;
+	}
+
+	/**
+	 * @param id
+	 * @return the coordinate of the node
+	 */
+	public Coordinate getNode(int id) {
+		return nodes.get(id - 1);
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return nodes.size();
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	private int addNode(Coordinate coord) {
+		nodes.add(coord);
+		return nodes.size();
+	}
+
+	private static Long cellKey(long x, long y) {
+		return x * 0x9E3779B97F4A7C15L + y;
+	}
+}
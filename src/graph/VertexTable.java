@@ -0,0 +1,103 @@
+package preprocessing.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+
+import preprocessing.util.FeatureOperations;
+import preprocessing.util.SchemaRegistry;
+
+/**
+ * A class which assigns integer vertex ids to the distinct end-points of the merged_pivots edges and passes them to the
+ * source and target attributes of each edge (source: first vertex of the edge geometry, target: last vertex).
+ * Vertex ids are the node ids of a SnapGrid (SNAP_TOLERANCE in the config file), so end-points closer than the snap tolerance
+ * share a vertex and the same grid can be used for the graph creation (see GraphUtilities.getDirectedGraph).
+ * Vertex ids start at 1 and are assigned in edge order, the coordinate of a vertex is the first end-point found for it
+ */
+public class VertexTable {
+	private final SnapGrid grid;
+
+	/**
+	 * Class constructor
+	 * @param grid - the snap grid giving node identity to the end-points
+	 */
+	public VertexTable(SnapGrid grid) {
+		this.grid = grid;
+	}
+
+	/**
+	 * Assigns vertex ids to the end-points of all edges and sets the source and target attributes of the edges
+	 * @param edges - merged_pivots features
+	 */
+	public void assign(SimpleFeatureCollection edges) {
+		SimpleFeatureIterator iterator = edges.features();
+		try {
+			while (iterator.hasNext()) {
+				SimpleFeature edge = iterator.next();
+				Coordinate[] coords = ((Geometry) edge.getDefaultGeometry()).getCoordinates();
+				edge.setAttribute("source", getVertexId(coords[0]));
+				edge.setAttribute("target", getVertexId(coords[coords.length-1]));
+			}
+		} finally {
+			iterator.close();
+		}
+		System.out.println("Assigned " + grid.size() + " vertex ids to the end-points of " + edges.size() + " edges (snap tolerance " + grid.getTolerance() + ")");
+	}
+
+	/**
+	 * Returns the id of the vertex at the given coordinate, a new vertex is created if none exists within the snap tolerance
+	 * @param coord
+	 * @return vertex id
+	 */
+	public int getVertexId(Coordinate coord) {
+		return grid.getNodeId(coord);
+	}
+
+	/**
+	 * @return a copy of the vertex coordinates, the vertex id of index i is i + 1
+	 */
+	public Coordinate[] getCoordinates() {
+		Coordinate[] coords = new Coordinate[grid.size()];
+		for (int id = 1; id <= coords.length; id++) {
+			coords[id - 1] = grid.getNode(id);
+		}
+		return coords;
+	}
+
+	/**
+	 * @return the number of vertices
+	 */
+	public int size() {
+		return grid.size();
+	}
+
+	/**
+	 * Returns the vertices as point features with "id" and "elev" (z/10) attributes
+	 * @param crs - CoordinateReferenceSystem of the edges
+	 * @return SimpleFeatureCollection
+	 */
+	public SimpleFeatureCollection getVertexFeatures(CoordinateReferenceSystem crs) {
+		FeatureOperations featOps = new FeatureOperations();
+		SimpleFeatureType type = SchemaRegistry.getVerticesType(crs);
+		SimpleFeatureBuilder builder = SchemaRegistry.newBuilder(type);
+		List<SimpleFeature> features = new ArrayList<SimpleFeature>(grid.size());
+		for (int id = 1; id <= grid.size(); id++) {
+			Coordinate coord = grid.getNode(id);
+			builder.set("the_geom", featOps.createPoint(coord));
+			builder.set("id", id);
+			builder.set("elev", Double.isNaN(coord.z) ? 0.0 : coord.z/10);
+			features.add(builder.buildFeature(null));
+		}
+		return new ListFeatureCollection(type, features);
+	}
+}
@@ -0,0 +1,328 @@
+package preprocessing.output;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import preprocessing.StartConfiguration;
+
+/**
+ * An exporter which writes the final network (merged_pivots edges and their vertices) as a compact columnar file (.netcol),
+ * which analytics notebooks and external routing engines can memory-map without GeoTools (e.g. numpy.frombuffer on the column sections).
+ * All numbers are little-endian, every section starts at a multiple of 8 bytes. Layout:
+ * <pre>
+ * header     (40 bytes)  magic "NETCOL1\0", int32 version (1), int32 column count, int64 edge count, int64 node count,
+ *                        int32 srid, int32 reserved (0)
+ * directory  (64 bytes per column)  char[32] column name (UTF-8, zero padded), int32 type, int32 table,
+ *                        int64 section offset, int64 section length in bytes, int64 number of values
+ * sections   the column values, in directory order
+ * </pre>
+ * Types: 1 int32, 2 float32, 3 float64, 4 int32 code into the dictionary column "name.dict" (-1 for no value),
+ * 5 dictionary: int32 offsets[values + 1] into the UTF-8 bytes which follow the offsets.
+ * Tables: 0 edges, 1 nodes, 2 dictionaries.
+ * Edge columns: r_id, source, target, difficulty, open (int32, -1 for no value), length, r_length, duration, cost_1..3, r_cost_1..3,
+ * rev_c, r_rev_c (float32, NaN for no value; negative costs mean not traversable, as in merged_pivots), de_name, XML_TYPE (dictionary codes).
+ * An edge leads from source to target with the cost_ columns and from target to source with the r_cost_ columns.
+ * Node columns: x, y (float64), z (float32, NaN for no value); the node id of row i is i + 1, as source and target of the edges
+ */
+public class ColumnarEdgeExporter {
+	private static final byte[] MAGIC = {'N', 'E', 'T', 'C', 'O', 'L', '1', 0};
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 40;
+	private static final int DIRECTORY_BYTES = 64;
+	private static final int NAME_BYTES = 32;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	//column types and tables
+	private static final int INT32 = 1;
+	private static final int FLOAT32 = 2;
+	private static final int FLOAT64 = 3;
+	private static final int DICTIONARY_CODE = 4;
+	private static final int DICTIONARY = 5;
+	private static final int EDGES = 0;
+	private static final int NODES = 1;
+	private static final int DICTIONARIES = 2;
+
+	private static final String[] INT_COLUMNS = {"r_id", "source", "target", "difficulty", "open"};
+	private static final String[] FLOAT_COLUMNS = {"length", "r_length", "duration", "cost_1", "cost_2", "cost_3",
+		"r_cost_1", "r_cost_2", "r_cost_3", "rev_c", "r_rev_c"};
+	private static final String[] NAME_COLUMNS = {"de_name", "XML_TYPE"};
+
+	private final String netcol_out_str;
+
+	/**
+	 * Class constructor
+	 * @param netcol_out_str - path and file name of the columnar file (.netcol)
+	 */
+	public ColumnarEdgeExporter(String netcol_out_str) {
+		this.netcol_out_str = netcol_out_str;
+	}
+
+	/**
+	 * Writes the edges and vertices of the network
+	 * @param edges - merged_pivots features, with source and target assigned by the vertices
+	 * @param vertices - the vertex coordinates of the edges, the vertex id of index i is i + 1 (see VertexTable.getCoordinates)
+	 * @throws IOException if the file cannot be written
+	 */
+	public void export(SimpleFeatureCollection edges, Coordinate[] vertices) throws IOException {
+		long startTime = System.currentTimeMillis();
+		List<Column> columns = new ArrayList<Column>();
+		Column[] intColumns = new Column[INT_COLUMNS.length];
+		Column[] floatColumns = new Column[FLOAT_COLUMNS.length];
+		Column[] codeColumns = new Column[NAME_COLUMNS.length];
+		Dictionary[] dictionaries = new Dictionary[NAME_COLUMNS.length];
+		for (int c = 0; c < INT_COLUMNS.length; c++) {
+			columns.add(intColumns[c] = new Column(INT_COLUMNS[c], INT32, EDGES));
+		}
+		for (int c = 0; c < FLOAT_COLUMNS.length; c++) {
+			columns.add(floatColumns[c] = new Column(FLOAT_COLUMNS[c], FLOAT32, EDGES));
+		}
+		for (int c = 0; c < NAME_COLUMNS.length; c++) {
+			columns.add(codeColumns[c] = new Column(NAME_COLUMNS[c], DICTIONARY_CODE, EDGES));
+			dictionaries[c] = new Dictionary(NAME_COLUMNS[c] + ".dict");
+		}
+
+		//edge columns
+		long edgeCount = 0;
+		SimpleFeatureIterator iterator = edges.features();
+		try {
+			while (iterator.hasNext()) {
+				SimpleFeature edge = iterator.next();
+				for (int c = 0; c < INT_COLUMNS.length; c++) {
+					Object value = edge.getAttribute(INT_COLUMNS[c]);
+					intColumns[c].putInt((value instanceof Number) ? ((Number) value).intValue() : -1);
+				}
+				for (int c = 0; c < FLOAT_COLUMNS.length; c++) {
+					Object value = edge.getAttribute(FLOAT_COLUMNS[c]);
+					floatColumns[c].putFloat((value instanceof Number) ? ((Number) value).floatValue() : Float.NaN);
+				}
+				for (int c = 0; c < NAME_COLUMNS.length; c++) {
+					Object value = edge.getAttribute(NAME_COLUMNS[c]);
+					codeColumns[c].putInt(value == null ? -1 : dictionaries[c].getCode(value.toString()));
+				}
+				edgeCount++;
+			}
+		} finally {
+			iterator.close();
+		}
+
+		//node columns, node id = row + 1
+		Column x = new Column("x", FLOAT64, NODES);
+		Column y = new Column("y", FLOAT64, NODES);
+		Column z = new Column("z", FLOAT32, NODES);
+		for (Coordinate coord : vertices) {
+			x.putDouble(coord.x);
+			y.putDouble(coord.y);
+			z.putFloat((float) coord.z);
+		}
+		columns.add(x);
+		columns.add(y);
+		columns.add(z);
+		for (Dictionary dictionary : dictionaries) {
+			columns.add(dictionary.toColumn());
+		}
+
+		write(columns, edgeCount, vertices.length);
+		String report = "Exported " + edgeCount + " edges and " + vertices.length + " nodes to " + new File(netcol_out_str).getName()
+				+ " in " + (System.currentTimeMillis() - startTime) + " msecs";
+		System.out.println(report);
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, report);
+	}
+
+	/**
+	 * Writes header, directory and column sections
+	 */
+	private void write(List<Column> columns, long edgeCount, long nodeCount) throws IOException {
+		long offset = HEADER_BYTES + (long) DIRECTORY_BYTES * columns.size();
+		long[] offsets = new long[columns.size()];
+		for (int c = 0; c < columns.size(); c++) {
+			offsets[c] = offset;
+			offset = align(offset + columns.get(c).size());
+		}
+
+		FileChannel channel = new FileOutputStream(netcol_out_str).getChannel();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			buffer.put(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(columns.size());
+			buffer.putLong(edgeCount);
+			buffer.putLong(nodeCount);
+			buffer.putInt(StartConfiguration.getInstance().getSrid());
+			buffer.putInt(0);
+			for (int c = 0; c < columns.size(); c++) {
+				Column column = columns.get(c);
+				byte[] name = column.name.getBytes(StandardCharsets.UTF_8);
+				if (name.length >= NAME_BYTES) {
+					throw new IOException("Column name too long: " + column.name);
+				}
+				buffer = ensure(channel, buffer, DIRECTORY_BYTES);
+				buffer.put(name);
+				buffer.put(new byte[NAME_BYTES - name.length]);
+				buffer.putInt(column.type);
+				buffer.putInt(column.table);
+				buffer.putLong(offsets[c]);
+				buffer.putLong(column.size());
+				buffer.putLong(column.count);
+			}
+			for (Column column : columns) {
+				ByteBuffer data = column.data();
+				while (data.hasRemaining()) {
+					buffer = ensure(channel, buffer, 1);
+					int length = Math.min(buffer.remaining(), data.remaining());
+					ByteBuffer slice = data.duplicate();
+					slice.limit(data.position() + length);
+					buffer.put(slice);
+					data.position(data.position() + length);
+				}
+				int padding = (int) (align(column.size()) - column.size());
+				buffer = ensure(channel, buffer, padding);
+				buffer.put(new byte[padding]);
+			}
+			flush(channel, buffer);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * Flushes the buffer to the channel if less than the given bytes remain
+	 */
+	private static ByteBuffer ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush(channel, buffer);
+		}
+		return buffer;
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * A column, its values are appended little-endian to a growing buffer
+	 */
+	private static class Column {
+		final String name;
+		final int type;
+		final int table;
+		long count = 0;
+		private ByteBuffer values = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+
+		Column(String name, int type, int table) {
+			this.name = name;
+			this.type = type;
+			this.table = table;
+		}
+
+		void putInt(int value) {
+			ensure(4).putInt(value);
+			count++;
+		}
+
+		void putFloat(float value) {
+			ensure(4).putFloat(value);
+			count++;
+		}
+
+		void putDouble(double value) {
+			ensure(8).putDouble(value);
+			count++;
+		}
+
+		void putBytes(byte[] bytes) {
+			ensure(bytes.length).put(bytes);
+		}
+
+		long size() {
+			return values.position();
+		}
+
+		/**
+		 * @return the values, ready to be read
+		 */
+		ByteBuffer data() {
+			ByteBuffer data = values.duplicate();
+			data.flip();
+			return data;
+		}
+
+		private ByteBuffer ensure(int bytes) {
+			if (values.remaining() < bytes) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(values.capacity() * 2, values.position() + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+				values.flip();
+				larger.put(values);
+				values = larger;
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * The distinct strings of a dictionary-encoded column, codes in order of appearance
+	 */
+	private static class Dictionary {
+		final String name;
+		final Map<String, Integer> codes = new HashMap<String, Integer>();
+		final List<String> values = new ArrayList<String>();
+
+		Dictionary(String name) {
+			this.name = name;
+		}
+
+		int getCode(String value) {
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				codes.put(value, code);
+				values.add(value);
+			}
+			return code;
+		}
+
+		/**
+		 * @return the dictionary column: offsets followed by the UTF-8 bytes
+		 */
+		Column toColumn() {
+			Column column = new Column(name, DICTIONARY, DICTIONARIES);
+			List<byte[]> bytes = new ArrayList<byte[]>(values.size());
+			int offset = 0;
+			column.putInt(0);
+			for (String value : values) {
+				byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+				bytes.add(utf8);
+				offset += utf8.length;
+				column.putInt(offset);
+			}
+			for (byte[] utf8 : bytes) {
+				column.putBytes(utf8);
+			}
+			column.count = values.size();
+			return column;
+		}
+	}
+}
@@ -0,0 +1,706 @@
+package preprocessing.output;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import preprocessing.StartConfiguration;
+
+/**
+ * A writer for FlatGeobuf files (https://flatgeobuf.org), which web and mobile clients can range-read by bounding box over HTTP.
+ * The file holds the header, a packed Hilbert R-tree and the features in Hilbert order.
+ * Since the index precedes the features in the file, features are encoded while the collection is streamed and spooled to a
+ * temporary file, keeping only their bounding box, spool offset and length in memory. The index is then built from the bounding boxes
+ * and the file is written in one sequential pass: header, index and the spooled features in Hilbert order.
+ * Point, LineString, Polygon, MultiPoint and MultiLineString geometries are supported, features without geometry are skipped.
+ * The Hilbert order and the index nodes are the ones of the reference implementation, so readers can use the index as written
+ */
+public class FlatGeobufWriter {
+	private static final byte[] MAGIC = {0x66, 0x67, 0x62, 0x03, 0x66, 0x67, 0x62, 0x00};
+	//number of children per index node
+	public static final int NODE_SIZE = 16;
+	//minX, minY, maxX, maxY, offset
+	private static final int NODE_ITEM_BYTES = 40;
+	private static final int HILBERT_MAX = 0xFFFF;
+
+	//geometry types
+	private static final int UNKNOWN = 0;
+	private static final int POINT = 1;
+	private static final int LINESTRING = 2;
+	private static final int POLYGON = 3;
+	private static final int MULTIPOINT = 4;
+	private static final int MULTILINESTRING = 5;
+
+	//column types
+	private static final int BYTE = 0;
+	private static final int BOOL = 2;
+	private static final int SHORT = 3;
+	private static final int INT = 5;
+	private static final int LONG = 7;
+	private static final int FLOAT = 9;
+	private static final int DOUBLE = 10;
+	private static final int STRING = 11;
+	private static final int DATETIME = 13;
+
+	private final String fgb_out_str;
+
+	/**
+	 * Class constructor
+	 * @param fgb_out_str - path and file name of the FlatGeobuf file
+	 */
+	public FlatGeobufWriter(String fgb_out_str) {
+		this.fgb_out_str = fgb_out_str;
+	}
+
+	/**
+	 * Writes the collection to a new FlatGeobuf file with spatial index
+	 * @param collection
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(SimpleFeatureCollection collection) throws IOException {
+		long startTime = System.currentTimeMillis();
+		File fgb_out = new File(fgb_out_str);
+		SimpleFeatureType schema = collection.getSchema();
+		GeometryDescriptor geometryDescriptor = schema.getGeometryDescriptor();
+		int geometryType = getGeometryType(geometryDescriptor.getType().getBinding());
+		List<AttributeDescriptor> columns = new ArrayList<AttributeDescriptor>();
+		for (AttributeDescriptor descriptor : schema.getAttributeDescriptors()) {
+			if (!(descriptor instanceof GeometryDescriptor)) {
+				columns.add(descriptor);
+			}
+		}
+		int[] columnTypes = new int[columns.size()];
+		for (int c = 0; c < columnTypes.length; c++) {
+			columnTypes[c] = getColumnType(columns.get(c).getType().getBinding());
+		}
+
+		//pass 1: encode and spool the features, keep bounding boxes, spool offsets and lengths
+		File spool = File.createTempFile("fgb", ".spool", fgb_out.getAbsoluteFile().getParentFile());
+		spool.deleteOnExit();
+		int count = 0;
+		double[] bounds = new double[4*1024];
+		long[] spoolOffsets = new long[1024];
+		int[] lengths = new int[1024];
+		Envelope extent = new Envelope();
+		//z is written for every feature or for none, as stated by has_z in the header
+		boolean hasZ = hasZ(collection);
+		try {
+			OutputStream spoolOut = new BufferedOutputStream(new FileOutputStream(spool), 1 << 16);
+			SimpleFeatureIterator iterator = collection.features();
+			try {
+				long spoolOffset = 0;
+				while (iterator.hasNext()) {
+					SimpleFeature feature = iterator.next();
+					Geometry geometry = (Geometry) feature.getDefaultGeometry();
+					if (geometry == null || geometry.isEmpty() || getGeometryType(geometry.getClass()) == UNKNOWN) {
+						Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Feature " + feature.getID() + " without supported geometry not written to " + fgb_out.getName());
+						continue;
+					}
+					byte[] encoded = encodeFeature(feature, geometry, hasZ, geometryType == UNKNOWN, columns, columnTypes);
+					spoolOut.write(encoded);
+					if (count == lengths.length) {
+						bounds = Arrays.copyOf(bounds, 8*count);
+						spoolOffsets = Arrays.copyOf(spoolOffsets, 2*count);
+						lengths = Arrays.copyOf(lengths, 2*count);
+					}
+					Envelope envelope = geometry.getEnvelopeInternal();
+					bounds[4*count] = envelope.getMinX();
+					bounds[4*count+1] = envelope.getMinY();
+					bounds[4*count+2] = envelope.getMaxX();
+					bounds[4*count+3] = envelope.getMaxY();
+					spoolOffsets[count] = spoolOffset;
+					lengths[count] = encoded.length;
+					extent.expandToInclude(envelope);
+					spoolOffset += encoded.length;
+					count++;
+				}
+			} finally {
+				iterator.close();
+				spoolOut.close();
+			}
+
+			//pass 2: sort by Hilbert value, build the index and write the file sequentially
+			int[] order = hilbertOrder(bounds, count, extent);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(fgb_out), 1 << 16);
+			RandomAccessFile spoolIn = new RandomAccessFile(spool, "r");
+			try {
+				out.write(MAGIC);
+				out.write(encodeHeader(getLayerName(fgb_out), schema, geometryType, hasZ, columns, columnTypes, count, extent));
+				if (count > 0) {
+					writeIndex(out, bounds, lengths, order, count);
+				}
+				byte[] buffer = new byte[1024];
+				for (int i = 0; i < count; i++) {
+					int feature = order[i];
+					if (buffer.length < lengths[feature]) buffer = new byte[lengths[feature]];
+					spoolIn.seek(spoolOffsets[feature]);
+					spoolIn.readFully(buffer, 0, lengths[feature]);
+					out.write(buffer, 0, lengths[feature]);
+				}
+			} finally {
+				spoolIn.close();
+				out.close();
+			}
+		} finally {
+			if (!spool.delete()) {
+				Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Could not delete spool file " + spool);
+			}
+		}
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, "Written " + count + " features to " + fgb_out.getName() + " in " + (System.currentTimeMillis() - startTime) + " msecs");
+	}
+
+	/**
+	 * Returns the feature indices sorted by the Hilbert value of their bounding box centres within the extent
+	 */
+	private static int[] hilbertOrder(double[] bounds, int count, Envelope extent) {
+		long[] keys = new long[count];
+		double width = extent.getWidth(), height = extent.getHeight();
+		for (int i = 0; i < count; i++) {
+			int x = (width == 0) ? 0 : (int) Math.floor(HILBERT_MAX * ((bounds[4*i] + bounds[4*i+2]) / 2 - extent.getMinX()) / width);
+			int y = (height == 0) ? 0 : (int) Math.floor(HILBERT_MAX * ((bounds[4*i+1] + bounds[4*i+3]) / 2 - extent.getMinY()) / height);
+			//unsigned Hilbert value in the high bits (sign flipped to sort as signed long), feature index in the low bits
+			keys[i] = (((hilbert(x, y) & 0xFFFFFFFFL) << 32) ^ Long.MIN_VALUE) | i;
+		}
+		Arrays.sort(keys);
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Hilbert curve index of a 16 bit x,y position
+	 */
+	static int hilbert(int x, int y) {
+		int a = x ^ y;
+		int b = 0xFFFF ^ a;
+		int c = 0xFFFF ^ (x | y);
+		int d = x & (y ^ 0xFFFF);
+
+		int A = a | (b >>> 1);
+		int B = (a >>> 1) ^ a;
+		int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+		int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+		a = A; b = B; c = C; d = D;
+		A = ((a & (a >>> 2)) ^ (b & (b >>> 2)));
+		B = ((a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2)));
+		C ^= ((a & (c >>> 2)) ^ (b & (d >>> 2)));
+		D ^= ((b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2)));
+
+		a = A; b = B; c = C; d = D;
+		A = ((a & (a >>> 4)) ^ (b & (b >>> 4)));
+		B = ((a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4)));
+		C ^= ((a & (c >>> 4)) ^ (b & (d >>> 4)));
+		D ^= ((b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4)));
+
+		a = A; b = B; c = C; d = D;
+		C ^= ((a & (c >>> 8)) ^ (b & (d >>> 8)));
+		D ^= ((b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8)));
+
+		a = C ^ (C >>> 1);
+		b = D ^ (D >>> 1);
+
+		int i0 = x ^ y;
+		int i1 = b | (0xFFFF ^ (i0 | a));
+
+		i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+		i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+		i0 = (i0 | (i0 << 2)) & 0x33333333;
+		i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+		i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+		i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+		i1 = (i1 | (i1 << 2)) & 0x33333333;
+		i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+		return (i1 << 1) | i0;
+	}
+
+	/**
+	 * Builds the packed Hilbert R-tree and writes its nodes, root first. Leaf offsets are the byte offsets of the features
+	 * after the index, parent offsets the node index of their first child
+	 */
+	private static void writeIndex(OutputStream out, double[] bounds, int[] lengths, int[] order, int count) throws IOException {
+		//number of nodes per level, leaves first
+		List<Integer> levelNumNodes = new ArrayList<Integer>();
+		int n = count;
+		int numNodes = n;
+		levelNumNodes.add(n);
+		do {
+			n = (n + NODE_SIZE - 1) / NODE_SIZE;
+			numNodes += n;
+			levelNumNodes.add(n);
+		} while (n != 1);
+		//start of each level in the node array, the root is the first node
+		int[] levelStarts = new int[levelNumNodes.size()];
+		n = numNodes;
+		for (int level = 0; level < levelStarts.length; level++) {
+			n -= levelNumNodes.get(level);
+			levelStarts[level] = n;
+		}
+
+		double[] nodeBounds = new double[4*numNodes];
+		long[] nodeOffsets = new long[numNodes];
+		long featureOffset = 0;
+		for (int i = 0; i < count; i++) {
+			int node = levelStarts[0] + i;
+			System.arraycopy(bounds, 4*order[i], nodeBounds, 4*node, 4);
+			nodeOffsets[node] = featureOffset;
+			featureOffset += lengths[order[i]];
+		}
+		for (int level = 0; level < levelStarts.length - 1; level++) {
+			int pos = levelStarts[level];
+			int end = pos + levelNumNodes.get(level);
+			int parent = levelStarts[level+1];
+			while (pos < end) {
+				nodeOffsets[parent] = pos;
+				nodeBounds[4*parent] = Double.POSITIVE_INFINITY;
+				nodeBounds[4*parent+1] = Double.POSITIVE_INFINITY;
+				nodeBounds[4*parent+2] = Double.NEGATIVE_INFINITY;
+				nodeBounds[4*parent+3] = Double.NEGATIVE_INFINITY;
+				for (int j = 0; j < NODE_SIZE && pos < end; j++, pos++) {
+					nodeBounds[4*parent] = Math.min(nodeBounds[4*parent], nodeBounds[4*pos]);
+					nodeBounds[4*parent+1] = Math.min(nodeBounds[4*parent+1], nodeBounds[4*pos+1]);
+					nodeBounds[4*parent+2] = Math.max(nodeBounds[4*parent+2], nodeBounds[4*pos+2]);
+					nodeBounds[4*parent+3] = Math.max(nodeBounds[4*parent+3], nodeBounds[4*pos+3]);
+				}
+				parent++;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(NODE_ITEM_BYTES * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		for (int node = 0; node < numNodes; node++) {
+			if (!buffer.hasRemaining()) {
+				out.write(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			buffer.putDouble(nodeBounds[4*node]).putDouble(nodeBounds[4*node+1]).putDouble(nodeBounds[4*node+2]).putDouble(nodeBounds[4*node+3]);
+			buffer.putLong(nodeOffsets[node]);
+		}
+		out.write(buffer.array(), 0, buffer.position());
+	}
+
+	/**
+	 * Encodes the size prefixed Header table
+	 */
+	private static byte[] encodeHeader(String name, SimpleFeatureType schema, int geometryType, boolean hasZ, List<AttributeDescriptor> columns,
+			int[] columnTypes, int count, Envelope extent) {
+		Encoder e = new Encoder();
+		e.startRoot();
+		//name, envelope, geometry_type, has_z, columns, features_count, index_node_size, crs
+		int[] header = e.startTable(new int[]{0, 1, 2, 3, 7, 8, 9, 10}, new int[]{4, 4, 1, 1, 4, 8, 2, 4});
+		e.finishRoot(header[0]);
+		e.putByte(header[3], geometryType);
+		e.putByte(header[4], hasZ ? 1 : 0);
+		e.putLong(header[6], count);
+		//no index for an empty file
+		e.putShort(header[7], count > 0 ? NODE_SIZE : 0);
+
+		e.setOffset(header[1], e.string(name));
+		if (count > 0) {
+			e.setOffset(header[2], e.startVector(4, 8));
+			e.putDouble(extent.getMinX()).putDouble(extent.getMinY()).putDouble(extent.getMaxX()).putDouble(extent.getMaxY());
+		} else {
+			e.setOffset(header[2], e.startVector(0, 8));
+		}
+
+		int columnVector = e.startVector(columns.size(), 4);
+		e.setOffset(header[5], columnVector);
+		for (int c = 0; c < columns.size(); c++) {
+			e.putInt(0);
+		}
+		for (int c = 0; c < columns.size(); c++) {
+			//name, type
+			int[] column = e.startTable(new int[]{0, 1}, new int[]{4, 1});
+			e.setOffset(columnVector + 4 + 4*c, column[0]);
+			e.putByte(column[2], columnTypes[c]);
+			e.setOffset(column[1], e.string(columns.get(c).getLocalName()));
+		}
+
+		//code
+		int[] crs = e.startTable(new int[]{1}, new int[]{4});
+		e.setOffset(header[8], crs[0]);
+		e.putInt(crs[1], StartConfiguration.getInstance().getSrid());
+		return e.finishSizePrefixed();
+	}
+
+	/**
+	 * Encodes the size prefixed Feature table of a feature: geometry and properties
+	 */
+	private static byte[] encodeFeature(SimpleFeature feature, Geometry geometry, boolean withZ, boolean withType, List<AttributeDescriptor> columns, int[] columnTypes) {
+		Encoder e = new Encoder();
+		e.startRoot();
+		//geometry, properties
+		int[] table = e.startTable(new int[]{0, 1}, new int[]{4, 4});
+		e.finishRoot(table[0]);
+
+		Coordinate[] coords = geometry.getCoordinates();
+		int[] ends = getEnds(geometry);
+		//xy, then z, type and ends if present. Absent fields are left out of the vtable, slots are numbered from 1 in field order
+		int[] ids = new int[4];
+		int[] sizes = new int[4];
+		int numFields = 0, zSlot = 0, typeSlot = 0, endsSlot = 0;
+		ids[numFields] = 1;
+		sizes[numFields++] = 4;
+		if (withZ) {
+			ids[numFields] = 2;
+			sizes[numFields++] = 4;
+			zSlot = numFields;
+		}
+		if (withType) {
+			ids[numFields] = 6;
+			sizes[numFields++] = 1;
+			typeSlot = numFields;
+		}
+		if (ends != null) {
+			ids[numFields] = 0;
+			sizes[numFields++] = 4;
+			endsSlot = numFields;
+		}
+		int[] geom = e.startTable(Arrays.copyOf(ids, numFields), Arrays.copyOf(sizes, numFields));
+		e.setOffset(table[1], geom[0]);
+		if (withType) {
+			e.putByte(geom[typeSlot], getGeometryType(geometry.getClass()));
+		}
+		if (ends != null) {
+			e.setOffset(geom[endsSlot], e.startVector(ends.length, 4));
+			for (int end : ends) e.putInt(end);
+		}
+		e.setOffset(geom[1], e.startVector(2*coords.length, 8));
+		for (Coordinate coord : coords) {
+			e.putDouble(coord.x).putDouble(coord.y);
+		}
+		if (withZ) {
+			e.setOffset(geom[zSlot], e.startVector(coords.length, 8));
+			for (Coordinate coord : coords) {
+				e.putDouble(coord.z);
+			}
+		}
+
+		byte[] properties = encodeProperties(feature, columns, columnTypes);
+		e.setOffset(table[2], e.startVector(properties.length, 1));
+		e.putBytes(properties);
+		return e.finishSizePrefixed();
+	}
+
+	/**
+	 * Encodes the not null attribute values of a feature as column index (ushort) followed by the value
+	 */
+	private static byte[] encodeProperties(SimpleFeature feature, List<AttributeDescriptor> columns, int[] columnTypes) {
+		Encoder e = new Encoder();
+		for (int c = 0; c < columns.size(); c++) {
+			Object value = feature.getAttribute(columns.get(c).getLocalName());
+			if (value == null) continue;
+			e.putShort(c);
+			switch (columnTypes[c]) {
+			case BYTE: e.putByte(((Number) value).byteValue()); break;
+			case BOOL: e.putByte(((Boolean) value) ? 1 : 0); break;
+			case SHORT: e.putShort(((Number) value).shortValue()); break;
+			case INT: e.putInt(((Number) value).intValue()); break;
+			case LONG: e.putLong(((Number) value).longValue()); break;
+			case FLOAT: e.putFloat(((Number) value).floatValue()); break;
+			case DOUBLE: e.putDouble(((Number) value).doubleValue()); break;
+			case DATETIME: e.putText(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format((Date) value)); break;
+			default: e.putText(value.toString());
+			}
+		}
+		return e.toByteArray();
+	}
+
+	/**
+	 * @return true if a feature of the collection has a geometry with z values
+	 */
+	private static boolean hasZ(SimpleFeatureCollection collection) {
+		SimpleFeatureIterator iterator = collection.features();
+		try {
+			while (iterator.hasNext()) {
+				Geometry geometry = (Geometry) iterator.next().getDefaultGeometry();
+				if (geometry != null && !geometry.isEmpty() && !Double.isNaN(geometry.getCoordinate().z)) {
+					return true;
+				}
+			}
+		} finally {
+			iterator.close();
+		}
+		return false;
+	}
+
+	/**
+	 * @return the end indices (exclusive) of the parts of multi-part geometries and polygon rings, null for single part geometries
+	 */
+	private static int[] getEnds(Geometry geometry) {
+		if (geometry instanceof MultiLineString && geometry.getNumGeometries() > 1) {
+			int[] ends = new int[geometry.getNumGeometries()];
+			int end = 0;
+			for (int i = 0; i < ends.length; i++) {
+				end += geometry.getGeometryN(i).getNumPoints();
+				ends[i] = end;
+			}
+			return ends;
+		}
+		if (geometry instanceof Polygon && ((Polygon) geometry).getNumInteriorRing() > 0) {
+			Polygon polygon = (Polygon) geometry;
+			int[] ends = new int[polygon.getNumInteriorRing() + 1];
+			int end = polygon.getExteriorRing().getNumPoints();
+			ends[0] = end;
+			for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+				end += polygon.getInteriorRingN(i).getNumPoints();
+				ends[i+1] = end;
+			}
+			return ends;
+		}
+		return null;
+	}
+
+	private static int getGeometryType(Class<?> binding) {
+		if (Point.class.isAssignableFrom(binding)) return POINT;
+		if (LineString.class.isAssignableFrom(binding)) return LINESTRING;
+		if (Polygon.class.isAssignableFrom(binding)) return POLYGON;
+		if (MultiPoint.class.isAssignableFrom(binding)) return MULTIPOINT;
+		if (MultiLineString.class.isAssignableFrom(binding)) return MULTILINESTRING;
+		return UNKNOWN;
+	}
+
+	private static int getColumnType(Class<?> binding) {
+		if (Byte.class.isAssignableFrom(binding)) return BYTE;
+		if (Boolean.class.isAssignableFrom(binding)) return BOOL;
+		if (Short.class.isAssignableFrom(binding)) return SHORT;
+		if (Integer.class.isAssignableFrom(binding)) return INT;
+		if (Long.class.isAssignableFrom(binding)) return LONG;
+		if (Float.class.isAssignableFrom(binding)) return FLOAT;
+		if (Double.class.isAssignableFrom(binding)) return DOUBLE;
+		if (Date.class.isAssignableFrom(binding)) return DATETIME;
+		return STRING;
+	}
+
+	private static String getLayerName(File file) {
+		String name = file.getName();
+		return name.toLowerCase().endsWith(".fgb") ? name.substring(0, name.length()-4) : name;
+	}
+
+	/**
+	 * A minimal little endian FlatBuffers encoder which lays out objects front to back: a table is written before the
+	 * strings, vectors and tables it refers to, so all offsets point forward. The vtable of a table is written right before it
+	 */
+	private static class Encoder {
+		private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+		int position() {
+			return buffer.position();
+		}
+
+		/**
+		 * Writes the size prefix and root offset placeholders
+		 */
+		void startRoot() {
+			putInt(0);
+			putInt(0);
+		}
+
+		void finishRoot(int table) {
+			buffer.putInt(4, table - 4);
+		}
+
+		byte[] finishSizePrefixed() {
+			buffer.putInt(0, position() - 4);
+			return toByteArray();
+		}
+
+		/**
+		 * Writes vtable and table with all fields zero. Fields are given by id and size, each field is aligned to its size
+		 * @return the table position, followed by the position of each field
+		 */
+		int[] startTable(int[] ids, int[] sizes) {
+			int numSlots = 0, align = 4;
+			for (int i = 0; i < ids.length; i++) {
+				numSlots = Math.max(numSlots, ids[i] + 1);
+				align = Math.max(align, sizes[i]);
+			}
+			//inline layout: soffset to vtable, then fields by descending size
+			Integer[] bySize = new Integer[ids.length];
+			for (int i = 0; i < bySize.length; i++) bySize[i] = i;
+			final int[] fieldSizes = sizes;
+			Arrays.sort(bySize, new java.util.Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return fieldSizes[b] - fieldSizes[a];
+				}
+			});
+			int[] fieldOffsets = new int[ids.length];
+			int size = 4;
+			for (int i : bySize) {
+				size = (size + sizes[i] - 1) / sizes[i] * sizes[i];
+				fieldOffsets[i] = size;
+				size += sizes[i];
+			}
+
+			pad(2);
+			int vtable = position();
+			int vtableSize = 4 + 2*numSlots;
+			int table = (vtable + vtableSize + align - 1) / align * align;
+			putShort(vtableSize);
+			putShort(size);
+			for (int slot = 0; slot < numSlots; slot++) {
+				int offset = 0;
+				for (int i = 0; i < ids.length; i++) {
+					if (ids[i] == slot) offset = fieldOffsets[i];
+				}
+				putShort(offset);
+			}
+			while (position() < table) putByte(0);
+			putInt(table - vtable);
+			while (position() < table + size) putByte(0);
+
+			int[] positions = new int[ids.length + 1];
+			positions[0] = table;
+			for (int i = 0; i < ids.length; i++) positions[i+1] = table + fieldOffsets[i];
+			return positions;
+		}
+
+		/**
+		 * Writes the length of a vector, aligned so that its elements are aligned to their size
+		 * @return the vector position
+		 */
+		int startVector(int length, int elementSize) {
+			pad(4);
+			while ((position() + 4) % elementSize != 0) putByte(0);
+			int vector = position();
+			putInt(length);
+			return vector;
+		}
+
+		/**
+		 * Writes a string
+		 * @return the string position
+		 */
+		int string(String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			int string = startVector(bytes.length, 1);
+			putBytes(bytes);
+			putByte(0);
+			return string;
+		}
+
+		/**
+		 * Sets the offset field at the given position to refer to target
+		 */
+		void setOffset(int field, int target) {
+			buffer.putInt(field, target - field);
+		}
+
+		void putByte(int at, int value) {
+			buffer.put(at, (byte) value);
+		}
+
+		void putShort(int at, int value) {
+			buffer.putShort(at, (short) value);
+		}
+
+		void putInt(int at, int value) {
+			buffer.putInt(at, value);
+		}
+
+		void putLong(int at, long value) {
+			buffer.putLong(at, value);
+		}
+
+		Encoder putByte(int value) {
+			ensure(1);
+			buffer.put((byte) value);
+			return this;
+		}
+
+		Encoder putShort(int value) {
+			ensure(2);
+			buffer.putShort((short) value);
+			return this;
+		}
+
+		Encoder putInt(int value) {
+			ensure(4);
+			buffer.putInt(value);
+			return this;
+		}
+
+		Encoder putLong(long value) {
+			ensure(8);
+			buffer.putLong(value);
+			return this;
+		}
+
+		Encoder putFloat(float value) {
+			ensure(4);
+			buffer.putFloat(value);
+			return this;
+		}
+
+		Encoder putDouble(double value) {
+			ensure(8);
+			buffer.putDouble(value);
+			return this;
+		}
+
+		Encoder putBytes(byte[] bytes) {
+			ensure(bytes.length);
+			buffer.put(bytes);
+			return this;
+		}
+
+		/**
+		 * Writes a property string: uint32 length and UTF-8 bytes
+		 */
+		Encoder putText(String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			return putBytes(bytes);
+		}
+
+		void pad(int alignment) {
+			while (position() % alignment != 0) putByte(0);
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer.array(), position());
+		}
+
+		private void ensure(int bytes) {
+			if (buffer.remaining() < bytes) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(2*buffer.capacity(), buffer.position() + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package preprocessing.output;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * A streaming GeoJSON writer, used for debugging and map previews of the pipeline outputs (links, intersections, merged_pivots, ...)
+ * and of the paths returned by GraphUtilities.getPath. Each feature is serialized and written on its own, no document tree is built.
+ * Output is a FeatureCollection, or newline-delimited GeoJSON (one feature per line) for line based tools.
+ * Coordinates are rounded to the given number of decimals to keep the files small
+ */
+public class GeoJsonWriter implements Closeable {
+	private final Writer writer;
+	private final boolean newlineDelimited;
+	private final int decimals;
+	private final double scale;
+	private final StringBuilder sb = new StringBuilder(1024);
+	private boolean first = true;
+	private int count = 0;
+
+	/**
+	 * Class constructor, opens the file and writes the FeatureCollection header
+	 * @param json_out_str - path and file name of the GeoJSON file
+	 * @param newlineDelimited - if true one feature per line is written, without FeatureCollection
+	 * @param decimals - number of decimals of the coordinates, negative for full precision
+	 * @param srid - EPSG code named in the FeatureCollection, 0 for none
+	 * @throws IOException if the file cannot be created
+	 */
+	public GeoJsonWriter(String json_out_str, boolean newlineDelimited, int decimals, int srid) throws IOException {
+		this(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(json_out_str), StandardCharsets.UTF_8), 1 << 16), newlineDelimited, decimals, srid);
+	}
+
+	/**
+	 * Class constructor, writes the FeatureCollection header
+	 * @param writer - the writer to write to, closed by close
+	 * @param newlineDelimited - if true one feature per line is written, without FeatureCollection
+	 * @param decimals - number of decimals of the coordinates, negative for full precision
+	 * @param srid - EPSG code named in the FeatureCollection, 0 for none
+	 * @throws IOException
+	 */
+	public GeoJsonWriter(Writer writer, boolean newlineDelimited, int decimals, int srid) throws IOException {
+		this.writer = writer;
+		this.newlineDelimited = newlineDelimited;
+		this.decimals = Math.min(decimals, 15);
+		this.scale = Math.pow(10, Math.max(0, this.decimals));
+		if (!newlineDelimited) {
+			writer.write("{\"type\":\"FeatureCollection\",");
+			if (srid > 0) {
+				//legacy crs member, the outputs are not in WGS84
+				writer.write("\"crs\":{\"type\":\"name\",\"properties\":{\"name\":\"urn:ogc:def:crs:EPSG::" + srid + "\"}},");
+			}
+			writer.write("\"features\":[\n");
+		}
+	}
+
+	/**
+	 * Writes all features of a collection to a new GeoJSON file
+	 * @param collection
+	 * @param json_out_str - path and file name of the GeoJSON file
+	 * @param newlineDelimited - if true one feature per line is written, without FeatureCollection
+	 * @param decimals - number of decimals of the coordinates, negative for full precision
+	 * @param srid - EPSG code named in the FeatureCollection, 0 for none
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(SimpleFeatureCollection collection, String json_out_str, boolean newlineDelimited, int decimals, int srid) throws IOException {
+		GeoJsonWriter json = new GeoJsonWriter(json_out_str, newlineDelimited, decimals, srid);
+		try {
+			json.writeFeatures(collection);
+		} finally {
+			json.close();
+		}
+	}
+
+	/**
+	 * Writes all features of a collection
+	 * @param collection
+	 * @throws IOException
+	 */
+	public void writeFeatures(SimpleFeatureCollection collection) throws IOException {
+		SimpleFeatureIterator iterator = collection.features();
+		try {
+			while (iterator.hasNext()) {
+				writeFeature(iterator.next(), null);
+			}
+		} finally {
+			iterator.close();
+		}
+	}
+
+	/**
+	 * Writes a feature with its attributes as properties
+	 * @param feature
+	 * @param extra - additional properties written first, may be null
+	 * @throws IOException
+	 */
+	public void writeFeature(SimpleFeature feature, Map<String, Object> extra) throws IOException {
+		startFeature(feature.getID());
+		appendGeometry((Geometry) feature.getDefaultGeometry());
+		sb.append(",\"properties\":{");
+		boolean firstProperty = true;
+		if (extra != null) {
+			for (Map.Entry<String, Object> entry : extra.entrySet()) {
+				firstProperty = appendProperty(entry.getKey(), entry.getValue(), firstProperty);
+			}
+		}
+		for (AttributeDescriptor descriptor : feature.getFeatureType().getAttributeDescriptors()) {
+			if (descriptor instanceof GeometryDescriptor) continue;
+			firstProperty = appendProperty(descriptor.getLocalName(), feature.getAttribute(descriptor.getLocalName()), firstProperty);
+		}
+		sb.append("}}");
+		endFeature();
+	}
+
+	/**
+	 * Writes a geometry with the given properties
+	 * @param id - feature id, may be null
+	 * @param geometry
+	 * @param properties - may be null
+	 * @throws IOException
+	 */
+	public void writeFeature(String id, Geometry geometry, Map<String, Object> properties) throws IOException {
+		startFeature(id);
+		appendGeometry(geometry);
+		sb.append(",\"properties\":{");
+		if (properties != null) {
+			boolean firstProperty = true;
+			for (Map.Entry<String, Object> entry : properties.entrySet()) {
+				firstProperty = appendProperty(entry.getKey(), entry.getValue(), firstProperty);
+			}
+		}
+		sb.append("}}");
+		endFeature();
+	}
+
+	/**
+	 * Writes the edges of a path returned by GraphUtilities.getPath, in path order. Each edge is written with the properties
+	 * "path" (the path name) and "seq" (position in the path) followed by its attributes. Unknown r_ids are skipped
+	 * @param name - name of the path
+	 * @param path - r_ids of the path edges
+	 * @param edgesByRid - the network edges by r_id, see indexByRid
+	 * @throws IOException
+	 */
+	public void writePath(String name, List<Integer> path, Map<Integer, SimpleFeature> edgesByRid) throws IOException {
+		Map<String, Object> extra = new LinkedHashMap<String, Object>();
+		for (int seq = 0; seq < path.size(); seq++) {
+			SimpleFeature edge = edgesByRid.get(path.get(seq));
+			if (edge == null) continue;
+			extra.put("path", name);
+			extra.put("seq", seq);
+			writeFeature(edge, extra);
+		}
+	}
+
+	/**
+	 * @param edges - network edges with r_id attribute (merged_pivots)
+	 * @return the edges by r_id
+	 */
+	public static Map<Integer, SimpleFeature> indexByRid(SimpleFeatureCollection edges) {
+		Map<Integer, SimpleFeature> edgesByRid = new HashMap<Integer, SimpleFeature>();
+		SimpleFeatureIterator iterator = edges.features();
+		try {
+			while (iterator.hasNext()) {
+				SimpleFeature edge = iterator.next();
+				Object rid = edge.getAttribute("r_id");
+				if (rid instanceof Number) {
+					edgesByRid.put(((Number) rid).intValue(), edge);
+				}
+			}
+		} finally {
+			iterator.close();
+		}
+		return edgesByRid;
+	}
+
+	/**
+	 * @return the number of features written
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Writes the FeatureCollection footer and closes the writer
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!newlineDelimited) {
+				writer.write("\n]}\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void startFeature(String id) {
+		sb.setLength(0);
+		if (!newlineDelimited && !first) {
+			sb.append(",\n");
+		}
+		first = false;
+		sb.append("{\"type\":\"Feature\",");
+		if (id != null) {
+			sb.append("\"id\":");
+			appendString(id);
+			sb.append(',');
+		}
+		sb.append("\"geometry\":");
+	}
+
+	private void endFeature() throws IOException {
+		if (newlineDelimited) {
+			sb.append('\n');
+		}
+		writer.append(sb);
+		count++;
+	}
+
+	private void appendGeometry(Geometry geometry) {
+		if (geometry == null) {
+			sb.append("null");
+			return;
+		}
+		if (geometry instanceof Point) {
+			sb.append("{\"type\":\"Point\",\"coordinates\":");
+			appendCoordinate(geometry.getCoordinate());
+		} else if (geometry instanceof LineString) {
+			sb.append("{\"type\":\"LineString\",\"coordinates\":");
+			appendCoordinates(geometry.getCoordinates());
+		} else if (geometry instanceof Polygon) {
+			sb.append("{\"type\":\"Polygon\",\"coordinates\":");
+			appendRings((Polygon) geometry);
+		} else if (geometry instanceof MultiPoint || geometry instanceof MultiLineString || geometry instanceof MultiPolygon) {
+			sb.append("{\"type\":\"").append(geometry.getGeometryType()).append("\",\"coordinates\":[");
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				if (i > 0) sb.append(',');
+				Geometry part = geometry.getGeometryN(i);
+				if (part instanceof Point) appendCoordinate(part.getCoordinate());
+				else if (part instanceof Polygon) appendRings((Polygon) part);
+				else appendCoordinates(part.getCoordinates());
+			}
+			sb.append(']');
+		} else if (geometry instanceof GeometryCollection) {
+			sb.append("{\"type\":\"GeometryCollection\",\"geometries\":[");
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				if (i > 0) sb.append(',');
+				appendGeometry(geometry.getGeometryN(i));
+			}
+			sb.append(']');
+		}
+		sb.append('}');
+	}
+
+	private void appendRings(Polygon polygon) {
+		sb.append('[');
+		appendCoordinates(polygon.getExteriorRing().getCoordinates());
+		for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+			sb.append(',');
+			appendCoordinates(polygon.getInteriorRingN(i).getCoordinates());
+		}
+		sb.append(']');
+	}
+
+	private void appendCoordinates(Coordinate[] coords) {
+		sb.append('[');
+		for (int i = 0; i < coords.length; i++) {
+			if (i > 0) sb.append(',');
+			appendCoordinate(coords[i]);
+		}
+		sb.append(']');
+	}
+
+	private void appendCoordinate(Coordinate coord) {
+		sb.append('[');
+		appendNumber(coord.x);
+		sb.append(',');
+		appendNumber(coord.y);
+		if (!Double.isNaN(coord.z)) {
+			sb.append(',');
+			appendNumber(coord.z);
+		}
+		sb.append(']');
+	}
+
+	/**
+	 * Appends a number rounded to the decimals, without exponent and trailing zeros
+	 */
+	private void appendNumber(double value) {
+		if (decimals < 0 || Math.abs(value) * scale >= Long.MAX_VALUE) {
+			sb.append(value);
+			return;
+		}
+		long rounded = Math.round(value * scale);
+		if (rounded < 0) {
+			sb.append('-');
+			rounded = -rounded;
+		}
+		long factor = (long) scale;
+		sb.append(rounded / factor);
+		long fraction = rounded % factor;
+		if (fraction != 0) {
+			String digits = Long.toString(fraction + factor).substring(1);
+			int end = digits.length();
+			while (digits.charAt(end - 1) == '0') end--;
+			sb.append('.').append(digits, 0, end);
+		}
+	}
+
+	private boolean appendProperty(String name, Object value, boolean firstProperty) {
+		if (!firstProperty) sb.append(',');
+		appendString(name);
+		sb.append(':');
+		if (value == null) {
+			sb.append("null");
+		} else if (value instanceof Number) {
+			double number = ((Number) value).doubleValue();
+			if (Double.isNaN(number) || Double.isInfinite(number)) {
+				sb.append("null");
+			} else if (value instanceof Double || value instanceof Float) {
+				sb.append(number);
+			} else {
+				sb.append(value);
+			}
+		} else if (value instanceof Boolean) {
+			sb.append(value);
+		} else if (value instanceof Date) {
+			appendString(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format((Date) value));
+		} else {
+			appendString(value.toString());
+		}
+		return false;
+	}
+
+	private void appendString(String value) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+}
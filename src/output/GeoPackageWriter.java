@@ -0,0 +1,181 @@
+package preprocessing.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureWriter;
+import org.geotools.geopkg.FeatureEntry;
+import org.geotools.geopkg.GeoPackage;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * A writer which puts all output layers (links, segments, merged_pivots, vertices, ...) into one GeoPackage file.
+ * Each layer is written when it is added, into a temporary GeoPackage next to the final one, so the writer does not hold the collections.
+ * finish builds the R-tree indexes and moves the temporary file to its final path. If a layer or an index cannot be written
+ * the temporary file is deleted, so a run produces either a complete file or none (an existing file is kept in that case).
+ * Unlike shapefiles, field names are not cut at 10 characters, there is no separate .dbf/.qix per layer and no 2 GB limit per layer
+ */
+public class GeoPackageWriter {
+	private final String gpkg_out_str;
+	private final File temp_file;
+	private GeoPackage geopkg = null;
+	//names of the written layers and entries of the layers to be indexed
+	private final Set<String> names = new HashSet<String>();
+	private final List<FeatureEntry> indexed = new ArrayList<FeatureEntry>();
+	private int features = 0;
+	private long writeTime = 0;
+	private Exception failure = null;
+
+	/**
+	 * Class constructor
+	 * @param gpkg_out_str - path and file name of the GeoPackage
+	 */
+	public GeoPackageWriter(String gpkg_out_str) {
+		this.gpkg_out_str = gpkg_out_str;
+		this.temp_file = new File(gpkg_out_str + ".tmp");
+	}
+
+	/**
+	 * Writes a layer into the temporary GeoPackage, in its own transaction. A layer with the name of an already written layer is skipped.
+	 * After a failed layer no further layers are written, since the file is discarded by finish
+	 * @param name - table name of the layer
+	 * @param collection - features of the layer
+	 * @param spatialIndex - if true an R-tree index is created for the layer by finish
+	 * @throws IOException if the layer cannot be written
+	 */
+	public synchronized void add(String name, SimpleFeatureCollection collection, boolean spatialIndex) throws IOException {
+		if (failure != null) {
+			return;
+		}
+		if (!names.add(name)) {
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "GeoPackage layer " + name + " added twice, keeping the first one");
+			return;
+		}
+		long startTime = System.currentTimeMillis();
+		try {
+			if (geopkg == null) {
+				if (temp_file.exists() && !temp_file.delete()) {
+					throw new IOException("Could not replace " + temp_file);
+				}
+				geopkg = new GeoPackage(temp_file);
+				geopkg.init();
+			}
+			FeatureEntry entry = new FeatureEntry();
+			entry.setTableName(name);
+			entry.setBounds(collection.getBounds());
+			geopkg.create(entry, collection.getSchema());
+			Transaction transaction = new DefaultTransaction("gpkg");
+			try {
+				features += writeLayer(geopkg, entry, collection, transaction);
+				transaction.commit();
+			} catch (IOException ex) {
+				transaction.rollback();
+				throw ex;
+			} finally {
+				transaction.close();
+			}
+			if (spatialIndex) {
+				indexed.add(entry);
+			}
+		} catch (IOException ex) {
+			failure = ex;
+			throw ex;
+		} catch (RuntimeException ex) {
+			failure = ex;
+			throw ex;
+		}
+		writeTime += System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * @return the number of layers written
+	 */
+	public synchronized int size() {
+		return names.size();
+	}
+
+	public String getPath() {
+		return gpkg_out_str;
+	}
+
+	/**
+	 * Builds the R-tree indexes of the written layers, closes the temporary GeoPackage and moves it to its final path,
+	 * replacing an existing file. The writer can be used for a new GeoPackage afterwards
+	 * @throws IOException if a layer was not written or the indexes cannot be built, the temporary file is deleted
+	 */
+	public synchronized void finish() throws IOException {
+		if (geopkg == null && failure == null) {
+			return;
+		}
+		long startTime = System.currentTimeMillis();
+		int layers = names.size();
+		boolean complete = false;
+		try {
+			if (failure != null) {
+				throw new IOException("GeoPackage layer not written", failure);
+			}
+			for (FeatureEntry entry : indexed) {
+				geopkg.createSpatialIndex(entry);
+			}
+			complete = true;
+		} finally {
+			if (geopkg != null) {
+				geopkg.close();
+			}
+			if (!complete) {
+				temp_file.delete();
+			}
+			geopkg = null;
+			names.clear();
+			indexed.clear();
+			failure = null;
+		}
+		try {
+			Files.move(temp_file.toPath(), new File(gpkg_out_str).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ex) {
+			temp_file.delete();
+			throw ex;
+		}
+		String report = "Written " + layers + " layers, " + features + " features to " + new File(gpkg_out_str).getName() + " in " + writeTime
+				+ " msecs, R-tree indexes in " + (System.currentTimeMillis() - startTime) + " msecs";
+		System.out.println(report);
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, report);
+		features = 0;
+		writeTime = 0;
+	}
+
+	/**
+	 * Appends the features of a collection to a GeoPackage table
+	 * @return the number of features written
+	 */
+	private static int writeLayer(GeoPackage geopkg, FeatureEntry entry, SimpleFeatureCollection collection, Transaction transaction) throws IOException {
+		int count = 0;
+		SimpleFeatureWriter writer = geopkg.writer(entry, true, null, transaction);
+		SimpleFeatureIterator iterator = collection.features();
+		try {
+			while (iterator.hasNext()) {
+				SimpleFeature feature = iterator.next();
+				SimpleFeature copy = writer.next();
+				copy.setAttributes(feature.getAttributes());
+				writer.write();
+				count++;
+			}
+		} finally {
+			iterator.close();
+			writer.close();
+		}
+		return count;
+	}
+}
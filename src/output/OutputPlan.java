@@ -0,0 +1,421 @@
+package preprocessing.output;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import preprocessing.StartConfiguration;
+import preprocessing.graph.VertexTable;
+import preprocessing.util.FileOperations;
+import preprocessing.util.OutputWriterService;
+
+/**
+ * The output plan of a run. It declares which output artifacts are written, which of them get a spatial index (.qix)
+ * and whether spatial indexes are built after the main run instead of with each write.
+ * Artifacts are set with OUTPUT_ARTIFACTS, indexed artifacts with SPATIAL_INDEX (comma separated artifact names or "all")
+ * and deferred index building with DEFERRED_INDEX in the config file. By default all artifacts are written with spatial index.
+ * The output formats are set with OUTPUT_FORMAT (comma separated format names), by default shapefiles are written.
+ * The pipeline asks isWritten before it builds a collection that only serves an output artifact, so not requested artifacts cost nothing.
+ * All writes go through write: shapefiles are submitted to the shared OutputWriterService, GeoPackage layers are written
+ * into a temporary GeoPackage, which finish completes and moves to its final path, vector tiles are generated by finish, the other formats are written in the background next to the shapefiles
+ */
+public class OutputPlan {
+
+	/**
+	 * The output artifacts of the pipeline, with their names in the config file
+	 */
+	public enum Artifact {
+		SPLIT_SLOPES("split_slopes"),		//single LineString slopes
+		CANDIDATES("candidates"),			//raw candidates per matcher
+		INTERSECTIONS("intersections"),		//slope intersection points
+		LINKS("links"),						//lift, slope-lift, slope and bus links
+		SEGMENTS("segments"),				//segments_slopes and segments_buses
+		SIMPLIFIED("simplified"),			//simplified slopes and bus lines
+		MERGED_PIVOTS("merged_pivots"),		//final network edges
+		VERTICES("vertices");				//final network vertices
+
+		private final String configName;
+
+		Artifact(String configName) {
+			this.configName = configName;
+		}
+
+		public String getConfigName() {
+			return configName;
+		}
+
+		/**
+		 * @param name - artifact name as in the config file
+		 * @return the artifact or null if the name is unknown
+		 */
+		public static Artifact fromConfigName(String name) {
+			for (Artifact artifact : values()) {
+				if (artifact.configName.equals(name.trim().toLowerCase())) {
+					return artifact;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The output formats, with their names in the config file
+	 */
+	public enum Format {
+		SHAPEFILE("shapefile"),		//one shapefile per output, see OutputWriterService
+		GEOPACKAGE("geopackage"),	//all outputs as layers of one GeoPackage, see GeoPackageWriter
+		FLATGEOBUF("flatgeobuf"),	//merged_pivots and segments as .fgb files with spatial index, see FlatGeobufWriter
+		PGCOPY("pgcopy"),			//merged_pivots as PostgreSQL binary COPY file plus DDL script, see PgCopyExporter
+		GEOJSON("geojson"),			//links, intersections, merged_pivots and paths as GeoJSON FeatureCollection, see GeoJsonWriter
+		GEOJSONSEQ("geojsonseq"),	//the same as newline-delimited GeoJSON (.geojsonl), one feature per line
+		VECTORTILES("vectortiles"),	//merged_pivots and segments as Mapbox Vector Tile pyramid, see VectorTileGenerator
+		NETCOL("netcol");			//merged_pivots edges and vertices as little-endian columnar file, see ColumnarEdgeExporter
+
+		private final String configName;
+
+		Format(String configName) {
+			this.configName = configName;
+		}
+
+		public String getConfigName() {
+			return configName;
+		}
+
+		/**
+		 * @param name - format name as in the config file
+		 * @return the format or null if the name is unknown
+		 */
+		public static Format fromConfigName(String name) {
+			for (Format format : values()) {
+				if (format.configName.equals(name.trim().toLowerCase())) {
+					return format;
+				}
+			}
+			return null;
+		}
+	}
+
+	//file name of the GeoPackage in the output folder
+	public static final String GEOPACKAGE_FILE = "network.gpkg";
+	//artifacts written as FlatGeobuf, the layers fetched by bounding box by the clients
+	private static final Set<Artifact> FLATGEOBUF_ARTIFACTS = Collections.unmodifiableSet(EnumSet.of(Artifact.MERGED_PIVOTS, Artifact.SEGMENTS));
+	//artifacts rendered as vector tile layers
+	private static final Set<Artifact> VECTOR_TILE_ARTIFACTS = Collections.unmodifiableSet(EnumSet.of(Artifact.MERGED_PIVOTS, Artifact.SEGMENTS));
+	//artifacts written as GeoJSON, for debugging and map previews
+	private static final Set<Artifact> GEOJSON_ARTIFACTS = Collections.unmodifiableSet(EnumSet.of(Artifact.LINKS, Artifact.INTERSECTIONS, Artifact.MERGED_PIVOTS));
+
+	private final Set<Artifact> written;
+	private final Set<Artifact> indexed;
+	private final boolean deferredIndex;
+	private final Set<Format> formats;
+	//writes the GeoPackage layers, null if GeoPackage is not an output format
+	private final GeoPackageWriter geoPackage;
+	//collects the vector tile layers, null if vector tiles are not an output format
+	private final VectorTileGenerator vectorTiles;
+	//shapefiles whose spatial index is built after the main run
+	private final List<String> deferredIndexFiles = Collections.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * Class constructor, outputs are written as shapefiles
+	 * @param written - artifacts to write
+	 * @param indexed - artifacts which get a spatial index
+	 * @param deferredIndex - if true spatial indexes are built by buildDeferredIndexes, after the main run
+	 */
+	public OutputPlan(Set<Artifact> written, Set<Artifact> indexed, boolean deferredIndex) {
+		this(written, indexed, deferredIndex, EnumSet.of(Format.SHAPEFILE), null);
+	}
+
+	/**
+	 * Class constructor
+	 * @param written - artifacts to write
+	 * @param indexed - artifacts which get a spatial index
+	 * @param deferredIndex - if true spatial indexes are built by buildDeferredIndexes, after the main run
+	 * @param formats - output formats
+	 * @param folder_out - output folder, where the single file formats (GeoPackage) are written
+	 */
+	public OutputPlan(Set<Artifact> written, Set<Artifact> indexed, boolean deferredIndex, Set<Format> formats, String folder_out) {
+		this.written = Collections.unmodifiableSet(EnumSet.copyOf(written));
+		this.indexed = Collections.unmodifiableSet(EnumSet.copyOf(indexed));
+		this.deferredIndex = deferredIndex;
+		this.formats = Collections.unmodifiableSet(formats.isEmpty() ? EnumSet.of(Format.SHAPEFILE) : EnumSet.copyOf(formats));
+		this.geoPackage = this.formats.contains(Format.GEOPACKAGE) ? new GeoPackageWriter(folder_out + GEOPACKAGE_FILE) : null;
+		this.vectorTiles = this.formats.contains(Format.VECTORTILES) ? new VectorTileGenerator() : null;
+	}
+
+	/**
+	 * @return the default plan: all artifacts are written with spatial index, built with each write
+	 */
+	public static OutputPlan all() {
+		return new OutputPlan(EnumSet.allOf(Artifact.class), EnumSet.allOf(Artifact.class), false);
+	}
+
+	/**
+	 * Parses a comma separated list of artifact names ("all" for all artifacts, "none" for no artifact). Unknown names are logged and ignored
+	 * @param list
+	 * @return Set of artifacts
+	 */
+	public static Set<Artifact> parseArtifacts(String list) {
+		Set<Artifact> artifacts = EnumSet.noneOf(Artifact.class);
+		for (String name : list.split(",")) {
+			if (name.trim().isEmpty() || name.trim().equalsIgnoreCase("none")) continue;
+			if (name.trim().equalsIgnoreCase("all")) {
+				return EnumSet.allOf(Artifact.class);
+			}
+			Artifact artifact = Artifact.fromConfigName(name);
+			if (artifact == null) {
+				Logger.getLogger(OutputPlan.class.getName()).log(Level.WARNING, "Unknown output artifact " + name.trim() + " ignored");
+			} else {
+				artifacts.add(artifact);
+			}
+		}
+		return artifacts;
+	}
+
+	/**
+	 * Parses a comma separated list of format names. Unknown names are logged and ignored
+	 * @param list
+	 * @return Set of formats, shapefile if no known format is given
+	 */
+	public static Set<Format> parseFormats(String list) {
+		Set<Format> formats = EnumSet.noneOf(Format.class);
+		for (String name : list.split(",")) {
+			if (name.trim().isEmpty()) continue;
+			Format format = Format.fromConfigName(name);
+			if (format == null) {
+				Logger.getLogger(OutputPlan.class.getName()).log(Level.WARNING, "Unknown output format " + name.trim() + " ignored");
+			} else {
+				formats.add(format);
+			}
+		}
+		if (formats.isEmpty()) {
+			formats.add(Format.SHAPEFILE);
+		}
+		return formats;
+	}
+
+	/**
+	 * @param artifact
+	 * @return true if the artifact is written
+	 */
+	public boolean isWritten(Artifact artifact) {
+		return written.contains(artifact);
+	}
+
+	/**
+	 * @param artifact
+	 * @return true if the artifact gets a spatial index
+	 */
+	public boolean isIndexed(Artifact artifact) {
+		return indexed.contains(artifact);
+	}
+
+	public boolean isDeferredIndex() {
+		return deferredIndex;
+	}
+
+	/**
+	 * @param format
+	 * @return true if outputs are written in the format
+	 */
+	public boolean hasFormat(Format format) {
+		return formats.contains(format);
+	}
+
+	/**
+	 * Writes the collection of an artifact, if the artifact is part of the plan. Shapefiles are written in the background,
+	 * their spatial index is built with the write, or registered to be built by buildDeferredIndexes. For the GeoPackage the
+	 * collection is written at once as layer named after the shapefile (without folder and extension), finish completes the file.
+	 * FlatGeobuf files (.fgb), the PostgreSQL COPY export (.pgcopy, .sql) and GeoJSON files (.geojson, .geojsonl) are written
+	 * in the background next to the shapefile
+	 * @param artifact
+	 * @param collection - must not be modified afterwards
+	 * @param shp_out_str - path and file name of the shapefile
+	 */
+	public void write(Artifact artifact, final SimpleFeatureCollection collection, String shp_out_str) {
+		if (!isWritten(artifact) || collection == null) {
+			return;
+		}
+		if (formats.contains(Format.SHAPEFILE)) {
+			boolean spatialIndex = isIndexed(artifact);
+			if (spatialIndex && deferredIndex) {
+				deferredIndexFiles.add(shp_out_str);
+				spatialIndex = false;
+			}
+			OutputWriterService.getInstance().submit(collection, shp_out_str, spatialIndex);
+		}
+		if (geoPackage != null) {
+			try {
+				geoPackage.add(getLayerName(shp_out_str), collection, isIndexed(artifact));
+			} catch (IOException e) {
+				System.err.println("GeoPackage layer not written: " + getLayerName(shp_out_str) + ": " + e);
+				Logger.getLogger(OutputPlan.class.getName()).log(Level.SEVERE, "Could not write GeoPackage layer " + getLayerName(shp_out_str), e);
+			}
+		}
+		if (vectorTiles != null && VECTOR_TILE_ARTIFACTS.contains(artifact)) {
+			vectorTiles.add(getLayerName(shp_out_str), collection);
+		}
+		if (formats.contains(Format.FLATGEOBUF) && FLATGEOBUF_ARTIFACTS.contains(artifact)) {
+			final String fgb_out_str = shp_out_str.replaceAll("(?i)\\.shp$", "") + ".fgb";
+			OutputWriterService.getInstance().submit(fgb_out_str, new OutputWriterService.WriteTask() {
+				@Override
+				public void write() throws IOException {
+					new FlatGeobufWriter(fgb_out_str).write(collection);
+				}
+			});
+		}
+		if (formats.contains(Format.PGCOPY) && artifact == Artifact.MERGED_PIVOTS) {
+			final String copy_out_str = shp_out_str.replaceAll("(?i)\\.shp$", "") + ".pgcopy";
+			OutputWriterService.getInstance().submit(copy_out_str, new OutputWriterService.WriteTask() {
+				@Override
+				public void write() throws IOException {
+					new PgCopyExporter(copy_out_str).export(collection);
+				}
+			});
+		}
+		if (GEOJSON_ARTIFACTS.contains(artifact)) {
+			writeGeoJson(shp_out_str.replaceAll("(?i)\\.shp$", ""), new GeoJsonTask() {
+				@Override
+				public void write(GeoJsonWriter json) throws IOException {
+					json.writeFeatures(collection);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Writes paths returned by GraphUtilities.getPath as GeoJSON, if GeoJSON is an output format. The edges of each path
+	 * are written in path order with the path name and their position in the path (see GeoJsonWriter.writePath)
+	 * @param paths - edge r_ids of the paths by path name
+	 * @param edges - the network edges (merged_pivots), must not be modified afterwards
+	 * @param json_out_str - path and file name of the GeoJSON file, without extension
+	 */
+	public void writePaths(final Map<String, List<Integer>> paths, final SimpleFeatureCollection edges, String json_out_str) {
+		writeGeoJson(json_out_str, new GeoJsonTask() {
+			@Override
+			public void write(GeoJsonWriter json) throws IOException {
+				Map<Integer, SimpleFeature> edgesByRid = GeoJsonWriter.indexByRid(edges);
+				for (Map.Entry<String, List<Integer>> path : paths.entrySet()) {
+					json.writePath(path.getKey(), path.getValue(), edgesByRid);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes the network (merged_pivots edges and their vertices) as columnar file in the background, if netcol is an output format
+	 * @param edges - the network edges with source and target assigned, must not be modified afterwards
+	 * @param vertices - the vertex table of the edges, its coordinates are copied before the write is submitted
+	 * @param netcol_out_str - path and file name of the columnar file
+	 */
+	public void writeNetwork(final SimpleFeatureCollection edges, VertexTable vertices, final String netcol_out_str) {
+		if (!formats.contains(Format.NETCOL)) {
+			return;
+		}
+		final Coordinate[] coords = vertices.getCoordinates();
+		OutputWriterService.getInstance().submit(netcol_out_str, new OutputWriterService.WriteTask() {
+			@Override
+			public void write() throws IOException {
+				new ColumnarEdgeExporter(netcol_out_str).export(edges, coords);
+			}
+		});
+	}
+
+	/**
+	 * Submits a GeoJSON write for each GeoJSON format of the plan
+	 * @param json_out_str - path and file name without extension
+	 */
+	private void writeGeoJson(String json_out_str, final GeoJsonTask task) {
+		for (final Format format : new Format[]{Format.GEOJSON, Format.GEOJSONSEQ}) {
+			if (!formats.contains(format)) continue;
+			final String out_str = json_out_str + (format == Format.GEOJSON ? ".geojson" : ".geojsonl");
+			OutputWriterService.getInstance().submit(out_str, new OutputWriterService.WriteTask() {
+				@Override
+				public void write() throws IOException {
+					long startTime = System.currentTimeMillis();
+					GeoJsonWriter json = new GeoJsonWriter(out_str, format == Format.GEOJSONSEQ,
+							StartConfiguration.getInstance().getGeojson_precision(), StartConfiguration.getInstance().getSrid());
+					try {
+						task.write(json);
+					} finally {
+						json.close();
+					}
+					System.out.println("Written " + json.getCount() + " features to " + out_str + " in " + (System.currentTimeMillis() - startTime) + " msecs");
+				}
+			});
+		}
+	}
+
+	/**
+	 * Content of a GeoJSON file, written once per GeoJSON format
+	 */
+	private interface GeoJsonTask {
+		void write(GeoJsonWriter json) throws IOException;
+	}
+
+	/**
+	 * Completes the output after all writes were submitted and the shapefile writes have finished:
+	 * builds the deferred spatial indexes, writes the GeoPackage and generates the vector tiles
+	 */
+	public void finish() {
+		buildDeferredIndexes();
+		if (geoPackage != null) {
+			try {
+				geoPackage.finish();
+			} catch (IOException e) {
+				System.err.println("GeoPackage not written: " + geoPackage.getPath() + ": " + e);
+				Logger.getLogger(OutputPlan.class.getName()).log(Level.SEVERE, "Could not write " + geoPackage.getPath(), e);
+			}
+		}
+		if (vectorTiles != null) {
+			StartConfiguration config = StartConfiguration.getInstance();
+			try {
+				vectorTiles.generate(config.getVector_tiles(), config.getVector_tile_zoom()[0], config.getVector_tile_zoom()[1]);
+			} catch (IOException e) {
+				System.err.println("Vector tiles not generated: " + config.getVector_tiles() + ": " + e);
+				Logger.getLogger(OutputPlan.class.getName()).log(Level.SEVERE, "Could not generate " + config.getVector_tiles(), e);
+			}
+		}
+	}
+
+	/**
+	 * @param shp_out_str - path and file name of a shapefile
+	 * @return the file name without folder and extension
+	 */
+	static String getLayerName(String shp_out_str) {
+		String name = shp_out_str.substring(Math.max(shp_out_str.lastIndexOf('\\'), shp_out_str.lastIndexOf('/')) + 1);
+		return name.toLowerCase().endsWith(".shp") ? name.substring(0, name.length()-4) : name;
+	}
+
+	/**
+	 * Builds the spatial indexes which were deferred. Must be called after all writes have finished
+	 */
+	public void buildDeferredIndexes() {
+		List<String> files;
+		synchronized (deferredIndexFiles) {
+			files = new ArrayList<String>(deferredIndexFiles);
+			deferredIndexFiles.clear();
+		}
+		if (files.isEmpty()) return;
+		long startTime = System.currentTimeMillis();
+		for (String file : files) {
+			FileOperations.createSpatialIndex(file);
+		}
+		System.out.println("Built " + files.size() + " deferred spatial indexes in " + (System.currentTimeMillis() - startTime) + " msecs");
+	}
+
+	@Override
+	public String toString() {
+		return "written: " + written + ", indexed: " + indexed + (deferredIndex ? " (deferred)" : "") + ", formats: " + formats;
+	}
+}
@@ -0,0 +1,240 @@
+package preprocessing.output;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.io.ByteOrderValues;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import preprocessing.StartConfiguration;
+
+/**
+ * An exporter which writes a feature collection (the merged_pivots routing network) as PostgreSQL binary COPY file (.pgcopy)
+ * plus a DDL script (.sql) which creates the PostGIS table, loads the file with \copy and builds the spatial and source/target indexes.
+ * The geometry is written as EWKB with the SRID, all attributes (r_id, source, target, cost_1..3, r_cost_1..3, rev_c, r_rev_c, ...)
+ * with their PostgreSQL types. Features are streamed from the collection through a buffered file channel, no rows are built in memory.
+ * Load with: psql -d database -f merged_pivots.sql, from the folder of the files
+ */
+public class PgCopyExporter {
+	private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final String copy_out_str;
+
+	/**
+	 * Class constructor
+	 * @param copy_out_str - path and file name of the COPY file (.pgcopy), the DDL script gets the same name with .sql
+	 */
+	public PgCopyExporter(String copy_out_str) {
+		this.copy_out_str = copy_out_str;
+	}
+
+	/**
+	 * Writes the COPY file and the DDL script of the collection
+	 * @param collection
+	 * @throws IOException if a file cannot be written
+	 */
+	public void export(SimpleFeatureCollection collection) throws IOException {
+		long startTime = System.currentTimeMillis();
+		File copy_out = new File(copy_out_str);
+		String table = copy_out.getName().replaceAll("\\.[^.]*$", "").toLowerCase();
+		int srid = StartConfiguration.getInstance().getSrid();
+		SimpleFeatureType schema = collection.getSchema();
+		List<AttributeDescriptor> columns = new ArrayList<AttributeDescriptor>(schema.getAttributeDescriptors());
+
+		String[] columnTypes = new String[columns.size()];
+		for (int c = 0; c < columnTypes.length; c++) {
+			columnTypes[c] = getColumnType(columns.get(c).getType().getBinding());
+		}
+
+		int rows = 0;
+		//the dimension of the geometry column is set by the first geometry
+		Boolean hasZ = null;
+		FileChannel channel = new FileOutputStream(copy_out).getChannel();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		SimpleFeatureIterator iterator = collection.features();
+		try {
+			buffer.put(SIGNATURE);
+			//flags, header extension length
+			buffer.putInt(0);
+			buffer.putInt(0);
+			WKBWriter wkb2D = new WKBWriter(2, ByteOrderValues.BIG_ENDIAN, true);
+			WKBWriter wkb3D = new WKBWriter(3, ByteOrderValues.BIG_ENDIAN, true);
+			while (iterator.hasNext()) {
+				SimpleFeature feature = iterator.next();
+				buffer = ensure(channel, buffer, 2);
+				buffer.putShort((short) columns.size());
+				for (int c = 0; c < columns.size(); c++) {
+					Object value = feature.getAttribute(columns.get(c).getLocalName());
+					if (value == null) {
+						buffer = ensure(channel, buffer, 4);
+						buffer.putInt(-1);
+					} else if (columns.get(c) instanceof GeometryDescriptor) {
+						Geometry geometry = (Geometry) value;
+						if (hasZ == null) {
+							hasZ = !geometry.isEmpty() && !Double.isNaN(geometry.getCoordinate().z);
+						}
+						if (geometry.getSRID() != srid) {
+							geometry = (Geometry) geometry.clone();
+							geometry.setSRID(srid);
+						}
+						buffer = putField(channel, buffer, (hasZ ? wkb3D : wkb2D).write(geometry));
+					} else {
+						buffer = putValue(channel, buffer, value, columnTypes[c]);
+					}
+				}
+				rows++;
+			}
+			//trailer
+			buffer = ensure(channel, buffer, 2);
+			buffer.putShort((short) -1);
+			flush(channel, buffer);
+		} finally {
+			iterator.close();
+			channel.close();
+		}
+
+		String sql_out_str = copy_out_str.replaceAll("\\.[^.\\\\/]*$", "") + ".sql";
+		writeDDL(sql_out_str, table, copy_out.getName(), schema, columns, srid, hasZ != null && hasZ);
+		String report = "Exported " + rows + " rows to " + copy_out.getName() + " in " + (System.currentTimeMillis() - startTime) + " msecs";
+		System.out.println(report);
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, report);
+	}
+
+	/**
+	 * Writes the DDL script: table creation, \copy of the COPY file and index creation in one transaction
+	 */
+	private static void writeDDL(String sql_out_str, String table, String copyFile, SimpleFeatureType schema, List<AttributeDescriptor> columns, int srid, boolean hasZ) throws IOException {
+		StringBuilder definitions = new StringBuilder();
+		StringBuilder names = new StringBuilder();
+		String geometryColumn = null;
+		for (AttributeDescriptor column : columns) {
+			String name = column.getLocalName().toLowerCase();
+			String type;
+			if (column instanceof GeometryDescriptor) {
+				geometryColumn = name;
+				type = "geometry(" + getGeometryType(column.getType().getBinding()) + (hasZ ? "Z" : "") + ", " + srid + ")";
+			} else {
+				type = getColumnType(column.getType().getBinding());
+			}
+			if (definitions.length() > 0) {
+				definitions.append(",\n");
+				names.append(", ");
+			}
+			definitions.append("    ").append(name).append(' ').append(type);
+			names.append(name);
+		}
+
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sql_out_str), StandardCharsets.UTF_8));
+		try {
+			writer.write("-- " + table + " exported by the preprocessing (" + schema.getTypeName() + "), run from the folder of " + copyFile + "\n");
+			writer.write("BEGIN;\n");
+			writer.write("DROP TABLE IF EXISTS " + table + ";\n");
+			writer.write("CREATE TABLE " + table + " (\n" + definitions + "\n);\n");
+			writer.write("\\copy " + table + " (" + names + ") FROM '" + copyFile + "' WITH (FORMAT binary)\n");
+			if (geometryColumn != null) {
+				writer.write("CREATE INDEX " + table + "_" + geometryColumn + "_idx ON " + table + " USING GIST (" + geometryColumn + ");\n");
+			}
+			for (String column : new String[]{"source", "target"}) {
+				if (schema.getDescriptor(column) != null) {
+					writer.write("CREATE INDEX " + table + "_" + column + "_idx ON " + table + " (" + column + ");\n");
+				}
+			}
+			writer.write("ANALYZE " + table + ";\n");
+			writer.write("COMMIT;\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes an attribute value in the binary format of the PostgreSQL type of its column (see getColumnType)
+	 */
+	private static ByteBuffer putValue(FileChannel channel, ByteBuffer buffer, Object value, String columnType) throws IOException {
+		if (columnType.equals("integer")) {
+			buffer = ensure(channel, buffer, 8);
+			buffer.putInt(4).putInt(((Number) value).intValue());
+		} else if (columnType.equals("bigint")) {
+			buffer = ensure(channel, buffer, 12);
+			buffer.putInt(8).putLong(((Number) value).longValue());
+		} else if (columnType.equals("real")) {
+			buffer = ensure(channel, buffer, 8);
+			buffer.putInt(4).putFloat(((Number) value).floatValue());
+		} else if (columnType.equals("double precision")) {
+			buffer = ensure(channel, buffer, 12);
+			buffer.putInt(8).putDouble(((Number) value).doubleValue());
+		} else if (columnType.equals("boolean")) {
+			buffer = ensure(channel, buffer, 5);
+			buffer.putInt(1).put((byte) (((Boolean) value) ? 1 : 0));
+		} else {
+			buffer = putField(channel, buffer, value.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return buffer;
+	}
+
+	/**
+	 * Writes a field as length and bytes
+	 */
+	private static ByteBuffer putField(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+		buffer = ensure(channel, buffer, 4 + bytes.length);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+		return buffer;
+	}
+
+	/**
+	 * Flushes the buffer to the channel if less than the given bytes remain. Returns a larger buffer for fields larger than the buffer
+	 */
+	private static ByteBuffer ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return buffer;
+		}
+		flush(channel, buffer);
+		return (buffer.capacity() >= bytes) ? buffer : ByteBuffer.allocate(bytes);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static String getGeometryType(Class<?> binding) {
+		if (Point.class.isAssignableFrom(binding)) return "Point";
+		if (LineString.class.isAssignableFrom(binding)) return "LineString";
+		if (MultiLineString.class.isAssignableFrom(binding)) return "MultiLineString";
+		return "Geometry";
+	}
+
+	private static String getColumnType(Class<?> binding) {
+		if (Integer.class.isAssignableFrom(binding) || Short.class.isAssignableFrom(binding) || Byte.class.isAssignableFrom(binding)) return "integer";
+		if (Long.class.isAssignableFrom(binding)) return "bigint";
+		if (Float.class.isAssignableFrom(binding)) return "real";
+		if (Number.class.isAssignableFrom(binding)) return "double precision";
+		if (Boolean.class.isAssignableFrom(binding)) return "boolean";
+		return "text";
+	}
+}
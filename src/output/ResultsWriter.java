@@ -0,0 +1,321 @@
+package preprocessing.output;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import preprocessing.StartConfiguration;
+import preprocessing.connectionsAPI.Candidate;
+import preprocessing.connectionsAPI.Link;
+
+/**
+ * The results writer of a run: candidate, link and per matcher summary records are written to RESULTS_FILE as CSV or JSONL
+ * (RESULTS_FORMAT in the config file). The file is opened once per run and kept open with a buffered writer, records are formatted
+ * into one string per block without String.format. With RESULTS_ASYNC the blocks are written by a background thread in submit order,
+ * so the matchers do not wait on disk I/O. close writes the pending blocks and closes the file.
+ * CSV records share one header, the first column is the record type (candidate, link, summary), columns of other record types are empty
+ */
+public class ResultsWriter {
+	public static final String CSV_HEADER = "record,matcher,seq,r_id,gid_start,gid_end,dist,height_dif,grade,"
+			+ "pairs_tested,candidates,links,grade_a,grade_b,grade_c,grade_d,msecs";
+
+	private static ResultsWriter instance;
+
+	private final Writer writer;
+	private final boolean jsonl;
+	//background writer thread, null if records are written by the caller
+	private final ExecutorService executor;
+	private boolean failed = false;
+
+	/**
+	 * Class constructor, opens (and truncates) the results file
+	 * @param results_out_str - path and file name of the results file
+	 * @param jsonl - if true records are written as JSON lines, otherwise as CSV
+	 * @param async - if true records are written by a background thread
+	 * @throws IOException if the file cannot be opened
+	 */
+	public ResultsWriter(String results_out_str, boolean jsonl, boolean async) throws IOException {
+		this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(results_out_str), StandardCharsets.UTF_8), 1 << 16);
+		this.jsonl = jsonl;
+		this.executor = async ? Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "results-writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}) : null;
+		if (!jsonl) {
+			writer.write(CSV_HEADER);
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * @return the results writer of the run, opened on first use with the RESULTS_FILE, RESULTS_FORMAT and RESULTS_ASYNC settings.
+	 * Null if the results file cannot be opened
+	 */
+	public static synchronized ResultsWriter getInstance() {
+		if (instance == null) {
+			StartConfiguration config = StartConfiguration.getInstance();
+			try {
+				instance = new ResultsWriter(config.getResultFile(), config.getResults_format().equals("jsonl"), config.isResults_async());
+			} catch (IOException e) {
+				System.err.println("Results file not written: " + config.getResultFile() + ": " + e);
+				Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, "Could not open results file " + config.getResultFile(), e);
+				return null;
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Closes the results writer of the run, if it was opened
+	 */
+	public static synchronized void closeInstance() {
+		if (instance != null) {
+			instance.close();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Writes a candidate record per candidate, numbered from 1
+	 * @param matcher - matching path (liftLinks, slopeToLiftLinks, slopeLinks, busLinks)
+	 * @param candidates
+	 */
+	public void writeCandidates(String matcher, List<Candidate> candidates) {
+		StringBuilder sb = new StringBuilder(candidates.size() * 96);
+		int seq = 1;
+		for (Candidate cand : candidates) {
+			startRecord(sb, "candidate", matcher);
+			field(sb, "seq", seq++);
+			empty(sb);
+			field(sb, "gid_start", cand.getXml_gid_start());
+			field(sb, "gid_end", cand.getXml_gid_end());
+			field(sb, "dist", cand.getEndPoint().distance(cand.getStartPoint()));
+			field(sb, "height_dif", cand.getHeightDiff());
+			endRecord(sb, 9);
+		}
+		submit(sb.toString());
+	}
+
+	/**
+	 * Writes a link record per link
+	 * @param matcher - matching path (liftLinks, slopeToLiftLinks, slopeLinks, busLinks)
+	 * @param links
+	 */
+	public void writeLinks(String matcher, List<Link> links) {
+		StringBuilder sb = new StringBuilder(links.size() * 96);
+		for (Link link : links) {
+			startRecord(sb, "link", matcher);
+			empty(sb);
+			field(sb, "r_id", link.getR_id());
+			field(sb, "gid_start", link.getGid_start());
+			field(sb, "gid_end", link.getGid_end());
+			field(sb, "dist", link.getDistance());
+			field(sb, "height_dif", link.getHeightDiff());
+			field(sb, "grade", String.valueOf(link.getGrade()));
+			endRecord(sb, 8);
+		}
+		submit(sb.toString());
+	}
+
+	/**
+	 * Writes the summary record of a matcher
+	 * @param matcher - matching path (liftLinks, slopeToLiftLinks, slopeLinks, busLinks)
+	 * @param pairsTested - number of feature pairs tested, 0 if the candidates were loaded from the candidate cache
+	 * @param candidates - number of candidates
+	 * @param links - the links created from the candidates
+	 * @param msecs - candidate search time
+	 */
+	public void writeSummary(String matcher, long pairsTested, int candidates, List<Link> links, long msecs) {
+		int[] grades = new int[4];
+		for (Link link : links) {
+			int grade = link.getGrade() - 'A';
+			if (grade >= 0 && grade < grades.length) grades[grade]++;
+		}
+		StringBuilder sb = new StringBuilder(128);
+		startRecord(sb, "summary", matcher);
+		for (int i = 0; i < 7; i++) empty(sb);
+		field(sb, "pairs_tested", pairsTested);
+		field(sb, "candidates", candidates);
+		field(sb, "links", links.size());
+		field(sb, "grade_a", grades[0]);
+		field(sb, "grade_b", grades[1]);
+		field(sb, "grade_c", grades[2]);
+		field(sb, "grade_d", grades[3]);
+		field(sb, "msecs", msecs);
+		endRecord(sb, 0);
+		submit(sb.toString());
+	}
+
+	/**
+	 * Writes the pending records and closes the file
+	 */
+	public void close() {
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Results writer did not finish within a minute");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (writer) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, "Could not close results file: " + e);
+			}
+		}
+	}
+
+	private void submit(final String block) {
+		if (block.isEmpty()) return;
+		if (executor == null) {
+			write(block);
+			return;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				write(block);
+			}
+		});
+	}
+
+	private void write(String block) {
+		synchronized (writer) {
+			if (failed) return;
+			try {
+				writer.write(block);
+			} catch (IOException e) {
+				//reported once, the following records are dropped
+				failed = true;
+				Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, "Could not write results: " + e);
+			}
+		}
+	}
+
+	private void startRecord(StringBuilder sb, String record, String matcher) {
+		if (jsonl) {
+			sb.append("{\"record\":\"").append(record).append('"');
+			sb.append(",\"matcher\":");
+			appendJsonString(sb, matcher);
+		} else {
+			sb.append(record).append(',');
+			appendCsv(sb, matcher);
+		}
+	}
+
+	/**
+	 * Ends a record, CSV records are filled with the given number of empty columns
+	 */
+	private void endRecord(StringBuilder sb, int emptyColumns) {
+		if (jsonl) {
+			sb.append("}\n");
+		} else {
+			for (int i = 0; i < emptyColumns; i++) sb.append(',');
+			sb.append('\n');
+		}
+	}
+
+	/**
+	 * An empty CSV column, nothing in JSONL
+	 */
+	private void empty(StringBuilder sb) {
+		if (!jsonl) sb.append(',');
+	}
+
+	private void field(StringBuilder sb, String name, long value) {
+		startField(sb, name);
+		sb.append(value);
+	}
+
+	private void field(StringBuilder sb, String name, double value) {
+		startField(sb, name);
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			if (jsonl) sb.append("null");
+			return;
+		}
+		appendDecimal(sb, value);
+	}
+
+	private void field(StringBuilder sb, String name, String value) {
+		startField(sb, name);
+		if (value == null) {
+			if (jsonl) sb.append("null");
+		} else if (jsonl) {
+			appendJsonString(sb, value);
+		} else {
+			appendCsv(sb, value);
+		}
+	}
+
+	private void startField(StringBuilder sb, String name) {
+		sb.append(',');
+		if (jsonl) {
+			sb.append('"').append(name).append("\":");
+		}
+	}
+
+	/**
+	 * Appends a value with two decimals, as %.2f
+	 */
+	private static void appendDecimal(StringBuilder sb, double value) {
+		long hundredths = Math.round(Math.abs(value) * 100);
+		if (value < 0 && hundredths != 0) sb.append('-');
+		sb.append(hundredths / 100).append('.');
+		long fraction = hundredths % 100;
+		if (fraction < 10) sb.append('0');
+		sb.append(fraction);
+	}
+
+	private static void appendCsv(StringBuilder sb, String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			sb.append(value);
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') sb.append('"');
+			sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	private static void appendJsonString(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+}
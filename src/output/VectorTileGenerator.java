@@ -0,0 +1,968 @@
+package preprocessing.output;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
+
+import preprocessing.StartConfiguration;
+import preprocessing.util.ParallelOperations;
+
+/**
+ * A generator of a Mapbox Vector Tile pyramid (https://github.com/mapbox/vector-tile-spec) of the network layers
+ * (merged_pivots, segments_slopes, segments_buses) for the maps of the apps. Layers are collected with add and the tiles are generated by generate,
+ * into an MBTiles file (path ending with .mbtiles, tiles gzip compressed) or into a z/x/y.pbf directory.
+ * The features are projected once to Web Mercator and assigned to the tiles they touch, then the tiles are clipped, simplified to the
+ * tile resolution and encoded in parallel. A content hash of every tile (the hashes of the features it holds) is kept with the tiles,
+ * so a new run only renders the tiles whose features changed and removes the tiles which became empty.
+ * Point and line geometries are encoded, other geometries are skipped. Collections passed to the generator must not be modified after they are added
+ */
+public class VectorTileGenerator {
+	//tile coordinate extent and clip buffer in tile coordinates
+	public static final int EXTENT = 4096;
+	private static final int BUFFER = 64;
+	//changes of the tile encoding must change the version, so that all tiles are rendered again
+	private static final long RENDER_VERSION = 2;
+	//number of tiles rendered by one task and tiles per store transaction
+	private static final int TILES_PER_TASK = 32;
+	private static final int TILES_PER_BATCH = 4096;
+	private static final double EARTH_RADIUS = 6378137.0;
+	private static final double HALF_WORLD = Math.PI * EARTH_RADIUS;
+
+	//MVT geometry types and commands
+	private static final int POINT = 1;
+	private static final int LINESTRING = 2;
+	private static final int MOVE_TO = 1;
+	private static final int LINE_TO = 2;
+
+	private final List<Layer> layers = new ArrayList<Layer>();
+	private final GeometryFactory geometryFactory = new GeometryFactory();
+
+	/**
+	 * Adds a layer to the tiles. A layer with the name of an already added layer replaces it
+	 * @param name - name of the layer in the tiles
+	 * @param collection - features of the layer, must not be modified afterwards
+	 */
+	public synchronized void add(String name, SimpleFeatureCollection collection) {
+		for (int i = 0; i < layers.size(); i++) {
+			if (layers.get(i).name.equals(name)) {
+				Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Vector tile layer " + name + " added twice, replacing it");
+				layers.remove(i);
+				break;
+			}
+		}
+		layers.add(new Layer(name, collection));
+	}
+
+	/**
+	 * @return the number of layers added
+	 */
+	public synchronized int size() {
+		return layers.size();
+	}
+
+	/**
+	 * Generates the tiles of the added layers for the zoom levels minZoom to maxZoom. Tiles of an existing MBTiles file or directory
+	 * whose content did not change are kept, changed tiles are replaced and tiles without content are removed
+	 * @param tiles_out_str - MBTiles file (.mbtiles) or directory of the tiles
+	 * @param minZoom
+	 * @param maxZoom
+	 * @throws IOException if the tiles cannot be written or the layers cannot be projected to Web Mercator
+	 */
+	public synchronized void generate(String tiles_out_str, int minZoom, int maxZoom) throws IOException {
+		if (layers.isEmpty()) return;
+		long startTime = System.currentTimeMillis();
+		Envelope bounds = new Envelope();
+		for (Layer layer : layers) {
+			layer.project();
+			for (Geometry geometry : layer.geometries) {
+				bounds.expandToInclude(geometry.getEnvelopeInternal());
+			}
+		}
+		long projectTime = System.currentTimeMillis() - startTime;
+
+		TileStore store = tiles_out_str.toLowerCase().endsWith(".mbtiles") ? new MBTilesStore(tiles_out_str) : new DirectoryStore(tiles_out_str);
+		int rendered = 0, unchanged = 0, removed = 0;
+		try {
+			Map<Long, Long> previousHashes = store.readHashes();
+			for (int z = minZoom; z <= maxZoom; z++) {
+				Map<Long, TileContent> tiles = assignTiles(z);
+				List<TileContent> changed = new ArrayList<TileContent>();
+				for (TileContent tile : tiles.values()) {
+					Long previous = previousHashes.remove(tile.key);
+					if (previous != null && previous == tile.hash) {
+						unchanged++;
+					} else {
+						changed.add(tile);
+					}
+				}
+				for (int from = 0; from < changed.size(); from += TILES_PER_BATCH) {
+					List<TileContent> batch = changed.subList(from, Math.min(changed.size(), from + TILES_PER_BATCH));
+					List<byte[]> data = render(batch);
+					for (int i = 0; i < batch.size(); i++) {
+						store.put(batch.get(i).key, data.get(i), batch.get(i).hash);
+					}
+					store.commit();
+					rendered += batch.size();
+				}
+			}
+			//tiles of the previous run which have no content any more
+			for (Long key : previousHashes.keySet()) {
+				store.delete(key);
+				removed++;
+			}
+			store.writeMetadata(layers, bounds, minZoom, maxZoom);
+			store.commit();
+		} finally {
+			store.close();
+		}
+		String report = "Generated vector tiles z" + minZoom + "-" + maxZoom + " of " + layers.size() + " layers into " + tiles_out_str + ": "
+				+ rendered + " tiles rendered, " + unchanged + " unchanged, " + removed + " removed in " + (System.currentTimeMillis() - startTime)
+				+ " msecs (projection " + projectTime + " msecs)";
+		System.out.println(report);
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, report);
+	}
+
+	/**
+	 * Assigns the features of all layers to the tiles of a zoom level which their buffered bounding box touches
+	 * @return the tiles by key, with their content hash
+	 */
+	private Map<Long, TileContent> assignTiles(int z) {
+		int tiles = 1 << z;
+		double tileSize = 2 * HALF_WORLD / tiles;
+		double buffer = tileSize * BUFFER / EXTENT;
+		Map<Long, TileContent> content = new LinkedHashMap<Long, TileContent>();
+		for (int l = 0; l < layers.size(); l++) {
+			Layer layer = layers.get(l);
+			for (int f = 0; f < layer.geometries.length; f++) {
+				Envelope env = layer.geometries[f].getEnvelopeInternal();
+				int minX = clamp((int) Math.floor((env.getMinX() - buffer + HALF_WORLD) / tileSize), tiles);
+				int maxX = clamp((int) Math.floor((env.getMaxX() + buffer + HALF_WORLD) / tileSize), tiles);
+				int minY = clamp((int) Math.floor((HALF_WORLD - env.getMaxY() - buffer) / tileSize), tiles);
+				int maxY = clamp((int) Math.floor((HALF_WORLD - env.getMinY() + buffer) / tileSize), tiles);
+				for (int x = minX; x <= maxX; x++) {
+					for (int y = minY; y <= maxY; y++) {
+						long key = getKey(z, x, y);
+						TileContent tile = content.get(key);
+						if (tile == null) {
+							tile = new TileContent(key, layers.size());
+							content.put(key, tile);
+						}
+						tile.add(l, f);
+					}
+				}
+			}
+		}
+		for (TileContent tile : content.values()) {
+			long hash = mix(RENDER_VERSION, tile.key);
+			for (int l = 0; l < layers.size(); l++) {
+				if (tile.counts[l] == 0) continue;
+				hash = mix(hash, layers.get(l).hash);
+				for (int i = 0; i < tile.counts[l]; i++) {
+					hash = mix(hash, layers.get(l).featureHashes[tile.features[l][i]]);
+				}
+			}
+			tile.hash = hash;
+		}
+		return content;
+	}
+
+	/**
+	 * Renders tiles in parallel, TILES_PER_TASK tiles per task
+	 * @return the encoded tiles, null for tiles without content after clipping
+	 */
+	private List<byte[]> render(final List<TileContent> tiles) {
+		List<Callable<List<byte[]>>> tasks = new ArrayList<Callable<List<byte[]>>>();
+		for (int from = 0; from < tiles.size(); from += TILES_PER_TASK) {
+			final List<TileContent> part = tiles.subList(from, Math.min(tiles.size(), from + TILES_PER_TASK));
+			tasks.add(new Callable<List<byte[]>>() {
+				@Override
+				public List<byte[]> call() {
+					List<byte[]> data = new ArrayList<byte[]>(part.size());
+					for (TileContent tile : part) {
+						data.add(renderTile(tile));
+					}
+					return data;
+				}
+			});
+		}
+		List<byte[]> data = new ArrayList<byte[]>(tiles.size());
+		for (List<byte[]> part : ParallelOperations.invokeAll(tasks)) {
+			data.addAll(part);
+		}
+		return data;
+	}
+
+	/**
+	 * Clips, simplifies and encodes the features of a tile
+	 * @return the encoded tile or null if no feature is left
+	 */
+	private byte[] renderTile(TileContent tile) {
+		int z = getZoom(tile.key);
+		double tileSize = 2 * HALF_WORLD / (1 << z);
+		double minX = getX(tile.key) * tileSize - HALF_WORLD;
+		double maxY = HALF_WORLD - getY(tile.key) * tileSize;
+		double buffer = tileSize * BUFFER / EXTENT;
+		Envelope clipEnv = new Envelope(minX - buffer, minX + tileSize + buffer, maxY - tileSize - buffer, maxY + buffer);
+		Geometry clipGeometry = geometryFactory.toGeometry(clipEnv);
+		double scale = EXTENT / tileSize;
+		//one tile coordinate unit
+		double tolerance = tileSize / EXTENT;
+
+		ProtoWriter tileMessage = new ProtoWriter();
+		int[] commands = new int[256];
+		for (int l = 0; l < layers.size(); l++) {
+			if (tile.counts[l] == 0) continue;
+			Layer layer = layers.get(l);
+			ProtoWriter layerMessage = new ProtoWriter();
+			layerMessage.writeString(1, layer.name);
+			Map<Object, Integer> values = new HashMap<Object, Integer>();
+			ProtoWriter valueMessages = new ProtoWriter();
+			int features = 0;
+			for (int i = 0; i < tile.counts[l]; i++) {
+				int f = tile.features[l][i];
+				Geometry geometry = clip(layer.geometries[f], clipEnv, clipGeometry);
+				if (geometry == null || geometry.isEmpty()) continue;
+				if (geometry.getDimension() == 1) {
+					geometry = DouglasPeuckerSimplifier.simplify(geometry, tolerance);
+				}
+				//encode, [0] holds the geometry type, [1] the number of commands
+				commands = encodeGeometry(geometry, minX, maxY, scale, commands);
+				if (commands[1] == 0) continue;
+
+				ProtoWriter feature = new ProtoWriter();
+				if (layer.ids[f] >= 0) {
+					feature.writeTag(1, 0);
+					feature.writeVarint(layer.ids[f]);
+				}
+				Object[] attributes = layer.attributes[f];
+				int[] tags = new int[attributes.length * 2];
+				int tagCount = 0;
+				for (int a = 0; a < attributes.length; a++) {
+					if (attributes[a] == null) continue;
+					Integer value = values.get(attributes[a]);
+					if (value == null) {
+						value = values.size();
+						values.put(attributes[a], value);
+						writeValue(valueMessages, attributes[a]);
+					}
+					tags[tagCount++] = a;
+					tags[tagCount++] = value;
+				}
+				feature.writePacked(2, tags, 0, tagCount);
+				feature.writeTag(3, 0);
+				feature.writeVarint(commands[0]);
+				feature.writePacked(4, commands, 2, commands[1]);
+				layerMessage.writeMessage(2, feature);
+				features++;
+			}
+			if (features == 0) continue;
+			for (String key : layer.keys) {
+				layerMessage.writeString(3, key);
+			}
+			layerMessage.append(valueMessages);
+			layerMessage.writeTag(5, 0);
+			layerMessage.writeVarint(EXTENT);
+			layerMessage.writeTag(15, 0);
+			layerMessage.writeVarint(2);
+			tileMessage.writeMessage(3, layerMessage);
+		}
+		return tileMessage.size() == 0 ? null : tileMessage.toByteArray();
+	}
+
+	/**
+	 * Clips a geometry to the buffered tile. Geometries inside the tile are not clipped, geometries which cannot be clipped
+	 * are kept whole (coordinates outside the tile are valid)
+	 */
+	private static Geometry clip(Geometry geometry, Envelope clipEnv, Geometry clipGeometry) {
+		Envelope env = geometry.getEnvelopeInternal();
+		if (clipEnv.contains(env)) return geometry;
+		if (!clipEnv.intersects(env)) return null;
+		try {
+			return geometry.intersection(clipGeometry);
+		} catch (RuntimeException e) {
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.FINE, "Vector tile clipping failed, feature kept whole: " + e);
+			return geometry;
+		}
+	}
+
+	/**
+	 * Encodes the points or lines of a geometry in MVT commands in tile coordinates
+	 * @return commands array, [0] holds the geometry type, [1] the number of command integers which start at [2]
+	 */
+	private static int[] encodeGeometry(Geometry geometry, double minX, double maxY, double scale, int[] commands) {
+		int size = 2;
+		int[] cursor = new int[2];
+		//parts of a lower dimension, left by clipping, are dropped
+		int type = geometry.getDimension() == 0 ? POINT : geometry.getDimension() == 1 ? LINESTRING : 0;
+		int pointCount = 0;
+		for (int g = 0; g < geometry.getNumGeometries(); g++) {
+			Geometry part = geometry.getGeometryN(g);
+			if (part instanceof Point && type == POINT) {
+				commands = ensure(commands, size + 3);
+				Coordinate c = part.getCoordinate();
+				if (pointCount++ == 0) {
+					//one MoveTo command for all points, count set after the loop
+					commands[size++] = 0;
+				}
+				size = writeDelta(commands, size, cursor, (int) Math.round((c.x - minX) * scale), (int) Math.round((maxY - c.y) * scale));
+			} else if (part instanceof LineString && type == LINESTRING) {
+				Coordinate[] coords = part.getCoordinates();
+				commands = ensure(commands, size + 2 * coords.length + 2);
+				int start = size;
+				int px = 0, py = 0, points = 0;
+				for (Coordinate c : coords) {
+					int x = (int) Math.round((c.x - minX) * scale);
+					int y = (int) Math.round((maxY - c.y) * scale);
+					if (points > 0 && x == px && y == py) continue;
+					if (points == 0) {
+						commands[size++] = command(MOVE_TO, 1);
+					} else if (points == 1) {
+						//LineTo command, count set after the loop
+						commands[size++] = 0;
+					}
+					size = writeDelta(commands, size, cursor, x, y);
+					px = x;
+					py = y;
+					points++;
+				}
+				if (points < 2) {
+					//line collapsed to a point in this zoom level, restore the cursor
+					if (points == 1) {
+						cursor[0] -= zigzagDecode(commands[start + 1]);
+						cursor[1] -= zigzagDecode(commands[start + 2]);
+					}
+					size = start;
+					continue;
+				}
+				commands[start + 3] = command(LINE_TO, points - 1);
+			}
+		}
+		if (pointCount > 0) {
+			commands[2] = command(MOVE_TO, pointCount);
+		}
+		commands[0] = type;
+		commands[1] = size - 2;
+		return commands;
+	}
+
+	private static int writeDelta(int[] commands, int size, int[] cursor, int x, int y) {
+		commands[size++] = zigzag(x - cursor[0]);
+		commands[size++] = zigzag(y - cursor[1]);
+		cursor[0] = x;
+		cursor[1] = y;
+		return size;
+	}
+
+	private static int[] ensure(int[] array, int size) {
+		if (array.length >= size) return array;
+		int[] larger = new int[Math.max(size, array.length * 2)];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+
+	private static int command(int id, int count) {
+		return (id & 0x7) | (count << 3);
+	}
+
+	private static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private static int zigzagDecode(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/**
+	 * Writes an attribute value as MVT Value message in the values of a layer
+	 */
+	private static void writeValue(ProtoWriter values, Object value) {
+		ProtoWriter message = new ProtoWriter();
+		if (value instanceof Float) {
+			message.writeTag(2, 5);
+			message.writeFixed32(Float.floatToIntBits((Float) value));
+		} else if (value instanceof Double || value instanceof java.math.BigDecimal) {
+			message.writeTag(3, 1);
+			message.writeFixed64(Double.doubleToLongBits(((Number) value).doubleValue()));
+		} else if (value instanceof Number) {
+			long n = ((Number) value).longValue();
+			message.writeTag(6, 0);
+			message.writeVarint((n << 1) ^ (n >> 63));
+		} else if (value instanceof Boolean) {
+			message.writeTag(7, 0);
+			message.writeVarint(((Boolean) value) ? 1 : 0);
+		} else {
+			message.writeString(1, value.toString());
+		}
+		values.writeMessage(4, message);
+	}
+
+	private static int clamp(int value, int tiles) {
+		return Math.max(0, Math.min(tiles - 1, value));
+	}
+
+	/**
+	 * Tile key: zoom in the highest 6 bits, x and y with 29 bits each
+	 */
+	static long getKey(int z, int x, int y) {
+		return ((long) z << 58) | ((long) x << 29) | y;
+	}
+
+	static int getZoom(long key) {
+		return (int) (key >>> 58);
+	}
+
+	static int getX(long key) {
+		return (int) ((key >>> 29) & 0x1FFFFFFF);
+	}
+
+	static int getY(long key) {
+		return (int) (key & 0x1FFFFFFF);
+	}
+
+	private static long mix(long hash, long value) {
+		hash ^= value;
+		hash *= 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 31);
+	}
+
+	/**
+	 * Longitude of a Web Mercator x
+	 */
+	private static double toLongitude(double x) {
+		return Math.toDegrees(x / EARTH_RADIUS);
+	}
+
+	/**
+	 * Latitude of a Web Mercator y
+	 */
+	private static double toLatitude(double y) {
+		return Math.toDegrees(Math.atan(Math.sinh(y / EARTH_RADIUS)));
+	}
+
+	/**
+	 * @return the TileJSON vector_layers description of the layers
+	 */
+	private static String getVectorLayersJson(List<Layer> layers, int minZoom, int maxZoom) {
+		StringBuilder json = new StringBuilder("{\"vector_layers\":[");
+		for (int l = 0; l < layers.size(); l++) {
+			Layer layer = layers.get(l);
+			if (l > 0) json.append(',');
+			json.append("{\"id\":\"").append(layer.name).append("\",\"fields\":{");
+			for (int k = 0; k < layer.keys.length; k++) {
+				if (k > 0) json.append(',');
+				json.append('"').append(layer.keys[k]).append("\":\"").append(layer.types[k]).append('"');
+			}
+			json.append("},\"minzoom\":").append(minZoom).append(",\"maxzoom\":").append(maxZoom).append('}');
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * A layer, projected to Web Mercator by project
+	 */
+	private static class Layer {
+		final String name;
+		final SimpleFeatureCollection collection;
+		String[] keys;
+		String[] types;
+		long hash;
+		Geometry[] geometries;
+		Object[][] attributes;
+		long[] ids;
+		long[] featureHashes;
+
+		Layer(String name, SimpleFeatureCollection collection) {
+			this.name = name;
+			this.collection = collection;
+		}
+
+		/**
+		 * Projects the geometries to Web Mercator and computes the feature hashes. The r_id is used as feature id
+		 */
+		void project() throws IOException {
+			List<String> attributeNames = new ArrayList<String>();
+			List<String> attributeTypes = new ArrayList<String>();
+			for (AttributeDescriptor descriptor : collection.getSchema().getAttributeDescriptors()) {
+				if (descriptor instanceof GeometryDescriptor) continue;
+				attributeNames.add(descriptor.getLocalName());
+				Class<?> binding = descriptor.getType().getBinding();
+				attributeTypes.add(Number.class.isAssignableFrom(binding) ? "Number" : Boolean.class.isAssignableFrom(binding) ? "Boolean" : "String");
+			}
+			keys = attributeNames.toArray(new String[attributeNames.size()]);
+			types = attributeTypes.toArray(new String[attributeTypes.size()]);
+			hash = mix(name.hashCode(), attributeNames.hashCode());
+
+			MathTransform transform;
+			try {
+				CoordinateReferenceSystem source = collection.getSchema().getCoordinateReferenceSystem();
+				if (source == null) {
+					source = CRS.decode("EPSG:" + StartConfiguration.getInstance().getSrid(), true);
+				}
+				transform = CRS.findMathTransform(source, CRS.decode("EPSG:3857", true), true);
+			} catch (FactoryException e) {
+				throw new IOException("No transformation of " + name + " to Web Mercator: " + e, e);
+			}
+
+			List<Geometry> projected = new ArrayList<Geometry>();
+			List<Object[]> values = new ArrayList<Object[]>();
+			List<Long> featureIds = new ArrayList<Long>();
+			List<Long> hashes = new ArrayList<Long>();
+			int failed = 0;
+			SimpleFeatureIterator iterator = collection.features();
+			try {
+				while (iterator.hasNext()) {
+					SimpleFeature feature = iterator.next();
+					Geometry geometry = (Geometry) feature.getDefaultGeometry();
+					if (geometry == null || geometry.isEmpty()) continue;
+					try {
+						geometry = JTS.transform(geometry, transform);
+					} catch (TransformException e) {
+						failed++;
+						continue;
+					}
+					Object[] featureValues = new Object[keys.length];
+					long featureHash = 0;
+					for (int k = 0; k < keys.length; k++) {
+						featureValues[k] = feature.getAttribute(keys[k]);
+						featureHash = mix(featureHash, featureValues[k] == null ? 0 : featureValues[k].hashCode());
+					}
+					for (Coordinate c : geometry.getCoordinates()) {
+						featureHash = mix(featureHash, Double.doubleToLongBits(c.x));
+						featureHash = mix(featureHash, Double.doubleToLongBits(c.y));
+					}
+					Object rid = feature.getAttribute("r_id");
+					featureIds.add((rid instanceof Number && ((Number) rid).longValue() >= 0) ? ((Number) rid).longValue() : -1L);
+					projected.add(geometry);
+					values.add(featureValues);
+					hashes.add(featureHash);
+				}
+			} finally {
+				iterator.close();
+			}
+			if (failed > 0) {
+				Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, failed + " features of " + name + " could not be projected to Web Mercator");
+			}
+			geometries = projected.toArray(new Geometry[projected.size()]);
+			attributes = values.toArray(new Object[values.size()][]);
+			ids = new long[featureIds.size()];
+			featureHashes = new long[hashes.size()];
+			for (int f = 0; f < ids.length; f++) {
+				ids[f] = featureIds.get(f);
+				featureHashes[f] = hashes.get(f);
+			}
+		}
+	}
+
+	/**
+	 * The features of all layers in a tile, as indexes into the layers
+	 */
+	private static class TileContent {
+		final long key;
+		final int[][] features;
+		final int[] counts;
+		long hash;
+
+		TileContent(long key, int layers) {
+			this.key = key;
+			this.features = new int[layers][];
+			this.counts = new int[layers];
+		}
+
+		void add(int layer, int feature) {
+			if (features[layer] == null) {
+				features[layer] = new int[4];
+			} else if (counts[layer] == features[layer].length) {
+				int[] larger = new int[counts[layer] * 2];
+				System.arraycopy(features[layer], 0, larger, 0, counts[layer]);
+				features[layer] = larger;
+			}
+			features[layer][counts[layer]++] = feature;
+		}
+	}
+
+	/**
+	 * A minimal protocol buffers writer for the MVT messages
+	 */
+	private static class ProtoWriter {
+		private byte[] buffer = new byte[64];
+		private int size = 0;
+
+		void writeTag(int field, int wireType) {
+			writeVarint((field << 3) | wireType);
+		}
+
+		void writeVarint(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[size++] = (byte) value;
+		}
+
+		void writeFixed32(int value) {
+			ensure(4);
+			for (int i = 0; i < 4; i++) {
+				buffer[size++] = (byte) (value >>> (8 * i));
+			}
+		}
+
+		void writeFixed64(long value) {
+			ensure(8);
+			for (int i = 0; i < 8; i++) {
+				buffer[size++] = (byte) (value >>> (8 * i));
+			}
+		}
+
+		void writeString(int field, String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeTag(field, 2);
+			writeVarint(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, size, bytes.length);
+			size += bytes.length;
+		}
+
+		void writeMessage(int field, ProtoWriter message) {
+			writeTag(field, 2);
+			writeVarint(message.size);
+			append(message);
+		}
+
+		void writePacked(int field, int[] values, int offset, int length) {
+			if (length == 0) return;
+			ProtoWriter packed = new ProtoWriter();
+			for (int i = offset; i < offset + length; i++) {
+				packed.writeVarint(values[i] & 0xFFFFFFFFL);
+			}
+			writeMessage(field, packed);
+		}
+
+		void append(ProtoWriter other) {
+			ensure(other.size);
+			System.arraycopy(other.buffer, 0, buffer, size, other.size);
+			size += other.size;
+		}
+
+		int size() {
+			return size;
+		}
+
+		byte[] toByteArray() {
+			byte[] bytes = new byte[size];
+			System.arraycopy(buffer, 0, bytes, 0, size);
+			return bytes;
+		}
+
+		private void ensure(int bytes) {
+			if (size + bytes <= buffer.length) return;
+			byte[] larger = new byte[Math.max(size + bytes, buffer.length * 2)];
+			System.arraycopy(buffer, 0, larger, 0, size);
+			buffer = larger;
+		}
+	}
+
+	/**
+	 * Storage of the tiles and their content hashes
+	 */
+	private interface TileStore {
+		/**
+		 * @return the content hashes of the stored tiles by tile key
+		 */
+		Map<Long, Long> readHashes() throws IOException;
+
+		/**
+		 * Stores a tile, a null tile removes the tile and keeps only its hash
+		 */
+		void put(long key, byte[] data, long hash) throws IOException;
+
+		void delete(long key) throws IOException;
+
+		void writeMetadata(List<Layer> layers, Envelope bounds, int minZoom, int maxZoom) throws IOException;
+
+		void commit() throws IOException;
+
+		void close() throws IOException;
+	}
+
+	/**
+	 * MBTiles file (https://github.com/mapbox/mbtiles-spec), tiles are gzip compressed and in TMS row order.
+	 * The hashes are kept in the table tile_hashes
+	 */
+	private static class MBTilesStore implements TileStore {
+		private final String name;
+		private final Connection connection;
+		private final PreparedStatement putTile;
+		private final PreparedStatement putHash;
+		private final PreparedStatement deleteTile;
+		private final PreparedStatement deleteHash;
+
+		MBTilesStore(String mbtiles_out_str) throws IOException {
+			this.name = new File(mbtiles_out_str).getName().replaceAll("(?i)\\.mbtiles$", "");
+			try {
+				connection = DriverManager.getConnection("jdbc:sqlite:" + mbtiles_out_str);
+				Statement statement = connection.createStatement();
+				try {
+					statement.execute("CREATE TABLE IF NOT EXISTS metadata (name text, value text)");
+					statement.execute("CREATE UNIQUE INDEX IF NOT EXISTS metadata_name ON metadata (name)");
+					statement.execute("CREATE TABLE IF NOT EXISTS tiles (zoom_level integer, tile_column integer, tile_row integer, tile_data blob)");
+					statement.execute("CREATE UNIQUE INDEX IF NOT EXISTS tile_index ON tiles (zoom_level, tile_column, tile_row)");
+					statement.execute("CREATE TABLE IF NOT EXISTS tile_hashes (zoom_level integer, tile_column integer, tile_row integer, hash integer, "
+							+ "PRIMARY KEY (zoom_level, tile_column, tile_row))");
+				} finally {
+					statement.close();
+				}
+				connection.setAutoCommit(false);
+				putTile = connection.prepareStatement("INSERT OR REPLACE INTO tiles VALUES (?, ?, ?, ?)");
+				putHash = connection.prepareStatement("INSERT OR REPLACE INTO tile_hashes VALUES (?, ?, ?, ?)");
+				deleteTile = connection.prepareStatement("DELETE FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+				deleteHash = connection.prepareStatement("DELETE FROM tile_hashes WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+			} catch (SQLException e) {
+				throw new IOException("Could not open " + mbtiles_out_str + ": " + e, e);
+			}
+		}
+
+		@Override
+		public Map<Long, Long> readHashes() throws IOException {
+			Map<Long, Long> hashes = new HashMap<Long, Long>();
+			try {
+				Statement statement = connection.createStatement();
+				try {
+					ResultSet result = statement.executeQuery("SELECT zoom_level, tile_column, tile_row, hash FROM tile_hashes");
+					while (result.next()) {
+						int z = result.getInt(1);
+						hashes.put(getKey(z, result.getInt(2), (1 << z) - 1 - result.getInt(3)), result.getLong(4));
+					}
+				} finally {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				throw new IOException("Could not read tile hashes: " + e, e);
+			}
+			return hashes;
+		}
+
+		@Override
+		public void put(long key, byte[] data, long hash) throws IOException {
+			try {
+				if (data == null) {
+					setTile(deleteTile, key).executeUpdate();
+				} else {
+					setTile(putTile, key).setBytes(4, gzip(data));
+					putTile.executeUpdate();
+				}
+				setTile(putHash, key).setLong(4, hash);
+				putHash.executeUpdate();
+			} catch (SQLException e) {
+				throw new IOException("Could not write tile: " + e, e);
+			}
+		}
+
+		@Override
+		public void delete(long key) throws IOException {
+			try {
+				setTile(deleteTile, key).executeUpdate();
+				setTile(deleteHash, key).executeUpdate();
+			} catch (SQLException e) {
+				throw new IOException("Could not delete tile: " + e, e);
+			}
+		}
+
+		@Override
+		public void writeMetadata(List<Layer> layers, Envelope bounds, int minZoom, int maxZoom) throws IOException {
+			Map<String, String> metadata = new LinkedHashMap<String, String>();
+			metadata.put("name", name);
+			metadata.put("format", "pbf");
+			metadata.put("type", "overlay");
+			metadata.put("minzoom", String.valueOf(minZoom));
+			metadata.put("maxzoom", String.valueOf(maxZoom));
+			metadata.put("bounds", toLongitude(bounds.getMinX()) + "," + toLatitude(bounds.getMinY()) + "," + toLongitude(bounds.getMaxX()) + "," + toLatitude(bounds.getMaxY()));
+			metadata.put("center", toLongitude(bounds.centre().x) + "," + toLatitude(bounds.centre().y) + "," + minZoom);
+			metadata.put("json", getVectorLayersJson(layers, minZoom, maxZoom));
+			try {
+				PreparedStatement statement = connection.prepareStatement("INSERT OR REPLACE INTO metadata VALUES (?, ?)");
+				try {
+					for (Map.Entry<String, String> entry : metadata.entrySet()) {
+						statement.setString(1, entry.getKey());
+						statement.setString(2, entry.getValue());
+						statement.executeUpdate();
+					}
+				} finally {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				throw new IOException("Could not write metadata: " + e, e);
+			}
+		}
+
+		@Override
+		public void commit() throws IOException {
+			try {
+				connection.commit();
+			} catch (SQLException e) {
+				throw new IOException("Could not commit tiles: " + e, e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				throw new IOException("Could not close tiles: " + e, e);
+			}
+		}
+
+		private static PreparedStatement setTile(PreparedStatement statement, long key) throws SQLException {
+			int z = getZoom(key);
+			statement.setInt(1, z);
+			statement.setInt(2, getX(key));
+			statement.setInt(3, (1 << z) - 1 - getY(key));
+			return statement;
+		}
+
+		private static byte[] gzip(byte[] data) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 32);
+			GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+			gzip.write(data);
+			gzip.close();
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * Directory of z/x/y.pbf tiles (uncompressed, XYZ row order) with metadata.json. The hashes are kept in tile_hashes.txt
+	 */
+	private static class DirectoryStore implements TileStore {
+		private static final String HASH_FILE = "tile_hashes.txt";
+		private final File directory;
+		private final Map<Long, Long> hashes = new HashMap<Long, Long>();
+
+		DirectoryStore(String tiles_out_str) throws IOException {
+			this.directory = new File(tiles_out_str);
+			if (!directory.exists() && !directory.mkdirs()) {
+				throw new IOException("Could not create " + tiles_out_str);
+			}
+		}
+
+		@Override
+		public Map<Long, Long> readHashes() throws IOException {
+			File hashFile = new File(directory, HASH_FILE);
+			if (hashFile.exists()) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(hashFile), StandardCharsets.UTF_8));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						String[] fields = line.trim().split(" ");
+						if (fields.length != 4) continue;
+						hashes.put(getKey(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2])), Long.parseLong(fields[3]));
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			return new HashMap<Long, Long>(hashes);
+		}
+
+		@Override
+		public void put(long key, byte[] data, long hash) throws IOException {
+			File tile = getFile(key);
+			if (data == null) {
+				tile.delete();
+			} else {
+				tile.getParentFile().mkdirs();
+				FileOutputStream out = new FileOutputStream(tile);
+				try {
+					out.write(data);
+				} finally {
+					out.close();
+				}
+			}
+			hashes.put(key, hash);
+		}
+
+		@Override
+		public void delete(long key) throws IOException {
+			getFile(key).delete();
+			hashes.remove(key);
+		}
+
+		@Override
+		public void writeMetadata(List<Layer> layers, Envelope bounds, int minZoom, int maxZoom) throws IOException {
+			String json = getVectorLayersJson(layers, minZoom, maxZoom);
+			json = "{\"tilejson\":\"3.0.0\",\"name\":\"" + directory.getName() + "\",\"tiles\":[\"{z}/{x}/{y}.pbf\"],\"minzoom\":" + minZoom
+					+ ",\"maxzoom\":" + maxZoom + ",\"bounds\":[" + toLongitude(bounds.getMinX()) + "," + toLatitude(bounds.getMinY()) + ","
+					+ toLongitude(bounds.getMaxX()) + "," + toLatitude(bounds.getMaxY()) + "]," + json.substring(1);
+			write(new File(directory, "metadata.json"), json);
+		}
+
+		@Override
+		public void commit() throws IOException {
+			StringBuilder lines = new StringBuilder();
+			for (Map.Entry<Long, Long> entry : hashes.entrySet()) {
+				long key = entry.getKey();
+				lines.append(getZoom(key)).append(' ').append(getX(key)).append(' ').append(getY(key)).append(' ').append(entry.getValue()).append('\n');
+			}
+			write(new File(directory, HASH_FILE), lines.toString());
+		}
+
+		@Override
+		public void close() {
+		}
+
+		private File getFile(long key) {
+			return new File(directory, getZoom(key) + File.separator + getX(key) + File.separator + getY(key) + ".pbf");
+		}
+
+		private static void write(File file, String content) throws IOException {
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+			try {
+				writer.write(content);
+			} finally {
+				writer.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package preprocessing.sweep;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import preprocessing.connectionsAPI.Candidate;
+import preprocessing.featureMatchingAPI.BusLinkMatching;
+import preprocessing.featureMatchingAPI.BusStopIndex;
+import preprocessing.featureMatchingAPI.LiftLinkMatching;
+import preprocessing.featureMatchingAPI.SlopeLinkMatching;
+import preprocessing.grading_strategy.BusLinkStrategy;
+import preprocessing.grading_strategy.GradingStrategy;
+import preprocessing.grading_strategy.LiftLinkGrading;
+import preprocessing.grading_strategy.SlopeLiftGrading;
+import preprocessing.grading_strategy.SlopeLinkGrading;
+import preprocessing.util.GeometryOperations;
+import preprocessing.util.ParallelOperations;
+
+/**
+ * A class which evaluates several threshold configurations (variants) on the same input features.
+ * Candidates are fetched once, with the matchers running at the maximum thresholds of all variants (candidate superset).
+ * Each variant then re-validates and grades the superset with its own thresholds and the connectivity of the resulting network is checked.
+ * Variants are evaluated in parallel, since they only read the shared superset.
+ *
+ * Connectivity is checked at feature level: every lift, slope, bus line and bus stop is a node,
+ * qualifying links (grade contained in the variant's LINK_GRADES), slope intersections and bus line to bus stop incidences are the edges
+ */
+public class ParameterSweep {
+	private final SimpleFeature[] lifts;
+	private final SimpleFeature[] slopes;
+	private final SimpleFeature[] buses;
+	private final SimpleFeature[] stops;
+
+	//candidate superset, per candidate type
+	private CandidateSet liftCandidates;
+	private CandidateSet slopeLiftCandidates;
+	private CandidateSet slopeCandidates;
+	private CandidateSet busCandidates;
+	private List<Candidate> intersections = new ArrayList<Candidate>();
+	//edges of the network that do not depend on thresholds (bus line to bus stop incidences)
+	private List<String[]> busLineEdges = new ArrayList<String[]>();
+
+	//helper sets to resolve the features a candidate connects
+	private Set<String> liftIds = new HashSet<String>();
+	private Set<String> slopeIds = new HashSet<String>();
+	private Set<String> stopIds = new HashSet<String>();
+	private Set<Coordinate> liftEndpoints = new HashSet<Coordinate>();
+	private Set<Coordinate> stopCoords = new HashSet<Coordinate>();
+
+	/**
+	 * Class constructor
+	 * @param lifts - lift features
+	 * @param slopes - single LineString slope features
+	 * @param buses - bus line features, or null if not present
+	 * @param stops - bus stop features, or null if not present
+	 */
+	public ParameterSweep(SimpleFeature[] lifts, SimpleFeature[] slopes, SimpleFeature[] buses, SimpleFeature[] stops) {
+		this.lifts = lifts;
+		this.slopes = slopes;
+		this.buses = buses;
+		this.stops = stops;
+	}
+
+	/**
+	 * Runs the sweep: fetches the candidate superset and evaluates every variant on it
+	 * @param variants - threshold configurations to evaluate
+	 * @return List of results, same order as variants
+	 */
+	public List<SweepResult> run(List<SweepVariant> variants) {
+		if (variants.isEmpty()) {
+			return new ArrayList<SweepResult>();
+		}
+		long startTime = System.currentTimeMillis();
+		fetchCandidateSuperset(SweepVariant.max(variants));
+		long supersetTime = System.currentTimeMillis() - startTime;
+		System.out.println("Candidate superset fetched in " + supersetTime + " msecs");
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, "Sweep candidate superset fetched in " + supersetTime + " msecs");
+
+		List<Callable<SweepResult>> tasks = new ArrayList<Callable<SweepResult>>();
+		for (final SweepVariant variant : variants) {
+			tasks.add(new Callable<SweepResult>() {
+				@Override
+				public SweepResult call() {
+					return evaluate(variant);
+				}
+			});
+		}
+		startTime = System.currentTimeMillis();
+		List<SweepResult> results = ParallelOperations.invokeAll(tasks);
+		long evaluationTime = System.currentTimeMillis() - startTime;
+		System.out.println(variants.size() + " variants evaluated in " + evaluationTime + " msecs");
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, "Sweep evaluated " + variants.size() + " variants in " + evaluationTime + " msecs");
+		return results;
+	}
+
+	/**
+	 * Runs the matchers once with the maximum distance thresholds and keeps their raw candidates.
+	 * The links the matchers create on the way are validated and graded with the configured thresholds and not used
+	 * @param max - variant with the element-wise maximum thresholds
+	 */
+	private void fetchCandidateSuperset(SweepVariant max) {
+		System.out.println("Fetching candidate superset with: " + max);
+
+		LiftLinkMatching liftMatching = new LiftLinkMatching(lifts, max.getLift_distances(), true);
+		SlopeLinkMatching slopeMatching = new SlopeLinkMatching(slopes, lifts, max.getSlope_distances(), true);
+		BusLinkMatching busMatching = null;
+		if (buses != null && stops != null) {
+			busMatching = new BusLinkMatching(buses, stops, slopes, lifts, max.getBus_distances(), true);
+		}
+
+		List<Candidate> slopeLift = new ArrayList<Candidate>(), slope2Slope = new ArrayList<Candidate>();
+		for (Candidate cand : slopeMatching.getCandidates()) {
+			if (cand.getType().equals("SlopeLift")) {
+				slopeLift.add(cand);
+			} else if (cand.getType().equals("Slope2Slope")) {
+				slope2Slope.add(cand);
+			} else {
+				//intersections and common end-points (same as the slope_intersections output)
+				intersections.add(cand);
+			}
+		}
+
+		initNodeResolution(busMatching != null ? busMatching.getStopIndex() : null);
+		liftCandidates = new CandidateSet(liftMatching.getCandidates());
+		slopeLiftCandidates = new CandidateSet(slopeLift);
+		slopeCandidates = new CandidateSet(slope2Slope);
+		busCandidates = new CandidateSet(busMatching != null ? busMatching.getCandidates() : new ArrayList<Candidate>());
+		System.out.println("Candidate superset: " + liftCandidates.size() + " lift, " + slopeLiftCandidates.size() + " slope-lift, "
+				+ slopeCandidates.size() + " slope, " + busCandidates.size() + " bus candidates and " + intersections.size() + " intersections");
+	}
+
+	/**
+	 * Fills the helper sets used to resolve the features of a candidate and the bus line to bus stop edges
+	 * @param stopIndex - bus stop to bus line associations of the bus matcher, or null if there are no bus lines or stops
+	 */
+	private void initNodeResolution(BusStopIndex stopIndex) {
+		for (SimpleFeature lift : lifts) {
+			liftIds.add(lift.getAttribute("XML_GID").toString());
+			Coordinate[] endpoints = GeometryOperations.getOrderedEndPoints(lift);
+			liftEndpoints.add(endpoints[0]);
+			liftEndpoints.add(endpoints[1]);
+		}
+		for (SimpleFeature slope : slopes) {
+			slopeIds.add(slope.getAttribute("XML_GID").toString());
+		}
+		if (stopIndex == null) return;
+
+		for (BusStopIndex.BusStop stop : stopIndex.getStops()) {
+			stopIds.add(stop.getId());
+			stopCoords.add(stop.getCoordinate());
+		}
+		//same bus stop to bus line associations as the bus matcher
+		for (int lineIndex = 0; lineIndex < buses.length; lineIndex++) {
+			String lineNode = "B:" + buses[lineIndex].getAttribute("DB_ID").toString();
+			for (BusStopIndex.StopOnLine stopOnLine : stopIndex.getStopsOnLine(lineIndex)) {
+				busLineEdges.add(new String[]{lineNode, "P:" + stopOnLine.getStop().getId()});
+			}
+		}
+	}
+
+	/**
+	 * Re-validates and grades the candidate superset with the thresholds of the variant and checks the connectivity of the network
+	 * @param variant
+	 * @return SweepResult
+	 */
+	private SweepResult evaluate(SweepVariant variant) {
+		String grades = variant.getGrades();
+		UnionFind network = new UnionFind();
+		for (SimpleFeature lift : lifts) {
+			network.add("L:" + lift.getAttribute("XML_GID").toString());
+		}
+		for (SimpleFeature slope : slopes) {
+			network.add("S:" + slope.getAttribute("XML_GID").toString());
+		}
+		if (buses != null) {
+			for (SimpleFeature busLine : buses) {
+				network.add("B:" + busLine.getAttribute("DB_ID").toString());
+			}
+		}
+		int edges = 0;
+		for (Candidate intersection : intersections) {
+			network.union("S:" + intersection.getXml_gid_start(), "S:" + intersection.getXml_gid_end());
+			edges++;
+		}
+		for (String[] busLineEdge : busLineEdges) {
+			network.union(busLineEdge[0], busLineEdge[1]);
+			edges++;
+		}
+
+		//candidate distance thresholds as used by the matchers, height thresholds as used by Candidate validation
+		int[] qualifying = new int[1];
+		int liftLinks = liftCandidates.evaluate(variant.getLift_distances()[0] + 0.5, variant.getLift_heights()[0] + 0.5,
+				new LiftLinkGrading(variant.getLift_distances(), variant.getLift_heights()), grades, network, qualifying);
+		int slopeLiftLinks = slopeLiftCandidates.evaluate(variant.getSlope_distances()[0] + 0.5, variant.getSlope_heights()[0] + 0.5,
+				new SlopeLiftGrading(variant.getSlope_distances(), variant.getSlope_heights()), grades, network, qualifying);
+		int slopeLinks = slopeCandidates.evaluate(Double.MAX_VALUE, variant.getSlope_heights()[5] + 0.5,
+				new SlopeLinkGrading(), grades, network, qualifying);
+		int busLinks = busCandidates.evaluate(variant.getBus_distances()[0] + 0.5, variant.getBus_heights()[0] + 0.5,
+				new BusLinkStrategy(variant.getBus_distances(), variant.getBus_heights()), grades, network, qualifying);
+		edges += qualifying[0];
+
+		return new SweepResult(variant, liftLinks, slopeLiftLinks, slopeLinks, busLinks, qualifying[0], network.size(), edges, network.components());
+	}
+
+	/**
+	 * Resolves the network node of one side of a candidate. Feature ids of different feature types may coincide,
+	 * so the candidate coordinate is used to tell lifts and bus stops apart
+	 */
+	private String resolveNode(Candidate cand, String id, Coordinate coord) {
+		switch (cand.getType()) {
+			case "LiftLink":
+				return "L:" + id;
+			case "Slope2Slope":
+				return "S:" + id;
+			case "SlopeLift":
+				return isLift(id, coord) ? "L:" + id : "S:" + id;
+			case "BusLink":
+				if (stopIds.contains(id) && stopCoords.contains(coord)) return "P:" + id;
+				return isLift(id, coord) ? "L:" + id : "S:" + id;
+			default:
+				return null;
+		}
+	}
+
+	private boolean isLift(String id, Coordinate coord) {
+		return liftIds.contains(id) && (!slopeIds.contains(id) || liftEndpoints.contains(coord));
+	}
+
+	/**
+	 * The candidates of one type with their lengths, height differences and network nodes, computed once and shared by all variants
+	 */
+	private class CandidateSet {
+		private final double[] lengths;
+		private final double[] heightDifs;
+		private final Candidate[] candidates;
+		private final String[] startNodes;
+		private final String[] endNodes;
+
+		CandidateSet(List<Candidate> cands) {
+			int size = cands.size();
+			this.candidates = cands.toArray(new Candidate[size]);
+			this.lengths = new double[size];
+			this.heightDifs = new double[size];
+			this.startNodes = new String[size];
+			this.endNodes = new String[size];
+			for (int i = 0; i < size; i++) {
+				Candidate cand = candidates[i];
+				lengths[i] = cand.getDistance();
+				heightDifs[i] = cand.getHeightDiff();
+				startNodes[i] = resolveNode(cand, cand.getXml_gid_start(), cand.getStartPoint());
+				endNodes[i] = resolveNode(cand, cand.getXml_gid_end(), cand.getEndPoint());
+			}
+		}
+
+		int size() {
+			return candidates.length;
+		}
+
+		/**
+		 * Filters the candidates by distance and height thresholds, grades them in one batch and adds qualifying links to the network
+		 * @return number of links (candidates that pass validation and are not graded E)
+		 */
+		int evaluate(double maxDistance, double maxHeightDif, GradingStrategy strategy, String qualifyingGrades, UnionFind network, int[] qualifying) {
+			char[] grades = strategy.gradeAll(lengths, heightDifs);
+			int links = 0;
+			for (int i = 0; i < candidates.length; i++) {
+				if (lengths[i] >= maxDistance || !candidates[i].isValid(maxHeightDif)) continue;
+				//links with grade E are deleted. Links with no grade keep the initial (empty) grade and are not qualifying
+				if (grades[i] == 'E') continue;
+				links++;
+				if (grades[i] != '\u0000' && qualifyingGrades.indexOf(grades[i]) >= 0) {
+					network.union(startNodes[i], endNodes[i]);
+					qualifying[0]++;
+				}
+			}
+			return links;
+		}
+	}
+
+	/**
+	 * Union-find over string node keys, with path compression. Used to count the connected components of the network
+	 */
+	private static class UnionFind {
+		private final Map<String, String> parent = new HashMap<String, String>();
+		private int components = 0;
+
+		void add(String node) {
+			if (!parent.containsKey(node)) {
+				parent.put(node, node);
+				components++;
+			}
+		}
+
+		String find(String node) {
+			add(node);
+			String root = node;
+			while (!parent.get(root).equals(root)) {
+				root = parent.get(root);
+			}
+			while (!node.equals(root)) {
+				String next = parent.get(node);
+				parent.put(node, root);
+				node = next;
+			}
+			return root;
+		}
+
+		void union(String a, String b) {
+			String rootA = find(a), rootB = find(b);
+			if (!rootA.equals(rootB)) {
+				parent.put(rootA, rootB);
+				components--;
+			}
+		}
+
+		int size() {
+			return parent.size();
+		}
+
+		int components() {
+			return components;
+		}
+	}
+}
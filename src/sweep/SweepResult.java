@@ -0,0 +1,84 @@
+package preprocessing.sweep;
+
+/**
+ * A class which holds the outcome of one parameter sweep variant: link counts per link type and connectivity of the resulting network
+ */
+public class SweepResult {
+	private final SweepVariant variant;
+	private final int liftLinks;
+	private final int slopeLiftLinks;
+	private final int slopeLinks;
+	private final int busLinks;
+	private final int qualifyingLinks;
+	private final int nodes;
+	private final int edges;
+	private final int components;
+
+	public SweepResult(SweepVariant variant, int liftLinks, int slopeLiftLinks, int slopeLinks, int busLinks, int qualifyingLinks,
+			int nodes, int edges, int components) {
+		this.variant = variant;
+		this.liftLinks = liftLinks;
+		this.slopeLiftLinks = slopeLiftLinks;
+		this.slopeLinks = slopeLinks;
+		this.busLinks = busLinks;
+		this.qualifyingLinks = qualifyingLinks;
+		this.nodes = nodes;
+		this.edges = edges;
+		this.components = components;
+	}
+
+	public static String getCsvHeader() {
+		return "variant;lift_links;slope_lift_links;slope_links;bus_links;qualifying_links;nodes;edges;components;connected";
+	}
+
+	public String toCsvLine() {
+		return variant.getName() + ";" + liftLinks + ";" + slopeLiftLinks + ";" + slopeLinks + ";" + busLinks + ";" + qualifyingLinks
+				+ ";" + nodes + ";" + edges + ";" + components + ";" + isConnected();
+	}
+
+	public SweepVariant getVariant() {
+		return variant;
+	}
+
+	public int getLiftLinks() {
+		return liftLinks;
+	}
+
+	public int getSlopeLiftLinks() {
+		return slopeLiftLinks;
+	}
+
+	public int getSlopeLinks() {
+		return slopeLinks;
+	}
+
+	public int getBusLinks() {
+		return busLinks;
+	}
+
+	public int getQualifyingLinks() {
+		return qualifyingLinks;
+	}
+
+	public int getNodes() {
+		return nodes;
+	}
+
+	public int getEdges() {
+		return edges;
+	}
+
+	public int getComponents() {
+		return components;
+	}
+
+	public boolean isConnected() {
+		return components == 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-20s lift: %5d, slope-lift: %5d, slope: %5d, bus: %5d, qualifying: %5d, nodes: %5d, edges: %5d, components: %4d, connected: %s",
+				variant.getName(), liftLinks, slopeLiftLinks, slopeLinks, busLinks, qualifyingLinks, nodes, edges, components, isConnected());
+	}
+}
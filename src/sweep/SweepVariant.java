@@ -0,0 +1,179 @@
+package preprocessing.sweep;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import preprocessing.StartConfiguration;
+import preprocessing.util.FileOperations;
+
+/**
+ * A class which holds one threshold configuration of a parameter sweep.
+ * A variant is read from a configuration file (same syntax as the program configuration file),
+ * of which only the tunable thresholds are used: LIFTS_DIST, LIFTS_HEIGHT_DIF, SLOPES_DIST, SLOPES_HEIGHT_DIF, BUS_DIST, BUS_HEIGHT_DIF and LINK_GRADES.
+ * Thresholds not present in the variant file are taken from the base configuration
+ */
+public class SweepVariant {
+	private final String name;
+	private final int[] lift_distances;
+	private final int[] lift_heights;
+	private final int[] slope_distances;
+	private final int[] slope_heights;
+	private final int[] bus_distances;
+	private final int[] bus_heights;
+	private final String grades;
+
+	public SweepVariant(String name, int[] lift_distances, int[] lift_heights, int[] slope_distances, int[] slope_heights,
+			int[] bus_distances, int[] bus_heights, String grades) {
+		this.name = name;
+		this.lift_distances = lift_distances;
+		this.lift_heights = lift_heights;
+		this.slope_distances = slope_distances;
+		this.slope_heights = slope_heights;
+		this.bus_distances = bus_distances;
+		this.bus_heights = bus_heights;
+		this.grades = grades;
+	}
+
+	/**
+	 * Creates a variant with the thresholds of the given configuration
+	 * @param config
+	 * @return SweepVariant
+	 */
+	public static SweepVariant fromConfiguration(StartConfiguration config) {
+		return new SweepVariant("base", config.getLift_distances(), config.getLift_heights(), config.getSlope_distances(), config.getSlope_heights(),
+				config.getBus_distances(), config.getBus_heights(), config.getGrades());
+	}
+
+	/**
+	 * Reads a variant from a configuration file. Thresholds missing or with wrong number of values are taken from base
+	 * @param file - path of the variant configuration file
+	 * @param base - variant providing the thresholds not present in the file
+	 * @return SweepVariant
+	 */
+	public static SweepVariant fromFile(String file, SweepVariant base) {
+		int[] liftDist = base.lift_distances, liftHeights = base.lift_heights, slopeDist = base.slope_distances,
+				slopeHeights = base.slope_heights, busDist = base.bus_distances, busHeights = base.bus_heights;
+		String grades = base.grades;
+
+		String content = FileOperations.readFile(file);
+		for (String line : content.split("\\r?\\n|\\r")) {
+			if (line.contains("#") || !line.contains("=")) continue;
+			String key = line.substring(0, line.indexOf("=")).trim().toLowerCase();
+			String value = line.substring(line.indexOf("=") + 1).trim();
+			switch (key) {
+				case "lifts_dist":
+					liftDist = parseThresholds(value, base.lift_distances, file, key);
+					break;
+				case "lifts_height_dif":
+					liftHeights = parseThresholds(value, base.lift_heights, file, key);
+					break;
+				case "slopes_dist":
+					slopeDist = parseThresholds(value, base.slope_distances, file, key);
+					break;
+				case "slopes_height_dif":
+					slopeHeights = parseThresholds(value, base.slope_heights, file, key);
+					break;
+				case "bus_dist":
+					busDist = parseThresholds(value, base.bus_distances, file, key);
+					break;
+				case "bus_height_dif":
+					busHeights = parseThresholds(value, base.bus_heights, file, key);
+					break;
+				case "link_grades":
+					grades = value.replace(",", "").replace(" ", "").toUpperCase();
+					break;
+			}
+		}
+		return new SweepVariant(new File(file).getName(), liftDist, liftHeights, slopeDist, slopeHeights, busDist, busHeights, grades);
+	}
+
+	/**
+	 * Parses a comma separated list of thresholds. The list must have as many values as the base thresholds, otherwise base is returned
+	 */
+	private static int[] parseThresholds(String value, int[] base, String file, String key) {
+		String[] items = value.split(",");
+		if (base != null && items.length != base.length) {
+			Logger.getLogger(SweepVariant.class.getName()).log(Level.WARNING, file + ": " + key + " needs " + base.length + " values. Using base configuration values");
+			return base;
+		}
+		int[] thresholds = new int[items.length];
+		for (int i = 0; i < items.length; i++) {
+			thresholds[i] = Integer.parseInt(items[i].trim());
+		}
+		return thresholds;
+	}
+
+	/**
+	 * Returns a variant whose thresholds are the element-wise maximum of all given variants.
+	 * It is used to fetch the candidate superset, out of which every variant's candidates can be re-validated
+	 * @param variants
+	 * @return SweepVariant
+	 */
+	public static SweepVariant max(List<SweepVariant> variants) {
+		SweepVariant first = variants.get(0);
+		int[] liftDist = copy(first.lift_distances), liftHeights = copy(first.lift_heights), slopeDist = copy(first.slope_distances),
+				slopeHeights = copy(first.slope_heights), busDist = copy(first.bus_distances), busHeights = copy(first.bus_heights);
+		for (SweepVariant variant : variants) {
+			maxInto(liftDist, variant.lift_distances);
+			maxInto(liftHeights, variant.lift_heights);
+			maxInto(slopeDist, variant.slope_distances);
+			maxInto(slopeHeights, variant.slope_heights);
+			maxInto(busDist, variant.bus_distances);
+			maxInto(busHeights, variant.bus_heights);
+		}
+		return new SweepVariant("max", liftDist, liftHeights, slopeDist, slopeHeights, busDist, busHeights, first.grades);
+	}
+
+	private static int[] copy(int[] array) {
+		return array == null ? null : Arrays.copyOf(array, array.length);
+	}
+
+	private static void maxInto(int[] target, int[] values) {
+		if (target == null || values == null) return;
+		for (int i = 0; i < target.length && i < values.length; i++) {
+			target[i] = Math.max(target[i], values[i]);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int[] getLift_distances() {
+		return lift_distances;
+	}
+
+	public int[] getLift_heights() {
+		return lift_heights;
+	}
+
+	public int[] getSlope_distances() {
+		return slope_distances;
+	}
+
+	public int[] getSlope_heights() {
+		return slope_heights;
+	}
+
+	public int[] getBus_distances() {
+		return bus_distances;
+	}
+
+	public int[] getBus_heights() {
+		return bus_heights;
+	}
+
+	public String getGrades() {
+		return grades;
+	}
+
+	@Override
+	public String toString() {
+		return "SweepVariant [name=" + name + ", lift_distances=" + Arrays.toString(lift_distances) + ", lift_heights=" + Arrays.toString(lift_heights)
+				+ ", slope_distances=" + Arrays.toString(slope_distances) + ", slope_heights=" + Arrays.toString(slope_heights)
+				+ ", bus_distances=" + Arrays.toString(bus_distances) + ", bus_heights=" + Arrays.toString(bus_heights) + ", grades=" + grades + "]";
+	}
+}
@@ -0,0 +1,175 @@
+package preprocessing.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A logging handler which hands the log records to a target handler (the log FileHandler) on a background thread, through a
+ * fixed size ring buffer. The ring buffer is not lock-free, it is guarded by its monitor (synchronized), which publish holds
+ * only to store the record. Formatting and file I/O happen on the background thread outside the lock, so logging threads never
+ * wait on the disk. If the ring buffer is full, records below WARNING are dropped and counted instead of blocking the caller,
+ * WARNING and SEVERE records wait for a free slot so they are never lost.
+ * close writes the records in the ring buffer and closes the target handler
+ */
+public class AsyncLogHandler extends Handler {
+	private final Handler target;
+	private final LogRecord[] ring;
+	private final int mask;
+	//next slot to write (head) and to read (tail), number of records passed to the target handler (written), guarded by the ring buffer
+	private long head = 0;
+	private long tail = 0;
+	private long written = 0;
+	private boolean consumerWaiting = false;
+	private volatile boolean closed = false;
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread consumer;
+
+	/**
+	 * Class constructor, starts the background thread
+	 * @param target - handler the records are passed to, used by the background thread only
+	 * @param capacity - size of the ring buffer, rounded up to a power of two
+	 */
+	public AsyncLogHandler(Handler target, int capacity) {
+		this.target = target;
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.ring = new LogRecord[size];
+		this.mask = size - 1;
+		setLevel(target.getLevel());
+		this.consumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "async-log-handler");
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (closed || !isLoggable(record)) return;
+		//caller information has to be taken on the logging thread
+		record.getSourceClassName();
+		boolean important = record.getLevel().intValue() >= Level.WARNING.intValue();
+		synchronized (ring) {
+			while (head - tail == ring.length) {
+				if (!important || closed || !consumer.isAlive() || Thread.currentThread() == consumer) {
+					dropped.incrementAndGet();
+					return;
+				}
+				try {
+					ring.wait(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped.incrementAndGet();
+					return;
+				}
+			}
+			ring[(int) (head++ & mask)] = record;
+			if (consumerWaiting) {
+				//flush and publish may wait on the ring buffer as well
+				ring.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until the records published so far are passed to the target handler, then flushes the target handler
+	 */
+	@Override
+	public void flush() {
+		long published;
+		synchronized (ring) {
+			published = head;
+			//the background thread cannot wait for its own batch
+			while (written < published && consumer.isAlive() && Thread.currentThread() != consumer) {
+				try {
+					ring.wait(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		target.flush();
+	}
+
+	/**
+	 * Writes the records in the ring buffer and closes the target handler. Further records are ignored
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		synchronized (ring) {
+			ring.notifyAll();
+		}
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (dropped.get() > 0) {
+			target.publish(new LogRecord(Level.WARNING, dropped.get() + " log records dropped, log ring buffer full"));
+		}
+		target.close();
+	}
+
+	/**
+	 * @return the number of records dropped because the ring buffer was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Background thread: takes the records from the ring buffer and passes them to the target handler
+	 */
+	private void drain() {
+		LogRecord[] batch = new LogRecord[Math.min(ring.length, 256)];
+		while (true) {
+			int count = 0;
+			synchronized (ring) {
+				while (head == tail) {
+					if (closed) {
+						target.flush();
+						return;
+					}
+					consumerWaiting = true;
+					try {
+						ring.wait(1000);
+					} catch (InterruptedException e) {
+						//only close stops the thread
+					}
+					consumerWaiting = false;
+				}
+				while (tail < head && count < batch.length) {
+					int slot = (int) (tail++ & mask);
+					batch[count++] = ring[slot];
+					ring[slot] = null;
+				}
+				//wakes the publishers waiting for a free slot
+				ring.notifyAll();
+			}
+			for (int i = 0; i < count; i++) {
+				try {
+					target.publish(batch[i]);
+				} catch (RuntimeException e) {
+					reportError("Async log record not written", e, ErrorManager.WRITE_FAILURE);
+				}
+				batch[i] = null;
+			}
+			if (count < batch.length) {
+				target.flush();
+			}
+			synchronized (ring) {
+				//taken records count as written only now, flush waits for them
+				written += count;
+				ring.notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package preprocessing.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * A read-only SimpleFeatureCollection view which chains several collections of the same feature type without copying their features.
+ * Features are iterated collection after collection, in the order the collections were added. Size and bounds are computed from the
+ * chained collections. Used for the merged_pivots assembly, instead of merging the collections pairwise into new lists
+ */
+public class CompositeFeatureCollection extends AbstractFeatureCollection {
+	private final List<SimpleFeatureCollection> parts = new ArrayList<SimpleFeatureCollection>();
+
+	/**
+	 * Class constructor
+	 * @param schema - the feature type of all chained collections
+	 */
+	public CompositeFeatureCollection(SimpleFeatureType schema) {
+		super(schema);
+	}
+
+	/**
+	 * Chains a collection at the end of the view. Null or empty collections are ignored
+	 * @param collection
+	 * @return this, to chain calls
+	 */
+	public CompositeFeatureCollection add(SimpleFeatureCollection collection) {
+		if (collection == null || collection.isEmpty()) {
+			return this;
+		}
+		if (!getSchema().getTypes().equals(collection.getSchema().getTypes())) {
+			System.err.println("CompositeFeatureCollection.add Warning: Different SimpleFeatureTypes.");
+		}
+		parts.add(collection);
+		return this;
+	}
+
+	/**
+	 * @return the chained collections, in iteration order
+	 */
+	public List<SimpleFeatureCollection> getParts() {
+		return Collections.unmodifiableList(parts);
+	}
+
+	@Override
+	protected Iterator<SimpleFeature> openIterator() {
+		return new CompositeIterator();
+	}
+
+	@Override
+	protected void closeIterator(Iterator<SimpleFeature> close) {
+		if (close instanceof CompositeIterator) {
+			((CompositeIterator) close).close();
+		}
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (SimpleFeatureCollection part : parts) {
+			size += part.size();
+		}
+		return size;
+	}
+
+	@Override
+	public ReferencedEnvelope getBounds() {
+		ReferencedEnvelope bounds = new ReferencedEnvelope(getSchema().getCoordinateReferenceSystem());
+		for (SimpleFeatureCollection part : parts) {
+			bounds.include(part.getBounds());
+		}
+		return bounds;
+	}
+
+	/**
+	 * Iterates the features of the chained collections one after the other. The feature iterator of each collection
+	 * is closed as soon as it is exhausted
+	 */
+	private class CompositeIterator implements Iterator<SimpleFeature> {
+		private int partIndex = 0;
+		private SimpleFeatureIterator current = null;
+
+		@Override
+		public boolean hasNext() {
+			while (current == null || !current.hasNext()) {
+				if (current != null) {
+					current.close();
+					current = null;
+				}
+				if (partIndex >= parts.size()) {
+					return false;
+				}
+				current = parts.get(partIndex++).features();
+			}
+			return true;
+		}
+
+		@Override
+		public SimpleFeature next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+
+		/**
+		 * Closes the feature iterator of the current collection, in case iteration stopped before the end
+		 */
+		void close() {
+			if (current != null) {
+				current.close();
+				current = null;
+			}
+			partIndex = parts.size();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("CompositeFeatureCollection is read-only");
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package preprocessing.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Diagnostics channel for messages reported from inside the matching and graph building loops.
+ * Every report is counted per category. The message is logged only if the global logger is loggable at the given level, and
+ * its parts are concatenated when the record is formatted (on the log handler thread), not by the reporting loop.
+ * The counts are printed at the end of the run with printSummary
+ */
+public class Diagnostics {
+	
+	public enum Category {
+		UNCONNECTED_LIFT("lifts with no upper or lower links"),
+		DUPLICATE_FEATURE("duplicate features deleted"),
+		GRAPH_SEGMENT("graph segments without two vertices"),
+		GRAPH_DIRECTION("graph edges with wrong direction"),
+		GRAPH_EDGE("graph edges not valid");
+		
+		private final String description;
+		private final AtomicLong count = new AtomicLong();
+		
+		private Category(String description) {
+			this.description = description;
+		}
+		
+		public String getDescription() {
+			return description;
+		}
+		
+		public long getCount() {
+			return count.get();
+		}
+	}
+	
+	/**
+	 * Counts a diagnostic message of the given category and logs it if the level is enabled
+	 * @param level - log level of the message
+	 * @param category - category the message is counted in
+	 * @param parts - message parts, concatenated with String.valueOf when the message is written
+	 */
+	public static void report(Level level, Category category, Object... parts) {
+		category.count.incrementAndGet();
+		Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+		if (!logger.isLoggable(level)) return;
+		LogRecord record = new LazyRecord(level, parts);
+		//source is set here, so the handler does not walk the stack of the reporting thread
+		record.setSourceClassName(Diagnostics.class.getName());
+		record.setSourceMethodName(category.name());
+		record.setLoggerName(logger.getName());
+		logger.log(record);
+	}
+	
+	/**
+	 * @return the number of reports per category, categories without reports are left out. Empty string if nothing was reported
+	 */
+	public static String getSummary() {
+		StringBuilder sb = new StringBuilder();
+		for (Category category : Category.values()) {
+			if (category.getCount() == 0) continue;
+			sb.append(category.getCount()).append(' ').append(category.getDescription()).append('\n');
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Prints the number of reports per category to the console and the log file
+	 */
+	public static void printSummary() {
+		String summary = getSummary();
+		if (summary.isEmpty()) return;
+		System.out.println("Diagnostics:\n" + summary);
+		Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+		//let the log handlers write the pending reports first, so the summary finds room in the log ring buffer
+		for (Handler handler : logger.getHandlers()) {
+			handler.flush();
+		}
+		logger.log(Level.INFO, "Diagnostics:\n" + summary);
+	}
+	
+	/**
+	 * Log record whose message is built from its parts on the first getMessage call
+	 */
+	private static class LazyRecord extends LogRecord {
+		private static final long serialVersionUID = 1L;
+		private transient Object[] parts;
+		
+		LazyRecord(Level level, Object[] parts) {
+			super(level, null);
+			this.parts = parts;
+		}
+		
+		@Override
+		public synchronized String getMessage() {
+			if (parts != null) {
+				StringBuilder sb = new StringBuilder();
+				for (Object part : parts) {
+					sb.append(String.valueOf(part));
+				}
+				parts = null;
+				super.setMessage(sb.toString());
+			}
+			return super.getMessage();
+		}
+	}
+}
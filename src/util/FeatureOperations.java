@@ -1,11 +1,11 @@
 package preprocessing.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,6 +32,7 @@ import com.vividsolutions.jts.linearref.LengthIndexedLine;
 import preprocessing.StartConfiguration;
 import preprocessing.connectionsAPI.AbstractPointPair;
 import preprocessing.connectionsAPI.Candidate;
+import preprocessing.util.Diagnostics.Category;
 
 /**
  * 
@@ -85,21 +86,6 @@ public class FeatureOperations {
 		return stb.buildFeatureType();
 	}
 	
-	/**
-	 * This method build a SimpleFeatureType with one geometry attribute of com.vividsolutions.jts.geom.Point class
-	 * @param crs		CoordinateReferenceSystem for the geometry
-	 * @param typeName	Name of the FeatureType
-	 * @return SimpleFeatureType
-	 */
-	private static SimpleFeatureType makePointFeatureType (CoordinateReferenceSystem crs, String typeName) {
-		SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
-		stb.setName(typeName);	//set name
-		stb.setCRS(crs);		//set crs
-		stb.add("the_geom", Point.class); //set geometry attribute
-		SimpleFeatureType TYPE = stb.buildFeatureType();
-		return TYPE;
-	}
-	
     /**
      * This method build a SimpleFeatureType with one geometry attribute of com.vividsolutions.jts.geom.Point class
      * @param crs		CoordinateReferenceSystem for the geometry
@@ -115,6 +101,22 @@ public class FeatureOperations {
 		return TYPE;
 	}
 	
+    /**
+     * @param coords_in
+     * @return LineString geometry with the coordinates, using the configured srid
+     */
+    public LineString createLineString(Coordinate[] coords_in) {
+    	return this.geometryFactory.createLineString(coords_in);
+    }
+    
+    /**
+     * @param point
+     * @return Point geometry at the coordinate, using the configured srid
+     */
+    public Point createPoint(Coordinate point) {
+    	return this.geometryFactory.createPoint(point);
+    }
+	
     /**
      * builds a point feature from a Coordinate object, using a provided feature type
      * @param: type {SimpleFeatureType} - a feature type template for the new feature to be created
@@ -168,19 +170,14 @@ public class FeatureOperations {
  	 */
     public SimpleFeatureCollection getIntersectionsFeatureCollection(List<Candidate> features, CoordinateReferenceSystem srid, String name) {
      	List<SimpleFeature> features_out = new ArrayList<SimpleFeature>();
-     	SimpleFeatureType pointType =  makePointFeatureType(srid, name);
+     	SimpleFeatureType pointType = SchemaRegistry.getIntersectionsType(srid, name);
+     	SimpleFeatureBuilder builder = SchemaRegistry.newBuilder(pointType);
      	for (Candidate feat: features) {
      		if (!feat.getType().equals("Slope2Slope")) {
-     			SimpleFeature sf_new = getFeatureFromCoordinates(pointType, feat.getStartPoint());
-     			//add attributes
-     			for (Map.Entry<String, Object> attribute : feat.getAttributes().entrySet()) {
-     				sf_new = addAttribute(sf_new, attribute.getKey(), attribute.getValue());
-     				sf_new.setAttribute(attribute.getKey(), attribute.getValue());
-     			}
-     			features_out.add(sf_new);
+     			features_out.add(SchemaRegistry.buildFeature(builder, createPoint(feat.getStartPoint()), feat.getAttributes()));
      		}
      	}
-     	SimpleFeatureCollection new_features = new ListFeatureCollection(features_out.get(0).getFeatureType(), features_out);
+     	SimpleFeatureCollection new_features = new ListFeatureCollection(pointType, features_out);
      	return new_features;
      }
     
@@ -194,26 +191,17 @@ public class FeatureOperations {
      */
     public SimpleFeatureCollection getFeatureCollectionFromLinks(SimpleFeatureType templateType, List<AbstractPointPair> links) {
 		List<SimpleFeature> features_out_pairs = new ArrayList<SimpleFeature>();
-		
-		templateType = clearAttributes(templateType);
+		SimpleFeatureType linksType = SchemaRegistry.getLinksType(templateType);
+		SimpleFeatureBuilder builder = SchemaRegistry.newBuilder(linksType);
 		
 		//for each coordinate pair, whose distance > 0, create a feature
 		for (AbstractPointPair link : links) {
 			if (link.getStartPoint().distance(link.getEndPoint()) > 0.00) {
 				Coordinate [] coords = {link.getStartPoint(), link.getEndPoint()};
-				SimpleFeature sf_new = getFeatureFromCoordinates(templateType, coords);
-				
-				//add attribute
-				for (Map.Entry<String, Object> attribute : link.getAttributes().entrySet()){
-					sf_new = addAttribute(sf_new, attribute.getKey(), attribute.getValue());
-					sf_new.setAttribute(attribute.getKey(), attribute.getValue());
-				}
-				
-				//end of attribute building
-				features_out_pairs.add(sf_new);
+				features_out_pairs.add(SchemaRegistry.buildFeature(builder, createLineString(coords), link.getAttributes()));
 			}
 		}
-    	SimpleFeatureCollection new_features = new ListFeatureCollection(features_out_pairs.get(0).getFeatureType(), features_out_pairs);
+    	SimpleFeatureCollection new_features = new ListFeatureCollection(linksType, features_out_pairs);
 		return new_features;
     }
   
@@ -282,8 +270,7 @@ public class FeatureOperations {
 				//Descending order of indices of the objects to be removed is crucial, not to affect remaining indices after each removal
 				Collections.sort(indicesToRemove, Collections.reverseOrder());
 				for (Integer index: indicesToRemove) {
-					System.err.println("DELETING DUPLICATE " + feature + ": " + listToCheck.get(index));
-					Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, "DELETING DUPLICATE " + feature + ": " + listToCheck.get(index));
+					Diagnostics.report(Level.INFO, Category.DUPLICATE_FEATURE, "DELETING DUPLICATE ", feature, ": ", listToCheck.get(index));
 					listToCheck.remove(listToCheck.get(index));
 				}
 			}
@@ -337,65 +324,151 @@ public class FeatureOperations {
 	/**
 	 * Takes a feature and a list of coordinates are parameters. The list of coordinates represents a list of the input feature's vertices, 
 	 * where the feature geometry should split. It splits the geometry at the given vertices and creates features for each derived geometry. 
+	 * Each split point is projected on the line once and the split points are processed ordered by their projected index. For single LineString
+	 * geometries all segments are extracted in one pass over the line vertices (z values of the split points are interpolated).
+	 * Split points in close proximity to the previous segment end-point (slopes: line start point, 1mm; bus lines: last end-point, 1m) are skipped.
 	 * @param originalFeature - feature to be split. Must have a LineString geometry type
 	 * @param segments_splitpoints - vertices where the feature should be split
 	 * @return list of derived features representing the split geometries
 	 */
 	public ArrayList<SimpleFeature> splitFeatureAtCoordinates(SimpleFeature originalFeature, List<Coordinate> segments_coords) {
-		//deep copy of segments_coords to avoid clash cause of object removal
-		List<Coordinate> segments_splitpoints = new ArrayList<Coordinate>();
-		for (Coordinate seg_coord: segments_coords) {
-			segments_splitpoints.add((Coordinate) seg_coord.clone());
-		}
-		
 		//set distance threshold to identify split points according to type
 		String type = originalFeature.getAttribute("XML_TYPE").toString();
+		boolean isSlope = type.equals("slopes");
 		double distForSplitPoint = (type.equals("buses")) ? 1 : 0.001;
 		
 		ArrayList<SimpleFeature> features_out = new ArrayList<SimpleFeature>();
+		SimpleFeatureBuilder featureBuilder = SchemaRegistry.newBuilder(SchemaRegistry.getSegmentsType(originalFeature.getFeatureType()));
 		
 		//fetch original feature vertices as LengthIndexedLine
 		Geometry lineGeom = (Geometry)originalFeature.getDefaultGeometry();
 		LengthIndexedLine line = new LengthIndexedLine(lineGeom);
-
+		
+		//project each split point once and order split points by projected index
+		final double[] projected = new double[segments_coords.size()];
+		Integer[] order = new Integer[segments_coords.size()];
+		for (int i = 0; i < projected.length; i++) {
+			projected[i] = line.project(segments_coords.get(i));
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(projected[a], projected[b]);
+			}
+		});
+		
+		//vertices and their cumulative length (length index) of a single LineString, to walk the line once
+		boolean singleLine = lineGeom.getNumGeometries() == 1;
+		Coordinate[] vertices = singleLine ? lineGeom.getGeometryN(0).getCoordinates() : null;
+		double[] cumulative = singleLine ? cumulativeLengths(vertices) : null;
+		int vertex = 0;
+		
 		int segment_number = 1;
 		double lastEndPointFlag = line.getStartIndex();
-		//fetch line segment of LengthIndexedLine for each point pair of segments_splitpoints. Check distance to next point every time, in case they coincide remove.
-		Iterator<Coordinate> iterator = segments_splitpoints.iterator();
-		while (iterator.hasNext()) {
-			//get split-point coordinate
-			Coordinate nextEnd = iterator.next();
+		Coordinate startPoint = line.extractPoint(line.getStartIndex());
+		//fetch line segment for each point pair of the ordered split points. In case a split point coincides with the previous end-point skip it
+		for (int k = 0; k < order.length; k++) {
+			double nextEnd = projected[order[k]];
+			Coordinate previous = isSlope ? startPoint : pointAtIndex(line, vertices, cumulative, lastEndPointFlag);
+			if (previous.distance(pointAtIndex(line, vertices, cumulative, nextEnd)) < distForSplitPoint) {
+				//move to the next split point
+				if (++k == order.length) break;
+				nextEnd = projected[order[k]];
+			}
 			
-			if (type.equals("slopes")) {
-				//if slope check if start point is in close proximity to split coordinate. Remove and move to the next split point.
-				if (line.extractPoint(0.0).distance(line.extractPoint(line.project(nextEnd))) < distForSplitPoint) {
-					iterator.remove();
-					nextEnd = iterator.next();
-				}
+			//extract line segment
+			Coordinate[] segmentCoords;
+			if (singleLine) {
+				//advance to the first vertex at or after the segment start
+				while (vertex < vertices.length && cumulative[vertex] < lastEndPointFlag) vertex++;
+				segmentCoords = extractSegment(vertices, cumulative, vertex, lastEndPointFlag, nextEnd);
 			} else {
-				//if bus line check distance from last end point. Remove and move to the next split point.
-				if (line.extractPoint(lastEndPointFlag).distance(line.extractPoint(line.project(nextEnd))) < distForSplitPoint) {
-					iterator.remove();
-					nextEnd = iterator.next();
-				}
+				segmentCoords = line.extractLine(lastEndPointFlag, nextEnd).getCoordinates();
 			}
-
-			//extract line segment
-			Geometry segment_geom = line.extractLine(lastEndPointFlag, line.project(nextEnd));
-			//create feature and add it to the output list
-			SimpleFeature segment = getFeatureFromCoordinates(originalFeature.getFeatureType(), segment_geom.getCoordinates());
-			//add r_id attribute
-			//TODO: method copy attributes needed to copy all original attributes to the derived features
-			segment = addAttribute(segment, "r_id", segment_number);
-			features_out.add(segment);
+			//create feature with r_id attribute and add it to the output list
+			featureBuilder.set(0, this.geometryFactory.createLineString(segmentCoords));
+			featureBuilder.set("r_id", segment_number);
+			features_out.add(featureBuilder.buildFeature(null));
 			segment_number++;
 			//pass end-point to flag
-			lastEndPointFlag = line.project(nextEnd);
+			lastEndPointFlag = nextEnd;
 		}
 
         return features_out;
 	}
 	
+	/**
+	 * Cumulative length of a line at each of its vertices, which is the length index of the vertex
+	 */
+	private static double[] cumulativeLengths(Coordinate[] vertices) {
+		double[] cumulative = new double[vertices.length];
+		for (int i = 1; i < vertices.length; i++) {
+			cumulative[i] = cumulative[i-1] + vertices[i-1].distance(vertices[i]);
+		}
+		return cumulative;
+	}
+	
+	/**
+	 * Returns the point of the line at the given length index, with interpolated z value
+	 */
+	private static Coordinate pointAtIndex(LengthIndexedLine line, Coordinate[] vertices, double[] cumulative, double index) {
+		if (vertices == null) {
+			return line.extractPoint(index);
+		}
+		int pos = Arrays.binarySearch(cumulative, index);
+		if (pos >= 0) {
+			//first vertex with this index
+			while (pos > 0 && cumulative[pos-1] == index) pos--;
+			return vertices[pos];
+		}
+		int next = -pos - 1;
+		if (next == 0) return vertices[0];
+		if (next == vertices.length) return vertices[vertices.length-1];
+		return interpolate(vertices, cumulative, next, index);
+	}
+	
+	/**
+	 * Interpolates the point at the given length index on the line segment ending at vertex next
+	 */
+	private static Coordinate interpolate(Coordinate[] vertices, double[] cumulative, int next, double index) {
+		Coordinate p0 = vertices[next-1], p1 = vertices[next];
+		double frac = (index - cumulative[next-1]) / (cumulative[next] - cumulative[next-1]);
+		return new Coordinate(p0.x + frac * (p1.x - p0.x), p0.y + frac * (p1.y - p0.y), p0.z + frac * (p1.z - p0.z));
+	}
+	
+	/**
+	 * Extracts the coordinates of the line between two length indices: the start point, all vertices in between and the end point.
+	 * Start and end point are interpolated unless they coincide with a vertex
+	 * @param vertices - line vertices
+	 * @param cumulative - length index of each vertex
+	 * @param first - first vertex with length index not smaller than start
+	 * @param start - length index of the segment start
+	 * @param end - length index of the segment end
+	 * @return segment coordinates (at least two)
+	 */
+	private static Coordinate[] extractSegment(Coordinate[] vertices, double[] cumulative, int first, double start, double end) {
+		double total = cumulative[cumulative.length-1];
+		start = Math.min(Math.max(start, 0.0), total);
+		end = Math.min(Math.max(end, 0.0), total);
+		List<Coordinate> coords = new ArrayList<Coordinate>();
+		if (first == vertices.length || cumulative[first] != start) {
+			coords.add(first == vertices.length ? vertices[vertices.length-1] : interpolate(vertices, cumulative, first, start));
+		}
+		int k = first;
+		while (k < vertices.length && cumulative[k] <= end) {
+			coords.add(vertices[k]);
+			k++;
+		}
+		if (k > 0 && cumulative[k-1] != end) {
+			coords.add(k == vertices.length ? vertices[vertices.length-1] : interpolate(vertices, cumulative, k, end));
+		}
+		if (coords.size() == 1) {
+			coords.add(coords.get(0));
+		}
+		return coords.toArray(new Coordinate[coords.size()]);
+	}
+	
 	/**
 	 * 
 	 * @param sfc1
@@ -8,19 +8,41 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.data.DefaultTransaction;
+import org.geotools.data.Query;
 import org.geotools.data.Transaction;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.shapefile.ShapefileDataStoreFactory;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.Point;
+
+import preprocessing.StartConfiguration;
 
 /**
  * 
@@ -75,23 +97,203 @@ public class FileOperations {
         return null;
     }
     
+    /**
+     * Loads the features of a shapefile in a single pass, reading only the given attribute columns (plus the geometry).
+     * A GeoTools Query with the property names is used, so the other DBF columns are not materialized. Property names not
+     * present in the shapefile are skipped. The data store is disposed after reading. Load time and file size (.shp + .dbf) are reported.
+     * The features are collected into an array, which the matchers index repeatedly, so the load is not a streaming one.
+     * If RAW_READER is set to true in the configuration file, the shapefile is decoded with the RawShapefileReader instead (see loadRawShapeFile)
+     * @param str_shp - path and file name of the shapefile to be read
+     * @param properties - names of the attributes to read, the geometry is always read
+     * @return SimpleFeature[] or null if the shapefile could not be read
+     */
+	public static SimpleFeature[] loadShapeFile(String str_shp, String[] properties) {
+		if (StartConfiguration.getInstance().isRawReader()) {
+			return loadRawShapeFile(str_shp, properties);
+		}
+		long startTime = System.currentTimeMillis();
+		File shape_file = new File(str_shp);
+		ShapefileDataStore dataStore = null;
+		SimpleFeatureIterator iterator = null;
+		try {
+			dataStore = new ShapefileDataStore(shape_file.toURI().toURL());
+			SimpleFeatureType schema = dataStore.getSchema();
+			//the geometry plus the requested attributes found in the schema
+			List<String> names = new ArrayList<String>();
+			names.add(schema.getGeometryDescriptor().getLocalName());
+			for (String property : properties) {
+				if (schema.getDescriptor(property) != null) {
+					names.add(property);
+				} else {
+					Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Attribute " + property + " not found in " + str_shp);
+				}
+			}
+			Query query = new Query(schema.getTypeName(), Filter.INCLUDE, names.toArray(new String[names.size()]));
+			
+			List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+			iterator = dataStore.getFeatureSource().getFeatures(query).features();
+			while (iterator.hasNext()) {
+				features.add(iterator.next());
+			}
+			
+			long bytes = shape_file.length() + new File(str_shp.substring(0, str_shp.length()-4) + ".dbf").length();
+			String report = "Loaded " + features.size() + " features from " + shape_file.getName() + " (" + bytes + " bytes, attributes " + names
+					+ ") in " + (System.currentTimeMillis() - startTime) + " msecs";
+			System.out.println(report);
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, report);
+			return features.toArray(new SimpleFeature[features.size()]);
+		} catch (MalformedURLException ex) {
+			Logger.getLogger(FileOperations.class.getName()).log(Level.SEVERE, null, ex);
+		} catch (IOException ex) {
+			Logger.getLogger(FileOperations.class.getName()).log(Level.SEVERE, null, ex);
+		} finally {
+			if (iterator != null) iterator.close();
+			if (dataStore != null) dataStore.dispose();
+		}
+		return null;
+	}
+    
+    /**
+     * Loads the features of a shapefile with the RawShapefileReader: the memory-mapped files are decoded in parallel by record range,
+     * then one feature is built per record, with the geometry (Point or MultiLineString, as the GeoTools shapefile reader gives them)
+     * and the requested attributes. Numeric attributes without decimals are read as Long, other numeric ones as Double, all others as String.
+     * Records marked as deleted in the .dbf file are skipped. The crs is read from the .prj file, if present
+     * @param str_shp - path and file name of the shapefile to be read
+     * @param properties - names of the attributes to read
+     * @return SimpleFeature[] or null if the shapefile could not be read
+     */
+	private static SimpleFeature[] loadRawShapeFile(String str_shp, String[] properties) {
+		long startTime = System.currentTimeMillis();
+		File shape_file = new File(str_shp);
+		RawShapefileReader.Shapes shapes;
+		try {
+			shapes = new RawShapefileReader(str_shp).read(properties, ParallelOperations.getParallelism());
+		} catch (IOException ex) {
+			Logger.getLogger(FileOperations.class.getName()).log(Level.SEVERE, null, ex);
+			return null;
+		}
+		
+		String typeName = shape_file.getName().substring(0, shape_file.getName().length()-4);
+		boolean isPoint = shapes.getShapeType() == RawShapefileReader.POINT || shapes.getShapeType() == RawShapefileReader.POINT_Z
+				|| shapes.getShapeType() == RawShapefileReader.POINT_M;
+		SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
+		stb.setName(typeName);
+		stb.setCRS(readPrj(str_shp));
+		stb.add("the_geom", isPoint ? Point.class : MultiLineString.class);
+		List<RawShapefileReader.Column> columns = new ArrayList<RawShapefileReader.Column>();
+		for (String property : properties) {
+			RawShapefileReader.Column column = shapes.getColumn(property);
+			if (column == null) continue;
+			stb.add(property, !column.isNumeric() ? String.class : (column.getDecimals() == 0 ? Long.class : Double.class));
+			columns.add(column);
+		}
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(stb.buildFeatureType());
+		
+		GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory(null);
+		int[] parts = shapes.getParts(), partOffsets = shapes.getPartOffsets(), pointOffsets = shapes.getPointOffsets();
+		List<SimpleFeature> features = new ArrayList<SimpleFeature>(shapes.getNumRecords());
+		for (int record = 0; record < shapes.getNumRecords(); record++) {
+			if (shapes.isDeleted(record)) continue;
+			//null shapes are read without geometry
+			if (partOffsets[record+1] > partOffsets[record]) {
+				if (isPoint) {
+					builder.set(0, geometryFactory.createPoint(shapes.getCoordinate(pointOffsets[record])));
+				} else {
+					LineString[] lines = new LineString[partOffsets[record+1] - partOffsets[record]];
+					for (int p = 0; p < lines.length; p++) {
+						int part = partOffsets[record] + p;
+						int end = (part + 1 < partOffsets[record+1]) ? parts[part+1] : pointOffsets[record+1];
+						Coordinate[] coords = new Coordinate[end - parts[part]];
+						for (int k = 0; k < coords.length; k++) {
+							coords[k] = shapes.getCoordinate(parts[part] + k);
+						}
+						lines[p] = geometryFactory.createLineString(coords);
+					}
+					builder.set(0, geometryFactory.createMultiLineString(lines));
+				}
+			}
+			for (RawShapefileReader.Column column : columns) {
+				if (!column.isNumeric()) {
+					builder.set(column.getName(), column.getString(record));
+				} else if (!Double.isNaN(column.getDouble(record))) {
+					builder.set(column.getName(), column.getDecimals() == 0 ? (Object) Long.valueOf((long) column.getDouble(record)) : (Object) Double.valueOf(column.getDouble(record)));
+				}
+			}
+			features.add(builder.buildFeature(typeName + "." + (record+1)));
+		}
+		
+		long bytes = shape_file.length() + new File(str_shp.substring(0, str_shp.length()-4) + ".dbf").length();
+		String report = "Loaded " + features.size() + " features from " + shape_file.getName() + " (" + bytes + " bytes, raw reader) in "
+				+ (System.currentTimeMillis() - startTime) + " msecs";
+		System.out.println(report);
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, report);
+		return features.toArray(new SimpleFeature[features.size()]);
+	}
+	
+	/**
+	 * @param str_shp - path and file name of the shapefile
+	 * @return the crs of the .prj file next to the shapefile, or null if there is none or it cannot be parsed
+	 */
+	private static CoordinateReferenceSystem readPrj(String str_shp) {
+		File prj_file = new File(str_shp.substring(0, str_shp.length()-4) + ".prj");
+		if (!prj_file.exists()) {
+			return null;
+		}
+		try {
+			return CRS.parseWKT(new String(Files.readAllBytes(prj_file.toPath()), StandardCharsets.ISO_8859_1).trim());
+		} catch (IOException e) {
+			Logger.getLogger(FileOperations.class.getName()).log(Level.WARNING, "Could not read " + prj_file, e);
+		} catch (FactoryException e) {
+			Logger.getLogger(FileOperations.class.getName()).log(Level.WARNING, "Could not parse " + prj_file, e);
+		}
+		return null;
+	}
+    
     /**
      * Taken from http://docs.geotools.org/latest/tutorials/feature/csv2shp.html
+     * Writes the collection synchronously, errors are logged
      * @param collection
      * @param shp_out_str
      */
     public static void createShapeFile(SimpleFeatureCollection collection, String shp_out_str) {
         try {
-            File shape_out = new File(shp_out_str);
-            SimpleFeatureType TYPE = collection.getSchema();
+            writeShapeFile(collection, shp_out_str, true);
+        } catch (MalformedURLException ex) {
+            Logger.getLogger(FileOperations.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (IOException ex) {
+            Logger.getLogger(FileOperations.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * Submits the collection to the shared OutputWriterService, to be written on a background thread.
+     * The collection must not be modified afterwards. Errors are reported by OutputWriterService.awaitCompletion
+     * @param collection
+     * @param shp_out_str
+     */
+    public static void createShapeFileAsync(SimpleFeatureCollection collection, String shp_out_str) {
+    	OutputWriterService.getInstance().submit(collection, shp_out_str);
+    }
+    
+    /**
+     * Writes the collection to a new shapefile
+     * @param collection
+     * @param shp_out_str
+     * @param spatialIndex - if true a spatial index (.qix) is created with the shapefile
+     * @throws IOException if the shapefile cannot be created or written
+     */
+    public static void writeShapeFile(SimpleFeatureCollection collection, String shp_out_str, boolean spatialIndex) throws IOException {
+        File shape_out = new File(shp_out_str);
+        SimpleFeatureType TYPE = collection.getSchema();
 
-            ShapefileDataStoreFactory dataStoreFactory = new ShapefileDataStoreFactory();
+        ShapefileDataStoreFactory dataStoreFactory = new ShapefileDataStoreFactory();
 
-            Map<String, Serializable> params = new HashMap<>();
-            params.put("url", shape_out.toURI().toURL());
-            params.put("create spatial index", Boolean.TRUE);
+        Map<String, Serializable> params = new HashMap<>();
+        params.put("url", shape_out.toURI().toURL());
+        params.put("create spatial index", spatialIndex);
 
-            ShapefileDataStore newDataStore = (ShapefileDataStore) dataStoreFactory.createNewDataStore(params);
+        ShapefileDataStore newDataStore = (ShapefileDataStore) dataStoreFactory.createNewDataStore(params);
+        try {
             newDataStore.createSchema(TYPE);
             Transaction transaction = new DefaultTransaction("create");
             String typeName = newDataStore.getTypeNames()[0];
@@ -105,7 +307,9 @@ public class FileOperations {
                 try {
                     featureStore.addFeatures(collection);
                     transaction.commit();
-
+                } catch (IOException ex) {
+                    transaction.rollback();
+                    throw ex;
                 } finally {
                     transaction.close();
                 }
@@ -114,10 +318,26 @@ public class FileOperations {
             	Logger.getLogger(FileOperations.class.getName()).log(Level.WARNING, typeName + " does not support read/write access");
                 System.out.println(typeName + " does not support read/write access");
             }
-        } catch (MalformedURLException ex) {
-            Logger.getLogger(FileOperations.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            newDataStore.dispose();
+        }
+    }
+    
+    /**
+     * Creates the spatial index (.qix) of an existing shapefile
+     * @param shp_str - path and file name of the shapefile
+     */
+    public static void createSpatialIndex(String shp_str) {
+        ShapefileDataStore dataStore = null;
+        try {
+            dataStore = new ShapefileDataStore(new File(shp_str).toURI().toURL());
+            dataStore.createSpatialIndex(true);
         } catch (IOException ex) {
-            Logger.getLogger(FileOperations.class.getName()).log(Level.SEVERE, null, ex);
+            Logger.getLogger(FileOperations.class.getName()).log(Level.SEVERE, "Could not create spatial index of " + shp_str, ex);
+        } finally {
+            if (dataStore != null) {
+                dataStore.dispose();
+            }
         }
     }
 
@@ -0,0 +1,182 @@
+package preprocessing.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+
+/**
+ * A bounded writer service which writes output files on background threads, so that the computation does not wait on disk I/O.
+ * At most MAX_PENDING writes are queued or running; submitting more blocks the caller until a write finishes (back-pressure).
+ * Collections passed to the service must not be modified after they are submitted.
+ * awaitCompletion waits for all submitted writes and reports the failed ones. The shared instance (getInstance) is used by the
+ * pipeline, its threads are daemon threads so that a forgotten await never keeps the program alive.
+ * Other output files (e.g. FlatGeobuf) are written through the same threads and back-pressure as a WriteTask
+ */
+public class OutputWriterService {
+	//number of writer threads
+	private static final int WRITER_THREADS = 2;
+	//max number of writes queued or running
+	private static final int MAX_PENDING = 6;
+
+	private static OutputWriterService instance;
+
+	/**
+	 * The write of one output file
+	 */
+	public interface WriteTask {
+		void write() throws IOException;
+	}
+
+	private final ExecutorService executor;
+	private final Semaphore pending;
+	private final int maxPending;
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicInteger written = new AtomicInteger();
+
+	/**
+	 * Class constructor
+	 * @param threads - number of writer threads
+	 * @param maxPending - max number of writes queued or running
+	 */
+	public OutputWriterService(int threads, int maxPending) {
+		final AtomicInteger threadNumber = new AtomicInteger(1);
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "output-writer-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.maxPending = Math.max(1, maxPending);
+		this.pending = new Semaphore(this.maxPending);
+	}
+
+	/**
+	 * @return the shared writer service of the pipeline
+	 */
+	public static synchronized OutputWriterService getInstance() {
+		if (instance == null) {
+			instance = new OutputWriterService(WRITER_THREADS, MAX_PENDING);
+		}
+		return instance;
+	}
+
+	/**
+	 * Submits a collection to be written as shapefile with spatial index. Blocks if the max number of pending writes is reached
+	 * @param collection - the features to write, must not be modified afterwards
+	 * @param shp_out_str - path and file name of the shapefile
+	 */
+	public void submit(SimpleFeatureCollection collection, String shp_out_str) {
+		submit(collection, shp_out_str, true);
+	}
+
+	/**
+	 * Submits a collection to be written as shapefile. Blocks if the max number of pending writes is reached
+	 * @param collection - the features to write, must not be modified afterwards
+	 * @param shp_out_str - path and file name of the shapefile
+	 * @param spatialIndex - if true a spatial index (.qix) is created with the shapefile
+	 */
+	public void submit(final SimpleFeatureCollection collection, final String shp_out_str, final boolean spatialIndex) {
+		submit(shp_out_str, new WriteTask() {
+			@Override
+			public void write() throws IOException {
+				FileOperations.writeShapeFile(collection, shp_out_str, spatialIndex);
+			}
+		});
+	}
+
+	/**
+	 * Submits the write of an output file. Blocks if the max number of pending writes is reached
+	 * @param out_str - path and file name of the output file, used for reporting
+	 * @param task - the write, the data it writes must not be modified afterwards
+	 */
+	public void submit(final String out_str, final WriteTask task) {
+		try {
+			pending.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failures.add(out_str + ": interrupted before write");
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						long startTime = System.currentTimeMillis();
+						task.write();
+						written.incrementAndGet();
+						Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, "Written " + out_str + " in " + (System.currentTimeMillis() - startTime) + " msecs");
+					} catch (Exception e) {
+						failures.add(out_str + ": " + e);
+						Logger.getLogger(OutputWriterService.class.getName()).log(Level.SEVERE, "Could not write " + out_str, e);
+					} finally {
+						pending.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			pending.release();
+			failures.add(out_str + ": " + e);
+		}
+	}
+
+	/**
+	 * Waits until all submitted writes have finished and reports the failed ones. The service can be used again afterwards
+	 * @return true if all writes succeeded
+	 */
+	public boolean awaitCompletion() {
+		try {
+			//all permits are available again when no write is queued or running
+			pending.acquire(maxPending);
+			pending.release(maxPending);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Interrupted while waiting for output writes");
+			return false;
+		}
+		List<String> failed;
+		synchronized (failures) {
+			failed = new ArrayList<String>(failures);
+			failures.clear();
+		}
+		System.out.println("Output writer: " + written.getAndSet(0) + " files written, " + failed.size() + " failed");
+		for (String failure : failed) {
+			System.err.println("Output file not written: " + failure);
+			Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, "Output file not written: " + failure);
+		}
+		return failed.isEmpty();
+	}
+
+	/**
+	 * Waits for all submitted writes and stops the writer threads
+	 * @return true if all writes succeeded
+	 */
+	public boolean shutdown() {
+		boolean success = awaitCompletion();
+		synchronized (OutputWriterService.class) {
+			if (instance == this) {
+				instance = null;
+			}
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return success;
+	}
+}
@@ -0,0 +1,67 @@
+package preprocessing.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * description:
+ * This class provides utility methods to run independent tasks in parallel
+ */
+public class ParallelOperations {
+
+	/**
+	 * Returns the number of worker threads used by default, that is the number of available processors
+	 * @return int
+	 */
+	public static int getParallelism() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Runs the given tasks on a fixed pool of worker threads and returns their results in the order of the tasks.
+	 * The pool is shut down when all tasks have finished
+	 * @param tasks - the tasks to run
+	 * @param threads - number of worker threads
+	 * @return List of task results, same order as the tasks
+	 * @throws IllegalStateException if a task fails or the calling thread is interrupted
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int threads) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (tasks.isEmpty()) {
+			return results;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+		try {
+			List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+			for (Callable<T> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Parallel task failed: " + e.getCause(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Parallel tasks interrupted", e);
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the given tasks with the default parallelism
+	 * @param tasks - the tasks to run
+	 * @return List of task results, same order as the tasks
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+		return invokeAll(tasks, getParallelism());
+	}
+}
@@ -8,10 +8,13 @@ import java.util.logging.SimpleFormatter;
 
 /**
  * @author Thomas Kouseras
- * Logger class to log output in text file
+ * Logger class to log output in text file. The FileHandler is wrapped in an AsyncLogHandler, so the text file is written
+ * by a background thread
  */
 public class PreprocessingLogger {
-	private static FileHandler txtFile;
+	//ring buffer size of the asynchronous handler
+	private static final int LOG_BUFFER = 8192;
+	private static AsyncLogHandler txtFile;
 	
 	static public void setup(String logFileName) {
 		//get global logger to configure it
@@ -20,13 +23,31 @@ public class PreprocessingLogger {
 		logger.setLevel(Level.INFO);
 		
 		try {
-			txtFile = new FileHandler(logFileName);
+			FileHandler fileHandler = new FileHandler(logFileName);
 			SimpleFormatter formater = new SimpleFormatter();
-			txtFile.setFormatter(formater);
+			fileHandler.setFormatter(formater);
+			txtFile = new AsyncLogHandler(fileHandler, LOG_BUFFER);
 			logger.addHandler(txtFile);
 			logger.setUseParentHandlers(false);
+			//write the pending records if the run ends without shutdown
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					shutdown();
+				}
+			}, "log-shutdown"));
 		} catch (SecurityException | IOException e) {
 			e.printStackTrace();
 		}
 	} 
+	
+	/**
+	 * Writes the pending log records and closes the log file. Called at the end of the run, calling it again has no effect
+	 */
+	static public synchronized void shutdown() {
+		if (txtFile == null) return;
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).removeHandler(txtFile);
+		txtFile.close();
+		txtFile = null;
+	}
 }
@@ -0,0 +1,546 @@
+package preprocessing.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A raw shapefile reader for the cases where loading the GeoTools feature model (see FileOperations.readShapeFile) is too slow.
+ * The .shp, .shx and .dbf files are memory-mapped and decoded straight into packed arrays: x,y coordinates, z values,
+ * part and record offsets, plus typed columns for the requested DBF attributes. No SimpleFeature or Geometry objects are created.
+ * Point, PointZ, PointM, PolyLine, PolyLineZ and PolyLineM records are supported, null shapes are read as records without points.
+ * Records are counted first (a few header values per record), then decoded into the pre-allocated arrays, optionally in parallel
+ * by record range. Record i of the shapefile is row i of the attribute columns.
+ * Files are mapped in chunks of 1 GB and addressed with long positions, so files larger than 2 GB can be read as long as
+ * the decoded arrays fit in int indexed Java arrays
+ */
+public class RawShapefileReader {
+	//shape types
+	public static final int NULL_SHAPE = 0;
+	public static final int POINT = 1;
+	public static final int POLYLINE = 3;
+	public static final int POINT_Z = 11;
+	public static final int POLYLINE_Z = 13;
+	public static final int POINT_M = 21;
+	public static final int POLYLINE_M = 23;
+
+	private static final int HEADER_LENGTH = 100;
+	//size of the mapped chunks of a file, a single mapping is limited to 2 GB
+	private static final long CHUNK_SIZE = 1L << 30;
+
+	private final String str_shp;
+	private final Charset charset;
+
+	/**
+	 * Class constructor, DBF text is decoded as ISO-8859-1
+	 * @param str_shp - path and file name of the shapefile (.shp), the .shx and .dbf files are expected next to it
+	 */
+	public RawShapefileReader(String str_shp) {
+		this(str_shp, Charset.forName("ISO-8859-1"));
+	}
+
+	/**
+	 * Class constructor
+	 * @param str_shp - path and file name of the shapefile (.shp), the .shx and .dbf files are expected next to it
+	 * @param charset - charset of the DBF text attributes
+	 */
+	public RawShapefileReader(String str_shp, Charset charset) {
+		this.str_shp = str_shp;
+		this.charset = charset;
+	}
+
+	/**
+	 * Reads and decodes the shapefile
+	 * @param properties - names of the DBF attributes to decode, unknown names are logged and skipped. Null for no attributes
+	 * @param threads - number of threads decoding record ranges, 1 decodes on the calling thread
+	 * @return the decoded Shapes
+	 * @throws IOException if a file cannot be read, contains an unsupported shape type, the .dbf file has a different number of records
+	 * than the .shp file or the decoded arrays would exceed the Java array size
+	 */
+	public Shapes read(String[] properties, int threads) throws IOException {
+		long startTime = System.currentTimeMillis();
+		String base = str_shp.substring(0, str_shp.length()-4);
+		final MappedFile shp = new MappedFile(new File(str_shp));
+		File shx_file = new File(base + ".shx");
+		File dbf_file = new File(base + ".dbf");
+
+		int shapeType = shp.getInt(32);
+		final long[] recordStarts = (shx_file.exists()) ? readIndex(new MappedFile(shx_file)) : scanRecords(shp);
+		final int numRecords = recordStarts.length;
+
+		//count pass: points and parts per record, turned into offsets
+		final int[] pointOffsets = new int[numRecords+1];
+		final int[] partOffsets = new int[numRecords+1];
+		long totalPoints = 0, totalParts = 0;
+		for (int i = 0; i < numRecords; i++) {
+			long content = recordStarts[i] + 8;
+			int type = shp.getInt(content);
+			int numParts = 0, numPoints = 0;
+			if (isPoint(type)) {
+				numParts = 1;
+				numPoints = 1;
+			} else if (isPolyLine(type)) {
+				numParts = shp.getInt(content + 36);
+				numPoints = shp.getInt(content + 40);
+			} else if (type != NULL_SHAPE) {
+				throw new IOException("Unsupported shape type " + type + " in record " + (i+1) + " of " + str_shp);
+			}
+			totalParts += numParts;
+			totalPoints += numPoints;
+			if (2*totalPoints > Integer.MAX_VALUE - 8 || totalParts > Integer.MAX_VALUE - 8) {
+				throw new IOException(str_shp + " has too many points to decode into arrays");
+			}
+			partOffsets[i+1] = (int) totalParts;
+			pointOffsets[i+1] = (int) totalPoints;
+		}
+
+		final double[] xy = new double[2*pointOffsets[numRecords]];
+		final double[] z = new double[pointOffsets[numRecords]];
+		final int[] parts = new int[partOffsets[numRecords]];
+		Arrays.fill(z, Double.NaN);
+
+		//dbf header and requested columns
+		final MappedFile dbf = (properties != null && properties.length > 0 && dbf_file.exists()) ? new MappedFile(dbf_file) : null;
+		final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+		final List<int[]> fieldOffsets = new ArrayList<int[]>();
+		int dbfHeaderLength = 0, dbfRecordLength = 0;
+		if (dbf != null) {
+			//attribute rows are matched to the records by position, so both files must hold the same records
+			if (dbf.getInt(4) != numRecords) {
+				throw new IOException(dbf_file.getName() + " contains " + dbf.getInt(4) + " records, " + str_shp + " contains " + numRecords);
+			}
+			dbfHeaderLength = dbf.getShort(8) & 0xFFFF;
+			dbfRecordLength = dbf.getShort(10) & 0xFFFF;
+			Map<String, int[]> fields = new LinkedHashMap<String, int[]>();
+			Map<String, Character> fieldTypes = new LinkedHashMap<String, Character>();
+			//field offset 1 skips the deletion flag of each record
+			int fieldOffset = 1;
+			for (int descriptor = 32; descriptor < dbfHeaderLength - 1 && dbf.get(descriptor) != 0x0D; descriptor += 32) {
+				byte[] nameBytes = new byte[11];
+				for (int k = 0; k < 11; k++) nameBytes[k] = dbf.get(descriptor + k);
+				String name = new String(nameBytes, Charset.forName("US-ASCII")).trim();
+				if (name.indexOf(0) >= 0) name = name.substring(0, name.indexOf(0));
+				int length = dbf.get(descriptor + 16) & 0xFF;
+				int decimals = dbf.get(descriptor + 17) & 0xFF;
+				fields.put(name.toUpperCase(), new int[]{fieldOffset, length, decimals});
+				fieldTypes.put(name.toUpperCase(), (char) dbf.get(descriptor + 11));
+				fieldOffset += length;
+			}
+			for (String property : properties) {
+				int[] field = fields.get(property.toUpperCase());
+				if (field == null) {
+					Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING, "Attribute " + property + " not found in " + dbf_file.getName());
+					continue;
+				}
+				columns.put(property, new Column(property, fieldTypes.get(property.toUpperCase()), field[2], numRecords));
+				fieldOffsets.add(field);
+			}
+		}
+		final boolean[] deleted = new boolean[numRecords];
+		final int dbfStart = dbfHeaderLength, dbfLength = dbfRecordLength;
+
+		//decode pass, record ranges write disjoint parts of the arrays
+		int ranges = Math.max(1, Math.min(threads, numRecords));
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(ranges);
+		for (int r = 0; r < ranges; r++) {
+			final int from = (int) ((long) numRecords * r / ranges);
+			final int to = (int) ((long) numRecords * (r+1) / ranges);
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					//the mapped files are only read with absolute positions, so they are shared between the threads
+					for (int i = from; i < to; i++) {
+						decodeShape(shp, recordStarts[i] + 8, pointOffsets[i], partOffsets[i], xy, z, parts);
+					}
+					if (dbf != null) {
+						List<Column> columnList = new ArrayList<Column>(columns.values());
+						for (int i = from; i < to; i++) {
+							long record = dbfStart + (long) i*dbfLength;
+							if (record + dbfLength > dbf.size()) break;
+							deleted[i] = dbf.get(record) == '*';
+							for (int c = 0; c < columnList.size(); c++) {
+								int[] field = fieldOffsets.get(c);
+								byte[] bytes = new byte[field[1]];
+								for (int k = 0; k < bytes.length; k++) bytes[k] = dbf.get(record + field[0] + k);
+								columnList.get(c).set(i, new String(bytes, charset).trim());
+							}
+						}
+					}
+					return to - from;
+				}
+			});
+		}
+		if (ranges == 1) {
+			try {
+				tasks.get(0).call();
+			} catch (Exception e) {
+				throw new IOException("Could not decode " + str_shp, e);
+			}
+		} else {
+			ParallelOperations.invokeAll(tasks, ranges);
+		}
+
+		String report = "Decoded " + numRecords + " records, " + z.length + " points from " + new File(str_shp).getName()
+				+ " (" + ranges + " ranges) in " + (System.currentTimeMillis() - startTime) + " msecs";
+		System.out.println(report);
+		Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO, report);
+		return new Shapes(shapeType, xy, z, parts, pointOffsets, partOffsets, columns, deleted);
+	}
+
+	/**
+	 * Decodes one record into the packed arrays
+	 * @param shp - the mapped .shp file
+	 * @param content - position of the record content (after the record header)
+	 * @param point - index of the first point of the record
+	 * @param part - index of the first part of the record
+	 */
+	private static void decodeShape(MappedFile shp, long content, int point, int part, double[] xy, double[] z, int[] parts) {
+		int type = shp.getInt(content);
+		if (isPoint(type)) {
+			parts[part] = point;
+			xy[2*point] = shp.getDouble(content + 4);
+			xy[2*point+1] = shp.getDouble(content + 12);
+			if (type == POINT_Z) z[point] = shp.getDouble(content + 20);
+		} else if (isPolyLine(type)) {
+			int numParts = shp.getInt(content + 36);
+			int numPoints = shp.getInt(content + 40);
+			for (int p = 0; p < numParts; p++) {
+				parts[part+p] = point + shp.getInt(content + 44 + 4*p);
+			}
+			long points = content + 44 + 4L*numParts;
+			for (int k = 0; k < 2*numPoints; k++) {
+				xy[2*point+k] = shp.getDouble(points + 8L*k);
+			}
+			if (type == POLYLINE_Z) {
+				//z range (min, max) precedes the z values
+				long zValues = points + 16L*numPoints + 16;
+				for (int k = 0; k < numPoints; k++) {
+					z[point+k] = shp.getDouble(zValues + 8L*k);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param shx - the mapped .shx file
+	 * @return the byte positions of the .shp records
+	 */
+	private static long[] readIndex(MappedFile shx) {
+		int numRecords = (int) ((shx.size() - HEADER_LENGTH) / 8);
+		long[] starts = new long[numRecords];
+		for (int i = 0; i < numRecords; i++) {
+			//offsets are unsigned, in 16-bit words
+			starts[i] = (shx.getIntBigEndian(HEADER_LENGTH + 8L*i) & 0xFFFFFFFFL) * 2;
+		}
+		return starts;
+	}
+
+	/**
+	 * Finds the record positions by walking the record headers of the .shp file, used when no .shx file exists
+	 * @param shp - the mapped .shp file
+	 * @return the byte positions of the .shp records
+	 */
+	private static long[] scanRecords(MappedFile shp) {
+		long fileLength = Math.min((shp.getIntBigEndian(24) & 0xFFFFFFFFL) * 2, shp.size());
+		List<Long> starts = new ArrayList<Long>();
+		long position = HEADER_LENGTH;
+		while (position + 8 <= fileLength) {
+			starts.add(position);
+			position += 8 + (shp.getIntBigEndian(position + 4) & 0xFFFFFFFFL) * 2;
+		}
+		long[] result = new long[starts.size()];
+		for (int i = 0; i < result.length; i++) result[i] = starts.get(i);
+		return result;
+	}
+
+	private static boolean isPoint(int type) {
+		return type == POINT || type == POINT_Z || type == POINT_M;
+	}
+
+	private static boolean isPolyLine(int type) {
+		return type == POLYLINE || type == POLYLINE_Z || type == POLYLINE_M;
+	}
+
+	/**
+	 * A read-only file mapped in chunks of CHUNK_SIZE, addressed with long positions. Values are little endian,
+	 * values crossing a chunk border are assembled from their bytes
+	 */
+	private static class MappedFile {
+		private final ByteBuffer[] chunks;
+		private final long size;
+
+		MappedFile(File file) throws IOException {
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				this.size = channel.size();
+				this.chunks = new ByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+				for (int c = 0; c < chunks.length; c++) {
+					long start = c * CHUNK_SIZE;
+					//the mapping stays valid after the channel is closed
+					chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start)).order(ByteOrder.LITTLE_ENDIAN);
+				}
+			} finally {
+				channel.close();
+			}
+		}
+
+		long size() {
+			return size;
+		}
+
+		byte get(long position) {
+			return chunks[(int) (position / CHUNK_SIZE)].get((int) (position % CHUNK_SIZE));
+		}
+
+		short getShort(long position) {
+			return (short) getLong(position, 2);
+		}
+
+		int getInt(long position) {
+			return (int) getLong(position, 4);
+		}
+
+		int getIntBigEndian(long position) {
+			return Integer.reverseBytes(getInt(position));
+		}
+
+		double getDouble(long position) {
+			return Double.longBitsToDouble(getLong(position, 8));
+		}
+
+		/**
+		 * Reads a little endian value of the given number of bytes
+		 */
+		private long getLong(long position, int bytes) {
+			int offset = (int) (position % CHUNK_SIZE);
+			ByteBuffer chunk = chunks[(int) (position / CHUNK_SIZE)];
+			if (offset + bytes <= chunk.limit()) {
+				switch (bytes) {
+					case 2: return chunk.getShort(offset);
+					case 4: return chunk.getInt(offset);
+					default: return chunk.getLong(offset);
+				}
+			}
+			long value = 0;
+			for (int k = bytes - 1; k >= 0; k--) {
+				value = (value << 8) | (get(position + k) & 0xFF);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * The decoded shapefile. Points of record i are the indices pointOffsets[i] to pointOffsets[i+1]-1, with x,y at
+	 * 2*index and 2*index+1 of the coordinates array and z (NaN if the shape type has none) at index of the z array.
+	 * Parts of record i are partOffsets[i] to partOffsets[i+1]-1 of the parts array, which holds the index of the first point of each part
+	 */
+	public static class Shapes {
+		private final int shapeType;
+		private final double[] xy;
+		private final double[] z;
+		private final int[] parts;
+		private final int[] pointOffsets;
+		private final int[] partOffsets;
+		private final Map<String, Column> columns;
+		private final boolean[] deleted;
+
+		Shapes(int shapeType, double[] xy, double[] z, int[] parts, int[] pointOffsets, int[] partOffsets, Map<String, Column> columns, boolean[] deleted) {
+			this.shapeType = shapeType;
+			this.xy = xy;
+			this.z = z;
+			this.parts = parts;
+			this.pointOffsets = pointOffsets;
+			this.partOffsets = partOffsets;
+			this.columns = columns;
+			this.deleted = deleted;
+		}
+
+		public int getShapeType() {
+			return shapeType;
+		}
+
+		public int getNumRecords() {
+			return pointOffsets.length - 1;
+		}
+
+		public int getNumPoints() {
+			return z.length;
+		}
+
+		/**
+		 * @return packed x,y coordinates of all points
+		 */
+		public double[] getCoordinates() {
+			return xy;
+		}
+
+		/**
+		 * @return z values of all points
+		 */
+		public double[] getZ() {
+			return z;
+		}
+
+		/**
+		 * @return index of the first point of each part
+		 */
+		public int[] getParts() {
+			return parts;
+		}
+
+		/**
+		 * @return index of the first point of each record, plus the number of points as last entry
+		 */
+		public int[] getPointOffsets() {
+			return pointOffsets;
+		}
+
+		/**
+		 * @return index of the first part of each record, plus the number of parts as last entry
+		 */
+		public int[] getPartOffsets() {
+			return partOffsets;
+		}
+
+		/**
+		 * @param record
+		 * @return true if the DBF row of the record is marked as deleted
+		 */
+		public boolean isDeleted(int record) {
+			return deleted[record];
+		}
+
+		/**
+		 * @param name - attribute name as requested in read
+		 * @return the column or null if it was not read
+		 */
+		public Column getColumn(String name) {
+			return columns.get(name);
+		}
+
+		/**
+		 * @param point - point index
+		 * @return the point as Coordinate
+		 */
+		public Coordinate getCoordinate(int point) {
+			return new Coordinate(xy[2*point], xy[2*point+1], z[point]);
+		}
+
+		/**
+		 * @param record
+		 * @return all points of the record (all parts) as Coordinates
+		 */
+		public Coordinate[] getCoordinates(int record) {
+			Coordinate[] coords = new Coordinate[pointOffsets[record+1] - pointOffsets[record]];
+			for (int k = 0; k < coords.length; k++) {
+				coords[k] = getCoordinate(pointOffsets[record] + k);
+			}
+			return coords;
+		}
+	}
+
+	/**
+	 * A typed DBF attribute column. Numeric fields (N, F) are held as doubles (NaN for empty values), all others as trimmed Strings
+	 */
+	public static class Column {
+		private final String name;
+		private final char type;
+		private final int decimals;
+		private final String[] strings;
+		private final double[] numbers;
+
+		Column(String name, char type, int decimals, int size) {
+			this.name = name;
+			this.type = type;
+			this.decimals = decimals;
+			if (isNumeric()) {
+				this.strings = null;
+				this.numbers = new double[size];
+			} else {
+				this.strings = new String[size];
+				this.numbers = null;
+			}
+		}
+
+		void set(int record, String value) {
+			if (numbers == null) {
+				strings[record] = value;
+				return;
+			}
+			try {
+				numbers[record] = value.isEmpty() ? Double.NaN : Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				numbers[record] = Double.NaN;
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return number of decimals of the DBF field
+		 */
+		public int getDecimals() {
+			return decimals;
+		}
+
+		/**
+		 * @return the DBF field type (C, N, F, D, L)
+		 */
+		public char getType() {
+			return type;
+		}
+
+		public boolean isNumeric() {
+			return type == 'N' || type == 'F';
+		}
+
+		/**
+		 * @param record
+		 * @return the value as String, numeric fields without decimals are formatted as integers. Null for empty numeric values
+		 */
+		public String getString(int record) {
+			if (numbers == null) return strings[record];
+			double value = numbers[record];
+			if (Double.isNaN(value)) return null;
+			return (decimals == 0) ? String.valueOf((long) value) : String.valueOf(value);
+		}
+
+		/**
+		 * @param record
+		 * @return the value as double, NaN for empty or not numeric values
+		 */
+		public double getDouble(int record) {
+			if (numbers != null) return numbers[record];
+			if (strings[record] == null) return Double.NaN;
+			try {
+				return Double.parseDouble(strings[record]);
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+
+		/**
+		 * @param record
+		 * @return the value as int
+		 */
+		public int getInt(int record) {
+			return (int) getDouble(record);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package preprocessing.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * A registry of the output feature types (schemas). Each schema is built once, with all its attributes, and reused
+ * for every feature written with it. Features are built in one pass with a SimpleFeatureBuilder of the schema:
+ *  - merged_pivots: 	simplified slopes, bus lines, lifts and links, ready for the feature merge and the graph creation
+ *  - links: 			slope, lift and bus links (geometry type of the input features)
+ *  - intersections: 	slope intersection points
+ *  - segments: 		split segments, the original feature type plus r_id
+ *  - vertices: 		merged_pivots edge end-points (source and target vertices)
+ * SimpleFeatureBuilder is not thread-safe, so each thread building features must use its own builder (see newBuilder)
+ */
+public class SchemaRegistry {
+	public static final String MERGED_PIVOTS = "merged_pivots";
+
+	//schemas are keyed by name and crs or template type. HashMap allows a null crs (input without .prj file), access is guarded by synchronized blocks
+	private static final Map<List<Object>, SimpleFeatureType> schemas = new HashMap<List<Object>, SimpleFeatureType>();
+
+	/**
+	 * Returns the merged_pivots feature type: "XML_TYPE", "de_name", "difficulty", "source", "target", "duration", "length", "r_length",
+	 * "r_rev_c", "rev_c", "cost_1", "cost_2", "cost_3", "r_cost_1", "r_cost_2", "r_cost_3", "open", "start_z", "end_z", "r_id".
+	 * source and target are Integer vertex ids (see VertexTable). Earlier versions wrote them as String "0" placeholders,
+	 * so tables created from an older merged_pivots output need the columns changed to integer
+	 * @param crs - CoordinateReferenceSystem for the geometry
+	 * @return SimpleFeatureType
+	 */
+	public static SimpleFeatureType getMergedPivotsType(CoordinateReferenceSystem crs) {
+		List<Object> key = Arrays.<Object>asList(MERGED_PIVOTS, crs);
+		synchronized (schemas) {
+			SimpleFeatureType type = schemas.get(key);
+			if (type == null) {
+				SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
+				stb.setName(MERGED_PIVOTS);
+				stb.setCRS(crs);
+				stb.add("the_geom", LineString.class);
+				stb.add("XML_TYPE", String.class);
+				stb.add("de_name", String.class);
+				stb.add("difficulty", Integer.class);
+				stb.add("source", Integer.class);
+				stb.add("target", Integer.class);
+				stb.add("duration", Double.class);
+				stb.add("length", Double.class);
+				stb.add("r_length", Double.class);
+				stb.add("r_rev_c", Double.class);
+				stb.add("rev_c", Double.class);
+				stb.add("cost_1", Double.class);
+				stb.add("cost_2", Double.class);
+				stb.add("cost_3", Double.class);
+				stb.add("r_cost_1", Double.class);
+				stb.add("r_cost_2", Double.class);
+				stb.add("r_cost_3", Double.class);
+				stb.add("open", Integer.class);
+				stb.add("start_z", Double.class);
+				stb.add("end_z", Double.class);
+				stb.add("r_id", Integer.class);
+				type = stb.buildFeatureType();
+				schemas.put(key, type);
+			}
+			return type;
+		}
+	}
+
+	/**
+	 * Returns the links feature type: the template type cleared from its attributes except the geometry, plus
+	 * "r_id", "de_name", "gid_start", "gid_end", "length", "height", "rate" (see Link.getAttributes)
+	 * @param template - feature type of the linked features
+	 * @return SimpleFeatureType
+	 */
+	public static SimpleFeatureType getLinksType(SimpleFeatureType template) {
+		List<Object> key = Arrays.<Object>asList("links", template);
+		synchronized (schemas) {
+			SimpleFeatureType type = schemas.get(key);
+			if (type == null) {
+				SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
+				stb.init(FeatureOperations.clearAttributes(template));
+				stb.add("r_id", Integer.class);
+				stb.add("de_name", String.class);
+				stb.add("gid_start", String.class);
+				stb.add("gid_end", String.class);
+				stb.add("length", Double.class);
+				stb.add("height", Double.class);
+				stb.add("rate", String.class);
+				type = stb.buildFeatureType();
+				schemas.put(key, type);
+			}
+			return type;
+		}
+	}
+
+	/**
+	 * Returns the intersections point feature type: "de_name", "gid_start", "gid_end", "length", "heightDif" (see Candidate.getAttributes)
+	 * @param crs - CoordinateReferenceSystem for the geometry
+	 * @param typeName - name of the feature type
+	 * @return SimpleFeatureType
+	 */
+	public static SimpleFeatureType getIntersectionsType(CoordinateReferenceSystem crs, String typeName) {
+		List<Object> key = Arrays.<Object>asList("intersections", typeName, crs);
+		synchronized (schemas) {
+			SimpleFeatureType type = schemas.get(key);
+			if (type == null) {
+				SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
+				stb.setName(typeName);
+				stb.setCRS(crs);
+				stb.add("the_geom", Point.class);
+				stb.add("de_name", String.class);
+				stb.add("gid_start", String.class);
+				stb.add("gid_end", String.class);
+				stb.add("length", Double.class);
+				stb.add("heightDif", Double.class);
+				type = stb.buildFeatureType();
+				schemas.put(key, type);
+			}
+			return type;
+		}
+	}
+
+	/**
+	 * Returns the feature type of split segments: the original feature type plus an Integer r_id attribute
+	 * @param original - feature type of the split feature
+	 * @return SimpleFeatureType
+	 */
+	public static SimpleFeatureType getSegmentsType(SimpleFeatureType original) {
+		List<Object> key = Arrays.<Object>asList("segments", original);
+		synchronized (schemas) {
+			SimpleFeatureType type = schemas.get(key);
+			if (type == null) {
+				SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
+				stb.init(original);
+				stb.add("r_id", Integer.class);
+				type = stb.buildFeatureType();
+				schemas.put(key, type);
+			}
+			return type;
+		}
+	}
+
+	/**
+	 * Returns the vertices point feature type: "id", "elev"
+	 * @param crs - CoordinateReferenceSystem for the geometry
+	 * @return SimpleFeatureType
+	 */
+	public static SimpleFeatureType getVerticesType(CoordinateReferenceSystem crs) {
+		List<Object> key = Arrays.<Object>asList("vertices", crs);
+		synchronized (schemas) {
+			SimpleFeatureType type = schemas.get(key);
+			if (type == null) {
+				SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
+				stb.setName("vertices");
+				stb.setCRS(crs);
+				stb.add("the_geom", Point.class);
+				stb.add("id", Integer.class);
+				stb.add("elev", Double.class);
+				type = stb.buildFeatureType();
+				schemas.put(key, type);
+			}
+			return type;
+		}
+	}
+
+	/**
+	 * Returns a new feature builder for the given schema. The builder can be reused for any number of features, by one thread
+	 * @param type
+	 * @return SimpleFeatureBuilder
+	 */
+	public static SimpleFeatureBuilder newBuilder(SimpleFeatureType type) {
+		return new SimpleFeatureBuilder(type);
+	}
+
+	/**
+	 * Builds a feature in one pass: sets the geometry and all attribute values and builds the feature.
+	 * The builder is reset afterwards and can be used for the next feature
+	 * @param builder - builder of the schema, whose attributes contain all given attribute names
+	 * @param geometry
+	 * @param attributes - attribute names and values
+	 * @return SimpleFeature
+	 */
+	public static SimpleFeature buildFeature(SimpleFeatureBuilder builder, Geometry geometry, Map<String, Object> attributes) {
+		builder.set(builder.getFeatureType().getGeometryDescriptor().getLocalName(), geometry);
+		for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+			builder.set(attribute.getKey(), attribute.getValue());
+		}
+		return builder.buildFeature(null);
+	}
+}